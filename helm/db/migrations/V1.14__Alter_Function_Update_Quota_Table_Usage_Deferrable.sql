@@ -0,0 +1,55 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Allow a transaction to defer the quotas.totalUsage updates, so that batch inserts of usages
+--- can recompute each affected quota once instead of once per row. Transactions opt in with:
+---     SET LOCAL bookkeeper.defer_quota_totals = 'on';
+--- and must then update quotas.totalUsage for the quotas they changed before committing.
+
+--- Replace the update quota usage function for inserts and updates
+CREATE OR REPLACE FUNCTION update_quota_usage_on_insert_or_update()
+    RETURNS trigger
+    AS $update_quota_usage_on_insert_or_update$
+    BEGIN
+        -- Check that quotaId is given
+        IF NEW.quotaId IS NULL THEN
+            RAISE EXCEPTION 'quotaId cannot be null';
+        END IF;
+
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN NEW;
+        END IF;
+
+        -- Update the quotas.totalUsage column
+        UPDATE quotas q
+            SET totalUsage = (SELECT SUM(u.quantity) FROM usages u WHERE u.status != 'inactive' AND u.quotaId = NEW.quotaId)
+                WHERE q.id = NEW.quotaId;
+        RETURN NEW;
+    END;
+    $update_quota_usage_on_insert_or_update$
+    LANGUAGE plpgsql;
+
+--- Replace the update quota totalUsage function for deletes
+CREATE OR REPLACE FUNCTION update_quota_usage_on_delete()
+    RETURNS trigger
+    AS $update_quota_usage_on_delete$
+    BEGIN
+        -- Check that quotaId is given
+        IF OLD.quotaId IS NULL THEN
+            RAISE EXCEPTION 'quotaId cannot be null';
+        END IF;
+
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN OLD;
+        END IF;
+
+        -- Update the quotas.usage column
+        UPDATE quotas q
+            SET totalUsage = (SELECT SUM(u.quantity) FROM usages u WHERE u.status != 'inactive' AND u.quotaId = OLD.quotaId)
+                WHERE q.id = OLD.quotaId;
+        RETURN OLD;
+    END;
+    $update_quota_usage_on_delete$
+    LANGUAGE plpgsql;
@@ -0,0 +1,88 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Maintain quotas.totalUsage incrementally. Rather than summing every usage of the quota on
+--- each row change, add the amount the changed row contributes now and subtract the amount it
+--- contributed before. A usage contributes its quantity unless its status is 'inactive'.
+--- Totals can be recomputed from the usages with the reconcile-quota-totals admin task.
+
+--- Replace the update quota usage function for inserts and updates
+CREATE OR REPLACE FUNCTION update_quota_usage_on_insert_or_update()
+    RETURNS trigger
+    AS $update_quota_usage_on_insert_or_update$
+    DECLARE
+        old_amount double precision := 0;
+        new_amount double precision := 0;
+    BEGIN
+        -- Check that quotaId is given
+        IF NEW.quotaId IS NULL THEN
+            RAISE EXCEPTION 'quotaId cannot be null';
+        END IF;
+
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN NEW;
+        END IF;
+
+        -- The amounts the row contributed before and after the change
+        IF TG_OP = 'UPDATE' AND OLD.status != 'inactive' THEN
+            old_amount := COALESCE(OLD.quantity, 0);
+        END IF;
+        IF NEW.status != 'inactive' THEN
+            new_amount := COALESCE(NEW.quantity, 0);
+        END IF;
+
+        -- Update the quotas.totalUsage column, moving the amount when the quota changes
+        IF TG_OP = 'UPDATE' AND OLD.quotaId IS DISTINCT FROM NEW.quotaId THEN
+            IF old_amount != 0 THEN
+                UPDATE quotas q
+                    SET totalUsage = COALESCE(q.totalUsage, 0) - old_amount
+                        WHERE q.id = OLD.quotaId;
+            END IF;
+            UPDATE quotas q
+                SET totalUsage = COALESCE(q.totalUsage, 0) + new_amount
+                    WHERE q.id = NEW.quotaId;
+        ELSIF TG_OP = 'INSERT' OR new_amount != old_amount THEN
+            UPDATE quotas q
+                SET totalUsage = COALESCE(q.totalUsage, 0) + new_amount - old_amount
+                    WHERE q.id = NEW.quotaId;
+        END IF;
+        RETURN NEW;
+    END;
+    $update_quota_usage_on_insert_or_update$
+    LANGUAGE plpgsql;
+
+--- Replace the update quota totalUsage function for deletes
+CREATE OR REPLACE FUNCTION update_quota_usage_on_delete()
+    RETURNS trigger
+    AS $update_quota_usage_on_delete$
+    BEGIN
+        -- Check that quotaId is given
+        IF OLD.quotaId IS NULL THEN
+            RAISE EXCEPTION 'quotaId cannot be null';
+        END IF;
+
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN OLD;
+        END IF;
+
+        -- Subtract the amount the row contributed from the quotas.totalUsage column
+        IF OLD.status != 'inactive' AND COALESCE(OLD.quantity, 0) != 0 THEN
+            UPDATE quotas q
+                SET totalUsage = COALESCE(q.totalUsage, 0) - OLD.quantity
+                    WHERE q.id = OLD.quotaId;
+        END IF;
+        RETURN OLD;
+    END;
+    $update_quota_usage_on_delete$
+    LANGUAGE plpgsql;
+
+--- Recompute the existing totals, so the incremental updates start from the sum of the usages.
+--- Block usage writes until the migration commits, so none fall between the new functions and
+--- the recompute.
+LOCK TABLE usages IN SHARE MODE;
+UPDATE quotas q
+    SET totalUsage = (SELECT SUM(u.quantity) FROM usages u WHERE u.status != 'inactive' AND u.quotaId = q.id)
+    WHERE q.totalUsage IS DISTINCT FROM
+        (SELECT SUM(u.quantity) FROM usages u WHERE u.status != 'inactive' AND u.quotaId = q.id);
@@ -0,0 +1,142 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Maintain quotas.totalUsage once per statement rather than once per row. The statement
+--- triggers read the changed rows from transition tables, sum the change in the amount of
+--- each affected quota, and update each quota once, so bulk changes such as inactivating
+--- every usage of an instance cost one quota update per quota. A usage contributes its
+--- quantity unless its status is 'inactive'. Postgres only allows transition tables on
+--- triggers for a single event, so inserts, updates and deletes have their own triggers.
+--- The functions read their transition table once into arrays, and update the quotas from the
+--- arrays. Postgres 10 loses the transition table when an UPDATE rechecks a quota row that a
+--- concurrent transaction updated, failing with "could not find named tuplestore".
+
+--- Drop the row-level triggers and functions replaced by the statement-level triggers
+DROP TRIGGER IF EXISTS update_quotas_usage_on_insert_or_update ON usages;
+DROP TRIGGER IF EXISTS update_quotas_usage_on_delete ON usages;
+DROP FUNCTION IF EXISTS update_quota_usage_on_insert_or_update();
+DROP FUNCTION IF EXISTS update_quota_usage_on_delete();
+
+--- Create the update quota usage function for inserts
+CREATE OR REPLACE FUNCTION update_quota_usage_on_insert()
+    RETURNS trigger
+    AS $update_quota_usage_on_insert$
+    DECLARE
+        quota_ids integer[];
+        deltas double precision[];
+    BEGIN
+        -- Check that quotaId is given
+        IF EXISTS (SELECT 1 FROM new_usages n WHERE n.quotaId IS NULL) THEN
+            RAISE EXCEPTION 'quotaId cannot be null';
+        END IF;
+
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN NULL;
+        END IF;
+
+        -- Sum the amounts of the inserted usages
+        SELECT array_agg(d.quotaId), array_agg(d.delta)
+            INTO quota_ids, deltas
+            FROM (SELECT n.quotaId,
+                         SUM(CASE WHEN n.status != 'inactive' THEN COALESCE(n.quantity, 0) ELSE 0 END) AS delta
+                    FROM new_usages n GROUP BY n.quotaId) d;
+
+        -- Add them to the quotas.totalUsage column
+        UPDATE quotas q
+            SET totalUsage = COALESCE(q.totalUsage, 0) + d.delta
+            FROM unnest(quota_ids, deltas) AS d(quotaId, delta)
+                WHERE q.id = d.quotaId;
+        RETURN NULL;
+    END;
+    $update_quota_usage_on_insert$
+    LANGUAGE plpgsql;
+
+--- Create the update quota usage function for updates
+CREATE OR REPLACE FUNCTION update_quota_usage_on_update()
+    RETURNS trigger
+    AS $update_quota_usage_on_update$
+    DECLARE
+        quota_ids integer[];
+        deltas double precision[];
+    BEGIN
+        -- Check that quotaId is given
+        IF EXISTS (SELECT 1 FROM new_usages n WHERE n.quotaId IS NULL) THEN
+            RAISE EXCEPTION 'quotaId cannot be null';
+        END IF;
+
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN NULL;
+        END IF;
+
+        -- Sum the new amounts less the old amounts, including when the quota changed
+        SELECT array_agg(d.quotaId), array_agg(d.delta)
+            INTO quota_ids, deltas
+            FROM (SELECT c.quotaId, SUM(c.amount) AS delta
+                    FROM (SELECT n.quotaId,
+                                 CASE WHEN n.status != 'inactive' THEN COALESCE(n.quantity, 0) ELSE 0 END AS amount
+                            FROM new_usages n
+                          UNION ALL
+                          SELECT o.quotaId,
+                                 CASE WHEN o.status != 'inactive' THEN -COALESCE(o.quantity, 0) ELSE 0 END AS amount
+                            FROM old_usages o) c
+                    GROUP BY c.quotaId) d
+            WHERE d.delta != 0;
+
+        -- Add them to the quotas.totalUsage column
+        UPDATE quotas q
+            SET totalUsage = COALESCE(q.totalUsage, 0) + d.delta
+            FROM unnest(quota_ids, deltas) AS d(quotaId, delta)
+                WHERE q.id = d.quotaId;
+        RETURN NULL;
+    END;
+    $update_quota_usage_on_update$
+    LANGUAGE plpgsql;
+
+--- Create the update quota usage function for deletes
+CREATE OR REPLACE FUNCTION update_quota_usage_on_delete()
+    RETURNS trigger
+    AS $update_quota_usage_on_delete$
+    DECLARE
+        quota_ids integer[];
+        deltas double precision[];
+    BEGIN
+        -- Skip the update when the transaction recomputes the totals itself
+        IF current_setting('bookkeeper.defer_quota_totals', true) = 'on' THEN
+            RETURN NULL;
+        END IF;
+
+        -- Sum the amounts of the deleted usages
+        SELECT array_agg(d.quotaId), array_agg(d.delta)
+            INTO quota_ids, deltas
+            FROM (SELECT o.quotaId,
+                         SUM(CASE WHEN o.status != 'inactive' THEN COALESCE(o.quantity, 0) ELSE 0 END) AS delta
+                    FROM old_usages o GROUP BY o.quotaId) d
+            WHERE d.delta != 0;
+
+        -- Subtract them from the quotas.totalUsage column
+        UPDATE quotas q
+            SET totalUsage = COALESCE(q.totalUsage, 0) - d.delta
+            FROM unnest(quota_ids, deltas) AS d(quotaId, delta)
+                WHERE q.id = d.quotaId;
+        RETURN NULL;
+    END;
+    $update_quota_usage_on_delete$
+    LANGUAGE plpgsql;
+
+--- Create the update quota totalUsage triggers
+CREATE TRIGGER update_quotas_usage_on_insert AFTER INSERT ON usages
+    REFERENCING NEW TABLE AS new_usages
+    FOR EACH STATEMENT
+        EXECUTE PROCEDURE update_quota_usage_on_insert();
+
+CREATE TRIGGER update_quotas_usage_on_update AFTER UPDATE ON usages
+    REFERENCING OLD TABLE AS old_usages NEW TABLE AS new_usages
+    FOR EACH STATEMENT
+        EXECUTE PROCEDURE update_quota_usage_on_update();
+
+CREATE TRIGGER update_quotas_usage_on_delete AFTER DELETE ON usages
+    REFERENCING OLD TABLE AS old_usages
+    FOR EACH STATEMENT
+        EXECUTE PROCEDURE update_quota_usage_on_delete();
@@ -0,0 +1,5 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Index quotas by subject and quotaType for quota admission checks
+CREATE INDEX IF NOT EXISTS quotas_subject_quotaType_idx ON quotas USING btree(subject, quotaType);
@@ -0,0 +1,10 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Add the expiry of usage reservations. A reservation is a usage with the 'pending' status,
+--- which counts toward quotas.totalUsage like an active usage until it is committed
+--- (becoming 'active') or released (deleted) when cancelled or expired.
+ALTER TABLE usages ADD COLUMN IF NOT EXISTS expires timestamp with time zone;
+CREATE INDEX IF NOT EXISTS usages_pending_expires_idx ON usages USING btree(expires)
+    WHERE status = 'pending';
+COMMENT ON COLUMN usages.expires IS 'The time a pending usage reservation expires, or null.';
@@ -0,0 +1,21 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Notify listeners on the products_changed channel when products are inserted, updated, or
+--- deleted, so every bookkeeper instance can reload its in-memory product catalog. Postgres
+--- delivers the notification when the transaction commits, and folds duplicate notifications
+--- of a transaction into one.
+CREATE OR REPLACE FUNCTION notify_products_changed()
+    RETURNS trigger
+    AS $notify_products_changed$
+    BEGIN
+        PERFORM pg_notify('products_changed', '');
+        RETURN NULL;
+    END;
+$notify_products_changed$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS products_changed ON products;
+CREATE TRIGGER products_changed
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON products
+    FOR EACH STATEMENT
+    EXECUTE PROCEDURE notify_products_changed();
@@ -0,0 +1,26 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Store the JSON columns as jsonb so they aren't reparsed on every read,
+--- and so their contents can be indexed
+ALTER TABLE orders
+    ALTER COLUMN charge TYPE jsonb USING charge::jsonb,
+    ALTER COLUMN items TYPE jsonb USING items::jsonb,
+    ALTER COLUMN metadata TYPE jsonb USING metadata::jsonb,
+    ALTER COLUMN statusTransitions TYPE jsonb USING statusTransitions::jsonb;
+
+ALTER TABLE customers
+    ALTER COLUMN address TYPE jsonb USING address::jsonb,
+    ALTER COLUMN discount TYPE jsonb USING discount::jsonb,
+    ALTER COLUMN invoiceSettings TYPE jsonb USING invoiceSettings::jsonb,
+    ALTER COLUMN metadata TYPE jsonb USING metadata::jsonb;
+
+ALTER TABLE products
+    ALTER COLUMN metadata TYPE jsonb USING metadata::jsonb;
+
+--- Index order items for containment queries by product, e.g. items @> '[{"parent": 1}]'
+CREATE INDEX IF NOT EXISTS orders_items_idx ON orders USING gin(items jsonb_path_ops);
+
+--- Index product metadata for containment queries by feature,
+--- e.g. metadata @> '{"features": [{"quota": {"quotaType": "portal"}}]}'
+CREATE INDEX IF NOT EXISTS products_metadata_idx ON products USING gin(metadata jsonb_path_ops);
@@ -0,0 +1,10 @@
+--- Note that this is completed in k8s via the Dockerfile
+--- or via a shell script in non-k8s development envs
+
+--- Cover usage status lookups by instanceId and quotaType, so both sides of the join
+--- are read with index-only scans. The usages index leads with instanceId, replacing
+--- the single column index.
+CREATE INDEX IF NOT EXISTS usages_instanceId_quotaId_status_idx
+    ON usages USING btree(instanceId, quotaId, status);
+DROP INDEX IF EXISTS usages_instanceId_idx;
+CREATE INDEX IF NOT EXISTS quotas_id_quotaType_idx ON quotas USING btree(id, quotaType);
@@ -35,14 +35,24 @@ import io.dropwizard.setup.Environment;
 import org.apache.commons.logging.Log;
 import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.config.BookkeeperConfiguration;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.dataone.bookkeeper.jdbi.UsageStore;
+import org.dataone.bookkeeper.quotas.ProductQuotaTemplates;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
+import org.dataone.bookkeeper.quotas.ReservationSweeper;
+import org.dataone.bookkeeper.quotas.UsageStatusCache;
 import org.dataone.bookkeeper.resources.*;
 import org.dataone.bookkeeper.security.DataONEAuthHelper;
 import org.dataone.bookkeeper.security.DataONEAuthenticator;
 import org.dataone.bookkeeper.security.DataONEAuthorizer;
+import org.dataone.bookkeeper.tasks.ReconcileQuotaTotalsTask;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 import org.jdbi.v3.core.Jdbi;
 
 import javax.ws.rs.WebApplicationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The main Bookkeeper REST service application
@@ -92,25 +102,65 @@ public class Bookkeeper extends Application<BookkeeperConfiguration> {
         final Jdbi database = factory.build(environment, dataSourceFactory, "postgresql");
 
         final DataONEAuthHelper dataoneHelper =
-            new DataONEAuthHelper(environment, database, configuration.getDataONEConfiguration());
+            new DataONEAuthHelper(environment, database, configuration.getDataONEConfiguration(),
+                configuration.getSubjectInfoCachePolicy(),
+                configuration.getSubjectNotFoundTtlSeconds(),
+                configuration.getCustomerCachePolicy());
 
         // TODO: Do we need to enable CORS, or let the ingress controller handle it?
         // https://stackoverflow.com/questions/25775364/enabling-cors-in-dropwizard-not-working#25801822
 
+        // Cache quota headroom for quota admission checks
+        final QuotaHeadroomCache quotaHeadroomCache =
+            new QuotaHeadroomCache(database.onDemand(QuotaStore.class),
+                configuration.getQuotaHeadroomCachePolicy(), environment.metrics());
+
+        // Cache usage statuses for the unauthenticated status lookups
+        final UsageStatusCache usageStatusCache =
+            new UsageStatusCache(database.onDemand(UsageStore.class),
+                configuration.getUsageStatusCachePolicy(), environment.metrics());
+
+        // Serve products from memory, reloading when any instance changes them
+        final ProductCatalog productCatalog = new ProductCatalog(database);
+        environment.lifecycle().manage(productCatalog);
+
+        // Cache the quotas granted by each product of the catalog for order payments
+        final ProductQuotaTemplates productQuotaTemplates =
+            new ProductQuotaTemplates(productCatalog,
+                configuration.getProductQuotaTemplateCachePolicy(), environment.metrics());
+
+        // Expire abandoned usage reservations on a schedule
+        ScheduledExecutorService reservationSweeper = environment.lifecycle()
+            .scheduledExecutorService("reservation-sweeper-%d")
+            .threads(1)
+            .build();
+        reservationSweeper.scheduleWithFixedDelay(
+            new ReservationSweeper(database.onDemand(UsageStore.class), quotaHeadroomCache,
+                usageStatusCache),
+            configuration.getReservationSweepSeconds(), configuration.getReservationSweepSeconds(),
+            TimeUnit.SECONDS);
+
         // Register the products resource
-        environment.jersey().register(new ProductsResource(database, dataoneHelper));
+        environment.jersey().register(new ProductsResource(database, dataoneHelper,
+            productCatalog));
 
         // Register the quotas resource
-        environment.jersey().register(new QuotasResource(database, dataoneHelper));
+        environment.jersey().register(new QuotasResource(database, dataoneHelper, quotaHeadroomCache));
 
         // Register the usages resource
-        environment.jersey().register(new UsagesResource(database, dataoneHelper));
+        environment.jersey().register(new UsagesResource(database, dataoneHelper, quotaHeadroomCache,
+            configuration.getReservationTtlSeconds(), usageStatusCache,
+            configuration.getUsageStatusMaxAgeSeconds()));
 
         // Register the customers resource
         environment.jersey().register(new CustomersResource(database, dataoneHelper));
 
         // Register the orders resource
-        environment.jersey().register(new OrdersResource(database, dataoneHelper));
+        environment.jersey().register(new OrdersResource(database, dataoneHelper, quotaHeadroomCache,
+            productCatalog, productQuotaTemplates));
+
+        // Register the admin task recomputing the incrementally maintained quota totals
+        environment.admin().addTask(new ReconcileQuotaTotalsTask(database));
 
         // Register role-based authorization
         environment.jersey().register(RolesAllowedDynamicFeature.class);
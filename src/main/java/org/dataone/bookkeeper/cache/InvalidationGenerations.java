@@ -0,0 +1,194 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Tracks invalidations of cached values, so a cache can discard an entry whose load
+ * raced a change of the data behind it.
+ *
+ * Each invalidation takes the next generation number and records it for the invalidated
+ * key, and each cache entry records the generation its load started in. An entry is stale
+ * when one of its keys was invalidated after its load started. Records older than the
+ * retention are pruned, raising a floor generation instead: entries loaded before the
+ * floor are stale too, and are reloaded once. The records are therefore bounded by the
+ * invalidations of one retention period. With a retention of at least the cache's
+ * expireAfterWrite, entries loaded before the floor have mostly expired already.
+ *
+ * @param <K>  the type of the invalidated keys
+ */
+public class InvalidationGenerations<K> {
+
+    /* The number of times a read reloads an entry invalidated while it was loading */
+    public static final int MAX_RELOADS = 3;
+
+    /* The retention of invalidations for caches without an expireAfterWrite policy */
+    static final long DEFAULT_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * An invalidation of a key: its generation and when it happened
+     */
+    private static final class Invalidation {
+
+        /* The generation of the invalidation */
+        private final long generation;
+
+        /* The ticker time of the invalidation, in nanoseconds */
+        private final long nanos;
+
+        /**
+         * Construct an invalidation
+         * @param generation  the generation of the invalidation
+         * @param nanos  the ticker time of the invalidation, in nanoseconds
+         */
+        private Invalidation(long generation, long nanos) {
+            this.generation = generation;
+            this.nanos = nanos;
+        }
+    }
+
+    /* The generation of the latest invalidation */
+    private final AtomicLong generation = new AtomicLong();
+
+    /* The highest generation of the pruned invalidations */
+    private final AtomicLong floor = new AtomicLong();
+
+    /* The latest invalidation of each key invalidated within the retention */
+    private final ConcurrentMap<K, Invalidation> invalidations = new ConcurrentHashMap<K, Invalidation>();
+
+    /* The number of nanoseconds invalidations are retained */
+    private final long retentionNanos;
+
+    /* The time source */
+    private final Ticker ticker;
+
+    /* The ticker time of the latest pruning, in nanoseconds */
+    private final AtomicLong prunedNanos;
+
+    /**
+     * Construct the invalidation generations
+     * @param retentionNanos  the number of nanoseconds invalidations are retained
+     * @param ticker  the time source
+     */
+    public InvalidationGenerations(long retentionNanos, Ticker ticker) {
+        this.retentionNanos = retentionNanos;
+        this.ticker = ticker;
+        this.prunedNanos = new AtomicLong(ticker.read());
+    }
+
+    /**
+     * Get the retention for the invalidations of a cache: its expireAfterWrite, or
+     * DEFAULT_RETENTION_NANOS when entries don't expire after they are written
+     * @param cache  the cache
+     * @return retentionNanos  the number of nanoseconds to retain invalidations
+     */
+    public static long retentionNanos(Cache<?, ?> cache) {
+        return cache.policy().expireAfterWrite()
+            .map(expiration -> expiration.getExpiresAfter(TimeUnit.NANOSECONDS))
+            .orElse(DEFAULT_RETENTION_NANOS);
+    }
+
+    /**
+     * Get the generation a load starting now starts in, to record with its entry
+     * @return generation  the current generation
+     */
+    public long current() {
+        return this.generation.get();
+    }
+
+    /**
+     * Record an invalidation of the key, pruning the expired invalidations
+     * @param key  the invalidated key
+     */
+    public void invalidate(K key) {
+        long now = this.ticker.read();
+        this.invalidations.put(key, new Invalidation(this.generation.incrementAndGet(), now));
+        long pruned = this.prunedNanos.get();
+        if ( now - pruned >= this.retentionNanos / 2 && this.prunedNanos.compareAndSet(pruned, now) ) {
+            prune(now - this.retentionNanos);
+        }
+    }
+
+    /**
+     * Check if an entry loaded in the given generation is older than an invalidation of the key
+     * @param key  the key
+     * @param loadGeneration  the generation the load of the entry started in
+     * @return true if the entry is stale
+     */
+    public boolean isStale(K key, long loadGeneration) {
+        if ( this.floor.get() > loadGeneration ) {
+            return true;
+        }
+        Invalidation invalidation = this.invalidations.get(key);
+        return invalidation != null && invalidation.generation > loadGeneration;
+    }
+
+    /**
+     * Get a cache entry, reloading it while it is stale, at most MAX_RELOADS times
+     * @param cache  the cache
+     * @param cacheKey  the key of the entry
+     * @param stale  checks if an entry is stale
+     * @param <C>  the type of the cache keys
+     * @param <E>  the type of the cache entries
+     * @return entry  the entry
+     */
+    public static <C, E> E get(LoadingCache<C, E> cache, C cacheKey, Predicate<E> stale) {
+        E entry = cache.get(cacheKey);
+        for (int reloads = 0; reloads < MAX_RELOADS && stale.test(entry); reloads++) {
+            cache.asMap().remove(cacheKey, entry);
+            entry = cache.get(cacheKey);
+        }
+        return entry;
+    }
+
+    /**
+     * Get the number of invalidations retained
+     * @return size  the number of keys with a retained invalidation
+     */
+    public int size() {
+        return this.invalidations.size();
+    }
+
+    /**
+     * Drop the invalidations made before the cutoff, raising the floor to their generations
+     * before they are removed, so that entries they made stale stay stale
+     * @param cutoffNanos  the ticker time before which invalidations are dropped
+     */
+    private void prune(long cutoffNanos) {
+        for (Map.Entry<K, Invalidation> invalidation : this.invalidations.entrySet()) {
+            Invalidation value = invalidation.getValue();
+            if ( value.nanos - cutoffNanos < 0 ) {
+                this.floor.accumulateAndGet(value.generation, Math::max);
+                this.invalidations.remove(invalidation.getKey(), value);
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.github.benmanes.caffeine.cache.CaffeineSpec;
 import io.dropwizard.Configuration;
 import io.dropwizard.db.DataSourceFactory;
+import org.dataone.bookkeeper.security.SubjectInfoCache;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
@@ -43,9 +44,63 @@ public class BookkeeperConfiguration extends Configuration {
     /* The Caffeine caching YAML configuration keyword */
     private static final String CAFFEINE = "authenticationCachePolicy";
 
+    /* The SubjectInfo caching YAML configuration keyword */
+    private static final String SUBJECT_INFO_CAFFEINE = "subjectInfoCachePolicy";
+
+    /* The unknown subject expiry YAML configuration keyword */
+    private static final String SUBJECT_NOT_FOUND_TTL = "subjectNotFoundTtlSeconds";
+
+    /* The customer caching YAML configuration keyword */
+    private static final String CUSTOMER_CAFFEINE = "customerCachePolicy";
+
+    /* The quota headroom caching YAML configuration keyword */
+    private static final String QUOTA_HEADROOM_CAFFEINE = "quotaHeadroomCachePolicy";
+
+    /* The product quota template caching YAML configuration keyword */
+    private static final String PRODUCT_QUOTA_TEMPLATES_CAFFEINE = "productQuotaTemplateCachePolicy";
+
+    /* The usage status caching YAML configuration keyword */
+    private static final String USAGE_STATUS_CAFFEINE = "usageStatusCachePolicy";
+
+    /* The usage status response max-age YAML configuration keyword */
+    private static final String USAGE_STATUS_MAX_AGE = "usageStatusMaxAgeSeconds";
+
+    /* The usage reservation expiry YAML configuration keyword */
+    private static final String RESERVATION_TTL = "reservationTtlSeconds";
+
+    /* The usage reservation sweep interval YAML configuration keyword */
+    private static final String RESERVATION_SWEEP = "reservationSweepSeconds";
+
     /* The authentication cache policy string */
     private String authenticationCachePolicy;
 
+    /* The SubjectInfo cache policy string */
+    private String subjectInfoCachePolicy = "maximumSize=10000, expireAfterWrite=5m";
+
+    /* The number of seconds a subject unknown to the CN is cached */
+    private long subjectNotFoundTtlSeconds = SubjectInfoCache.DEFAULT_NOT_FOUND_TTL_SECONDS;
+
+    /* The customer cache policy string */
+    private String customerCachePolicy = "maximumSize=10000, expireAfterWrite=5m";
+
+    /* The quota headroom cache policy string */
+    private String quotaHeadroomCachePolicy = "maximumSize=10000, expireAfterWrite=30s";
+
+    /* The product quota template cache policy string */
+    private String productQuotaTemplateCachePolicy = "maximumSize=1000, expireAfterWrite=10m";
+
+    /* The usage status cache policy string */
+    private String usageStatusCachePolicy = "maximumSize=100000, expireAfterWrite=10s";
+
+    /* The number of seconds clients and proxies may reuse a usage status */
+    private int usageStatusMaxAgeSeconds = 10;
+
+    /* The number of seconds until a usage reservation expires */
+    private int reservationTtlSeconds = 300;
+
+    /* The number of seconds between sweeps for expired usage reservations */
+    private long reservationSweepSeconds = 60;
+
     /* The DataONE configuration */
     private DataONEConfiguration dataone = new DataONEConfiguration();
 
@@ -107,4 +162,166 @@ public class BookkeeperConfiguration extends Configuration {
     public void setAuthenticationCachePolicy(String authenticationCachePolicy) {
         this.authenticationCachePolicy = authenticationCachePolicy;
     }
+
+    /**
+     * Get the SubjectInfo cache policy
+     * @return subjectInfoCachePolicy  the parsed SubjectInfo cache policy
+     */
+    @JsonProperty(SUBJECT_INFO_CAFFEINE)
+    public CaffeineSpec getSubjectInfoCachePolicy() {
+        return CaffeineSpec.parse(this.subjectInfoCachePolicy);
+    }
+
+    /**
+     * Set the SubjectInfo cache policy
+     * @param subjectInfoCachePolicy the SubjectInfo cache policy
+     */
+    @JsonProperty(SUBJECT_INFO_CAFFEINE)
+    public void setSubjectInfoCachePolicy(String subjectInfoCachePolicy) {
+        this.subjectInfoCachePolicy = subjectInfoCachePolicy;
+    }
+
+    /**
+     * Get the number of seconds a subject unknown to the CN is cached
+     * @return subjectNotFoundTtlSeconds  the number of seconds
+     */
+    @JsonProperty(SUBJECT_NOT_FOUND_TTL)
+    public long getSubjectNotFoundTtlSeconds() {
+        return this.subjectNotFoundTtlSeconds;
+    }
+
+    /**
+     * Set the number of seconds a subject unknown to the CN is cached
+     * @param subjectNotFoundTtlSeconds  the number of seconds
+     */
+    @JsonProperty(SUBJECT_NOT_FOUND_TTL)
+    public void setSubjectNotFoundTtlSeconds(long subjectNotFoundTtlSeconds) {
+        this.subjectNotFoundTtlSeconds = subjectNotFoundTtlSeconds;
+    }
+
+    /**
+     * Get the customer cache policy
+     * @return customerCachePolicy  the parsed customer cache policy
+     */
+    @JsonProperty(CUSTOMER_CAFFEINE)
+    public CaffeineSpec getCustomerCachePolicy() {
+        return CaffeineSpec.parse(this.customerCachePolicy);
+    }
+
+    /**
+     * Set the customer cache policy
+     * @param customerCachePolicy the customer cache policy
+     */
+    @JsonProperty(CUSTOMER_CAFFEINE)
+    public void setCustomerCachePolicy(String customerCachePolicy) {
+        this.customerCachePolicy = customerCachePolicy;
+    }
+
+    /**
+     * Get the quota headroom cache policy
+     * @return quotaHeadroomCachePolicy  the parsed quota headroom cache policy
+     */
+    @JsonProperty(QUOTA_HEADROOM_CAFFEINE)
+    public CaffeineSpec getQuotaHeadroomCachePolicy() {
+        return CaffeineSpec.parse(this.quotaHeadroomCachePolicy);
+    }
+
+    /**
+     * Set the quota headroom cache policy
+     * @param quotaHeadroomCachePolicy the quota headroom cache policy
+     */
+    @JsonProperty(QUOTA_HEADROOM_CAFFEINE)
+    public void setQuotaHeadroomCachePolicy(String quotaHeadroomCachePolicy) {
+        this.quotaHeadroomCachePolicy = quotaHeadroomCachePolicy;
+    }
+
+    /**
+     * Get the product quota template cache policy
+     * @return productQuotaTemplateCachePolicy  the parsed product quota template cache policy
+     */
+    @JsonProperty(PRODUCT_QUOTA_TEMPLATES_CAFFEINE)
+    public CaffeineSpec getProductQuotaTemplateCachePolicy() {
+        return CaffeineSpec.parse(this.productQuotaTemplateCachePolicy);
+    }
+
+    /**
+     * Set the product quota template cache policy
+     * @param productQuotaTemplateCachePolicy the product quota template cache policy
+     */
+    @JsonProperty(PRODUCT_QUOTA_TEMPLATES_CAFFEINE)
+    public void setProductQuotaTemplateCachePolicy(String productQuotaTemplateCachePolicy) {
+        this.productQuotaTemplateCachePolicy = productQuotaTemplateCachePolicy;
+    }
+
+    /**
+     * Get the usage status cache policy
+     * @return usageStatusCachePolicy  the parsed usage status cache policy
+     */
+    @JsonProperty(USAGE_STATUS_CAFFEINE)
+    public CaffeineSpec getUsageStatusCachePolicy() {
+        return CaffeineSpec.parse(this.usageStatusCachePolicy);
+    }
+
+    /**
+     * Set the usage status cache policy
+     * @param usageStatusCachePolicy the usage status cache policy
+     */
+    @JsonProperty(USAGE_STATUS_CAFFEINE)
+    public void setUsageStatusCachePolicy(String usageStatusCachePolicy) {
+        this.usageStatusCachePolicy = usageStatusCachePolicy;
+    }
+
+    /**
+     * Get the number of seconds clients and proxies may reuse a usage status
+     * @return usageStatusMaxAgeSeconds  the Cache-Control max-age of usage statuses
+     */
+    @JsonProperty(USAGE_STATUS_MAX_AGE)
+    public int getUsageStatusMaxAgeSeconds() {
+        return usageStatusMaxAgeSeconds;
+    }
+
+    /**
+     * Set the number of seconds clients and proxies may reuse a usage status
+     * @param usageStatusMaxAgeSeconds  the Cache-Control max-age of usage statuses
+     */
+    @JsonProperty(USAGE_STATUS_MAX_AGE)
+    public void setUsageStatusMaxAgeSeconds(int usageStatusMaxAgeSeconds) {
+        this.usageStatusMaxAgeSeconds = usageStatusMaxAgeSeconds;
+    }
+
+    /**
+     * Get the number of seconds until a usage reservation expires
+     * @return reservationTtlSeconds  the reservation time to live in seconds
+     */
+    @JsonProperty(RESERVATION_TTL)
+    public int getReservationTtlSeconds() {
+        return reservationTtlSeconds;
+    }
+
+    /**
+     * Set the number of seconds until a usage reservation expires
+     * @param reservationTtlSeconds  the reservation time to live in seconds
+     */
+    @JsonProperty(RESERVATION_TTL)
+    public void setReservationTtlSeconds(int reservationTtlSeconds) {
+        this.reservationTtlSeconds = reservationTtlSeconds;
+    }
+
+    /**
+     * Get the number of seconds between sweeps for expired usage reservations
+     * @return reservationSweepSeconds  the sweep interval in seconds
+     */
+    @JsonProperty(RESERVATION_SWEEP)
+    public long getReservationSweepSeconds() {
+        return reservationSweepSeconds;
+    }
+
+    /**
+     * Set the number of seconds between sweeps for expired usage reservations
+     * @param reservationSweepSeconds  the sweep interval in seconds
+     */
+    @JsonProperty(RESERVATION_SWEEP)
+    public void setReservationSweepSeconds(long reservationSweepSeconds) {
+        this.reservationSweepSeconds = reservationSweepSeconds;
+    }
 }
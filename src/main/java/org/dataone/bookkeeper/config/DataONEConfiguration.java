@@ -42,6 +42,10 @@ public class DataONEConfiguration extends Configuration {
 
     /* The default trial period in days */
     private long trialDurationDays;
+
+    /* The number of minutes the CN public key is cached before it is refreshed */
+    private long cnPublicKeyTtlMinutes = 60;
+
     /**
      * Get the CN base URL
      * @return cnBaseUrl  the CN base URL
@@ -116,4 +120,22 @@ public class DataONEConfiguration extends Configuration {
     public void setTrialDurationDays(long trialDurationDays) {
         this.trialDurationDays = trialDurationDays;
     }
+
+    /**
+     * Get the number of minutes the CN public key is cached before it is refreshed
+     * @return cnPublicKeyTtlMinutes the CN public key time to live in minutes
+     */
+    @JsonProperty("cnPublicKeyTtlMinutes")
+    public long getCnPublicKeyTtlMinutes() {
+        return cnPublicKeyTtlMinutes;
+    }
+
+    /**
+     * Set the number of minutes the CN public key is cached before it is refreshed
+     * @param cnPublicKeyTtlMinutes the CN public key time to live in minutes
+     */
+    @JsonProperty("cnPublicKeyTtlMinutes")
+    public void setCnPublicKeyTtlMinutes(long cnPublicKeyTtlMinutes) {
+        this.cnPublicKeyTtlMinutes = cnPublicKeyTtlMinutes;
+    }
 }
@@ -25,11 +25,13 @@ import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.jdbi.mappers.CustomerMapper;
 import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
 import org.jdbi.v3.sqlobject.customizer.BindMethods;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -50,11 +52,11 @@ public interface CustomerStore {
             "c.currency AS c_currency, " +
             "c.delinquent AS c_delinquent, " +
             "c.description AS c_description, " +
-            "c.discount::json AS c_discount, " +
+            "c.discount AS c_discount, " +
             "c.email AS c_email, " +
             "c.invoicePrefix AS c_invoicePrefix, " +
-            "c.invoiceSettings::json AS c_invoiceSettings, " +
-            "c.metadata::json AS c_metadata, " +
+            "c.invoiceSettings AS c_invoiceSettings, " +
+            "c.metadata AS c_metadata, " +
             "c.givenName AS c_givenName, " +
             "c.surName AS c_surName, " +
             "c.phone AS c_phone " +
@@ -72,9 +74,22 @@ public interface CustomerStore {
     /** The query used to find a customer by subject identifier */
     String SELECT_SUBJECT = SELECT_CLAUSE + "WHERE c.subject = :subject";
 
+    /** The query used to find customers by subject identifiers in one round trip */
+    String SELECT_SUBJECTS = SELECT_CLAUSE + "WHERE c.subject IN (<subjects>) ORDER BY c.id";
+
     /** The query used to find a customer by email */
     String SELECT_EMAIL = SELECT_CLAUSE + "WHERE c.email = :email";
 
+    /**
+     * The paged query used to list customers after the :after keyset cursor, skipping :start rows.
+     * Pages are ordered by identifier so that the cursor is stable.
+     */
+    String SELECT_PAGE = SELECT_CLAUSE +
+        "WHERE c.id > :after ORDER BY c.id LIMIT :count OFFSET :start";
+
+    /** The query used to count customers for paged results */
+    String COUNT_ALL = "SELECT count(*) FROM customers c";
+
     /**
      * List all customers
      * @return customers The list of customers
@@ -83,6 +98,25 @@ public interface CustomerStore {
     @RegisterRowMapper(CustomerMapper.class)
     List<Customer> listCustomers();
 
+    /**
+     * List a page of customers ordered by identifier
+     * @param after  the keyset cursor, only customers with a greater identifier are listed
+     * @param start  the number of customers to skip after the cursor
+     * @param count  the maximum number of customers to list
+     * @return customers The page of customers
+     */
+    @SqlQuery(SELECT_PAGE)
+    @RegisterRowMapper(CustomerMapper.class)
+    List<Customer> listCustomersPage(@Bind("after") Integer after, @Bind("start") Integer start,
+        @Bind("count") Integer count);
+
+    /**
+     * Count all customers
+     * @return total  the number of customers
+     */
+    @SqlQuery(COUNT_ALL)
+    Integer countCustomers();
+
     /**
      * Get an individual customer
      * @param id the customer identifier
@@ -101,6 +135,15 @@ public interface CustomerStore {
     @RegisterRowMapper(CustomerMapper.class)
     Customer findCustomerBySubject(@Bind("subject") String subject);
 
+    /**
+     * Find the customers with any of the given subject identifiers
+     * @param subjects the customer subject identifiers, which must not be empty
+     * @return customers the customers found, ordered by identifier
+     */
+    @SqlQuery(SELECT_SUBJECTS)
+    @RegisterRowMapper(CustomerMapper.class)
+    List<Customer> findCustomersBySubjects(@BindList("subjects") Collection<String> subjects);
+
     /**
      * Get a customer by email
      * @param email the customer email
@@ -136,16 +179,16 @@ public interface CustomerStore {
             ":getObject, " +
             ":getSubject, " +
             ":getBalance, " +
-            ":getAddressJSON::json, " +
+            ":getAddressJSON::jsonb, " +
             "to_timestamp(:getCreated), " +
             ":getCurrency, " +
             ":isDelinquent, " +
             ":getDescription, " +
-            ":getDiscountJSON::json, " +
+            ":getDiscountJSON::jsonb, " +
             ":getEmail, " +
             ":getInvoicePrefix, " +
-            ":getInvoiceSettingsJSON::json, " +
-            ":getMetadataJSON::json, " +
+            ":getInvoiceSettingsJSON::jsonb, " +
+            ":getMetadataJSON::jsonb, " +
             ":getGivenName, " +
             ":getSurName, " +
             ":getPhone" +
@@ -161,16 +204,16 @@ public interface CustomerStore {
         "object = :getObject, " +
         "subject = :getSubject, " +
         "balance = :getBalance, " +
-        "address = :getAddressJSON::json, " +
+        "address = :getAddressJSON::jsonb, " +
         "created = to_timestamp(:getCreated), " +
         "currency = :getCurrency, " +
         "delinquent = :isDelinquent, " +
         "description = :getDescription, " +
-        "discount = :getDiscountJSON::json, " +
+        "discount = :getDiscountJSON::jsonb, " +
         "email = :getEmail, " +
         "invoicePrefix = :getInvoicePrefix, " +
-        "invoiceSettings = :getInvoiceSettingsJSON::json, " +
-        "metadata = :getMetadataJSON::json, " +
+        "invoiceSettings = :getInvoiceSettingsJSON::jsonb, " +
+        "metadata = :getMetadataJSON::jsonb, " +
         "givenName = :getGivenName, " +
         "surName = :getSurName, " +
         "phone = :getPhone " +
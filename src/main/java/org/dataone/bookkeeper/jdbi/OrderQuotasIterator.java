@@ -0,0 +1,125 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.jdbi;
+
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.jdbi.mappers.OrderMapper;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.mapper.RowViewMapper;
+import org.jdbi.v3.core.mapper.reflect.BeanMapper;
+import org.jdbi.v3.core.result.ResultIterator;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over orders and their quotas while streaming the joined orders and quotas
+ * tables. Unlike the OrderQuotasReducer, which accumulates every order in a map,
+ * an order is returned as soon as the row of the next order has been read,
+ * so only one order is held in memory at a time.
+ */
+public class OrderQuotasIterator implements ResultIterator<Order> {
+
+    /* Map each joined row to an order holding at most the quota of that row */
+    private static final RowViewMapper<Order> ROW_MAPPER = rowView -> {
+        Order order = rowView.getRow(Order.class);
+        if ( rowView.getColumn("q_id", Integer.class) != null ) {
+            order.setQuotas(new LinkedList<Quota>());
+            order.getQuotas().add(rowView.getRow(Quota.class));
+        }
+        return order;
+    };
+
+    /* The iterator over the joined rows, one order per row */
+    private final ResultIterator<Order> rows;
+
+    /* The first row of the next order, already read from the rows */
+    private Order pending;
+
+    /**
+     * Construct an iterator over the joined rows
+     * @param rows  the rows ordered by order id, one order per row
+     */
+    OrderQuotasIterator(ResultIterator<Order> rows) {
+        this.rows = rows;
+        this.pending = rows.hasNext() ? rows.next() : null;
+    }
+
+    /**
+     * Stream all orders with their quotas. The handle should be in a transaction,
+     * since the Postgres driver only fetches rows in batches when auto-commit is off.
+     * @param handle  the handle used to query the orders
+     * @return orders  the iterator over the orders, which must be closed
+     */
+    public static OrderQuotasIterator streamOrders(Handle handle) {
+        return new OrderQuotasIterator(handle.createQuery(OrderStore.SELECT_STREAM)
+            .setFetchSize(OrderStore.STREAM_FETCH_SIZE)
+            .registerRowMapper(BeanMapper.factory(Quota.class, "q"))
+            .registerRowMapper(new OrderMapper())
+            .map(ROW_MAPPER)
+            .iterator());
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null;
+    }
+
+    /**
+     * Return the next order, adding the quotas of the following rows with the same order id
+     * @return order  the order with its quotas
+     */
+    @Override
+    public Order next() {
+        if ( pending == null ) {
+            throw new NoSuchElementException();
+        }
+        Order order = pending;
+        pending = null;
+        while ( rows.hasNext() ) {
+            Order row = rows.next();
+            if ( ! row.getId().equals(order.getId()) ) {
+                pending = row;
+                break;
+            }
+            if ( row.getQuotas() != null ) {
+                if ( order.getQuotas() == null ) {
+                    order.setQuotas(new LinkedList<Quota>());
+                }
+                order.getQuotas().addAll(row.getQuotas());
+            }
+        }
+        return order;
+    }
+
+    @Override
+    public void close() {
+        rows.close();
+    }
+
+    @Override
+    public StatementContext getContext() {
+        return rows.getContext();
+    }
+}
@@ -42,27 +42,30 @@ import java.util.List;
  */
 public interface OrderStore {
 
-    /** The query used to find all orders */
-    String SELECT_CLAUSE = "SELECT " +
+    /** The order columns selected by order queries */
+    String ORDER_COLUMNS = "SELECT " +
         "o.id AS o_id, " +
         "o.object AS o_object, " +
         "o.amount AS o_amount, " +
         "o.amountReturned AS o_amountReturned, " +
-        "o.charge::json AS o_charge, " +
+        "o.charge AS o_charge, " +
         "date_part('epoch', o.created)::int AS o_created, " +
         "o.currency AS o_currency, " +
         "o.customer AS o_customer, " +
         "o.subject AS o_subject, " +
         "o.email AS o_email, " +
-        "o.items::json AS o_items, " +
-        "o.metadata::json AS o_metadata, " +
+        "o.items AS o_items, " +
+        "o.metadata AS o_metadata, " +
         "o.name AS o_name, " +
         "o.status AS o_status, " +
-        "o.statusTransitions::json AS o_statusTransitions, " +
+        "o.statusTransitions AS o_statusTransitions, " +
         "date_part('epoch', o.updated)::int AS o_updated, " +
         "o.seriesId AS o_seriesId, " +
         "date_part('epoch', o.startDate)::int AS o_startDate, " +
-        "date_part('epoch', o.endDate)::int AS o_endDate, " +
+        "date_part('epoch', o.endDate)::int AS o_endDate, ";
+
+    /** The order and quota columns selected by order queries */
+    String SELECT_COLUMNS = ORDER_COLUMNS +
         "q.id AS q_id, " +
         "q.object AS q_object, " +
         "q.quotaType AS q_quotaType, " +
@@ -72,7 +75,10 @@ public interface OrderStore {
         "q.unit AS q_unit, " +
         "q.orderId AS q_orderId, " +
         "q.subject AS q_subject, " +
-        "q.name AS q_name " +
+        "q.name AS q_name ";
+
+    /** The query used to find all orders */
+    String SELECT_CLAUSE = SELECT_COLUMNS +
         "FROM orders o " +
         "LEFT JOIN quotas q ON q.orderId = o.id ";
     /** Clause to order listed results */
@@ -87,6 +93,71 @@ public interface OrderStore {
 
     String SELECT_SUBJECTS = SELECT_CLAUSE + "WHERE o.subject IN (<subjects>) " + ORDER_CLAUSE;
 
+    /** The query used to find orders with an item of a product, using the orders_items_idx GIN index */
+    String SELECT_PRODUCT = SELECT_CLAUSE +
+        "WHERE o.items @> jsonb_build_array(jsonb_build_object('parent', :productId)) " + ORDER_CLAUSE;
+
+    /** The query used to count orders for paged results */
+    String COUNT_CLAUSE = "SELECT count(*) FROM orders o ";
+
+    /** The criterion matching all orders */
+    String WHERE_ANY = "WHERE TRUE ";
+
+    /** The criterion matching orders by customer identifier */
+    String WHERE_CUSTOMER = "WHERE o.customer = :customer ";
+
+    /** The criterion matching orders by multiple subjects */
+    String WHERE_SUBJECTS = "WHERE o.subject IN (<subjects>) ";
+
+    /**
+     * Clause to page the matching orders after the :after keyset cursor, skipping :start rows.
+     * Orders are paged before joining quotas so that each order counts once.
+     */
+    String PAGE_CLAUSE = "AND o.id > :after ORDER BY o.id LIMIT :count OFFSET :start";
+
+    /** The start of a paged query, selecting from a page of orders */
+    String SELECT_PAGE_CLAUSE = SELECT_COLUMNS + "FROM (SELECT * FROM orders o ";
+
+    /** The end of a paged query, joining the quotas of the page of orders */
+    String JOIN_PAGE_CLAUSE = ") o LEFT JOIN quotas q ON q.orderId = o.id ORDER BY o.id, q.id ";
+
+    /** The number of rows fetched per round trip when streaming orders */
+    int STREAM_FETCH_SIZE = 500;
+
+    /** The query used to stream all orders, keeping the quota rows of each order together */
+    String SELECT_STREAM = SELECT_CLAUSE + "ORDER BY o.id, q.id ";
+
+    /**
+     * The quotas of each order aggregated into a JSON array, for use with OrderQuotasMapper.
+     * This selects an order once rather than once per quota, but measured no faster than
+     * joining the quotas table (see OrderQuotasBenchmark), so order queries use the join.
+     */
+    String QUOTAS_COLUMN =
+        "(SELECT json_agg(json_build_object(" +
+            "'id', q.id, " +
+            "'object', q.object, " +
+            "'quotaType', q.quotaType, " +
+            "'softLimit', q.softLimit, " +
+            "'hardLimit', q.hardLimit, " +
+            "'totalUsage', q.totalUsage, " +
+            "'unit', q.unit, " +
+            "'orderId', q.orderId, " +
+            "'subject', q.subject, " +
+            "'name', q.name) ORDER BY q.id) " +
+        "FROM quotas q WHERE q.orderId = o.id) AS o_quotas ";
+
+    /** The query used to find all orders with their quotas aggregated, one row per order */
+    String SELECT_AGGREGATED_CLAUSE = ORDER_COLUMNS + QUOTAS_COLUMN + "FROM orders o ";
+
+    /** The paged query used to list orders */
+    String SELECT_PAGE = SELECT_PAGE_CLAUSE + WHERE_ANY + PAGE_CLAUSE + JOIN_PAGE_CLAUSE;
+
+    /** The paged query used to find orders by customer identifier */
+    String SELECT_PAGE_CUSTOMER = SELECT_PAGE_CLAUSE + WHERE_CUSTOMER + PAGE_CLAUSE + JOIN_PAGE_CLAUSE;
+
+    /** The paged query used to find orders by multiple subjects */
+    String SELECT_PAGE_SUBJECTS = SELECT_PAGE_CLAUSE + WHERE_SUBJECTS + PAGE_CLAUSE + JOIN_PAGE_CLAUSE;
+
     /**
      * List all orders
      * @return the order list
@@ -129,6 +200,85 @@ public interface OrderStore {
     @RegisterRowMapper(OrderMapper.class)
     @UseRowReducer(OrderQuotasReducer.class)
     List<Order> findOrdersBySubjects(@BindList("subjects") List<String> subjects);
+
+    /**
+     * Find orders with an item of a product
+     * @param productId the id of the product of the order items
+     * @return the desired orders
+     */
+    @SqlQuery(SELECT_PRODUCT)
+    @RegisterBeanMapper(value = Quota.class, prefix = "q")
+    @RegisterRowMapper(OrderMapper.class)
+    @UseRowReducer(OrderQuotasReducer.class)
+    List<Order> findOrdersByProductId(@Bind("productId") Integer productId);
+
+    /**
+     * List a page of orders ordered by identifier
+     * @param after  the keyset cursor, only orders with a greater identifier are listed
+     * @param start  the number of orders to skip after the cursor
+     * @param count  the maximum number of orders to list
+     * @return the page of orders
+     */
+    @SqlQuery(SELECT_PAGE)
+    @RegisterBeanMapper(value = Quota.class, prefix = "q")
+    @RegisterRowMapper(OrderMapper.class)
+    @UseRowReducer(OrderQuotasReducer.class)
+    List<Order> listOrdersPage(@Bind("after") Integer after, @Bind("start") Integer start,
+        @Bind("count") Integer count);
+
+    /**
+     * Count all orders
+     * @return total  the number of orders
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_ANY)
+    Integer countOrders();
+
+    /**
+     * Find a page of orders by customer id, ordered by identifier
+     * @param customerId the id of the customer
+     * @param after  the keyset cursor, only orders with a greater identifier are listed
+     * @param start  the number of orders to skip after the cursor
+     * @param count  the maximum number of orders to list
+     * @return the page of orders for the customer
+     */
+    @SqlQuery(SELECT_PAGE_CUSTOMER)
+    @RegisterBeanMapper(value = Quota.class, prefix = "q")
+    @RegisterRowMapper(OrderMapper.class)
+    @UseRowReducer(OrderQuotasReducer.class)
+    List<Order> findOrdersPageByCustomerId(@Bind("customer") Integer customerId,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count orders by customer id
+     * @param customerId the id of the customer
+     * @return total  the number of orders for the customer
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_CUSTOMER)
+    Integer countOrdersByCustomerId(@Bind("customer") Integer customerId);
+
+    /**
+     * Find a page of orders by subject, ordered by identifier
+     * @param subjects the list of subjects for the desired orders
+     * @param after  the keyset cursor, only orders with a greater identifier are listed
+     * @param start  the number of orders to skip after the cursor
+     * @param count  the maximum number of orders to list
+     * @return the page of orders for the subjects
+     */
+    @SqlQuery(SELECT_PAGE_SUBJECTS)
+    @RegisterBeanMapper(value = Quota.class, prefix = "q")
+    @RegisterRowMapper(OrderMapper.class)
+    @UseRowReducer(OrderQuotasReducer.class)
+    List<Order> findOrdersPageBySubjects(@BindList("subjects") List<String> subjects,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count orders by subject
+     * @param subjects the list of subjects for the desired orders
+     * @return total  the number of orders for the subjects
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_SUBJECTS)
+    Integer countOrdersBySubjects(@BindList("subjects") List<String> subjects);
+
     /**
      * Insert an order
      * @param order the order to insert
@@ -156,17 +306,17 @@ public interface OrderStore {
         ":getObject, " +
         ":getAmount, " +
         ":getAmountReturned, " +
-        ":getChargeJSON::json, " +
+        ":getChargeJSON::jsonb, " +
         "to_timestamp(:getCreated), " +
         ":getCurrency, " +
         ":getCustomer, " +
         ":getSubject, " +
         ":getEmail, " +
-        ":getItemsJSON::json, " +
-        ":getMetadataJSON::json, " +
+        ":getItemsJSON::jsonb, " +
+        ":getMetadataJSON::jsonb, " +
         ":getName, " +
         ":getStatus, " +
-        ":getStatusTransitionsJSON::json, " +
+        ":getStatusTransitionsJSON::jsonb, " +
         "to_timestamp(:getUpdated), " +
         ":getSeriesId, " +
         "to_timestamp(:getStartDate), " +
@@ -183,17 +333,17 @@ public interface OrderStore {
         "object = :getObject, " +
         "amount = :getAmount, " +
         "amountReturned = :getAmountReturned, " +
-        "charge = :getChargeJSON::json, " +
+        "charge = :getChargeJSON::jsonb, " +
         "created = to_timestamp(:getCreated), " +
         "currency = :getCurrency, " +
         "customer = :getCustomer, " +
         "subject = :getSubject, " +
         "email = :getEmail, " +
-        "items = :getItemsJSON::json, " +
-        "metadata = :getMetadataJSON::json, " +
+        "items = :getItemsJSON::jsonb, " +
+        "metadata = :getMetadataJSON::jsonb, " +
         "name = :getName, " +
         "status = :getStatus, " +
-        "statusTransitions = :getStatusTransitionsJSON::json, " +
+        "statusTransitions = :getStatusTransitionsJSON::jsonb, " +
         "updated = to_timestamp(:getUpdated), " +
         "seriesId = :getSeriesId, " +
         "startDate = to_timestamp(:getStartDate), " +
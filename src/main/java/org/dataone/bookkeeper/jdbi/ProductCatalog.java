@@ -0,0 +1,356 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.jdbi;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.bookkeeper.api.Product;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory catalog of all products, read through from the products table.
+ *
+ * The catalog holds an immutable snapshot of the products, and readers get copies of its
+ * products, so a caller changing a product doesn't change the catalog. Writers reload the
+ * catalog with refresh() after changing products. Other instances learn of product changes
+ * from the products_changed notifications of the products table trigger: when started,
+ * the catalog keeps a database connection listening on the channel, and reloads on each
+ * notification and after reconnecting. Reloads run one at a time, so the last reload to
+ * finish saw the latest committed products.
+ */
+public class ProductCatalog implements Managed {
+
+    /* The notification channel of product changes */
+    public static final String CHANNEL = "products_changed";
+
+    /* The number of milliseconds to wait for notifications before checking for a stop */
+    private static final int POLL_MILLIS = 1000;
+
+    /* The number of milliseconds to wait before reconnecting after the listener fails */
+    private static final long RECONNECT_MILLIS = 5000;
+
+    /* A Jackson mapper for hashing the products */
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    /* The logging facility for this class */
+    private static final Log log = LogFactory.getLog(ProductCatalog.class);
+
+    /**
+     * An immutable snapshot of the products and their entity tag
+     */
+    public static final class Snapshot {
+
+        /* The products, ordered by name and newest first as in ProductStore */
+        private final List<Product> products;
+
+        /* The products keyed by identifier */
+        private final Map<Integer, Product> productsById;
+
+        /* The entity tag of the products, a hash of their JSON */
+        private final String tag;
+
+        /**
+         * Construct a snapshot
+         * @param products  the products, ordered as in ProductStore
+         */
+        private Snapshot(List<Product> products) {
+            Map<Integer, Product> productsById = new LinkedHashMap<Integer, Product>();
+            for (Product product : products) {
+                productsById.put(product.getId(), product);
+            }
+            this.products = Collections.unmodifiableList(new ArrayList<Product>(products));
+            this.productsById = Collections.unmodifiableMap(productsById);
+            this.tag = hash(this.products);
+        }
+
+        /**
+         * Get the entity tag of the products, which is the same on every instance with
+         * the same products
+         * @return tag  the entity tag
+         */
+        public String getTag() {
+            return this.tag;
+        }
+
+        /**
+         * List all products
+         * @return products  copies of the products
+         */
+        public List<Product> listProducts() {
+            return find(product -> true);
+        }
+
+        /**
+         * Get a product by identifier
+         * @param id  the product identifier
+         * @return product  a copy of the product, or null if there is no product with the id
+         */
+        public Product getProduct(Integer id) {
+            Product product = this.productsById.get(id);
+            return product == null ? null : copy(product);
+        }
+
+        /**
+         * Find products by name
+         * @param name  the product name
+         * @return products  copies of the products with the name
+         */
+        public List<Product> findProductsByName(String name) {
+            return find(product -> name.equals(product.getName()));
+        }
+
+        /**
+         * Find products by active status
+         * @param active  the active status
+         * @return products  copies of the products with the status
+         */
+        public List<Product> findProductsByActiveStatus(boolean active) {
+            return find(product -> product.isActive() == active);
+        }
+
+        /**
+         * Find products with a description matching a SQL LIKE pattern, as in ProductStore
+         * @param description  the LIKE pattern, with % and _ wildcards and \ escapes
+         * @return products  copies of the products with a matching description
+         */
+        public List<Product> findProductsByDescription(String description) {
+            Pattern pattern = likePattern(description);
+            return find(product -> product.getDescription() != null &&
+                pattern.matcher(product.getDescription()).matches());
+        }
+
+        /**
+         * Find the products matching a filter
+         * @param filter  the product filter
+         * @return products  copies of the matching products
+         */
+        private List<Product> find(Predicate<Product> filter) {
+            List<Product> found = new ArrayList<Product>();
+            for (Product product : this.products) {
+                if ( filter.test(product) ) {
+                    found.add(copy(product));
+                }
+            }
+            return found;
+        }
+    }
+
+    /* The database used to load products and listen for product changes */
+    private final Jdbi database;
+
+    /* The product store used to load products */
+    private final ProductStore productStore;
+
+    /* The lock held while reloading the products, so reloads run one at a time */
+    private final Object refreshLock = new Object();
+
+    /* The current snapshot, or null until first loaded */
+    private volatile Snapshot snapshot;
+
+    /* The thread listening for product changes, or null when stopped */
+    private Thread listener;
+
+    /* Whether the listener should keep running */
+    private volatile boolean listening;
+
+    /**
+     * Construct a product catalog
+     * @param database  the database used to load products and listen for product changes
+     */
+    public ProductCatalog(Jdbi database) {
+        this.database = database;
+        this.productStore = database.onDemand(ProductStore.class);
+    }
+
+    /**
+     * Load the products and start listening for product changes
+     */
+    @Override
+    public synchronized void start() {
+        refresh();
+        this.listening = true;
+        this.listener = new Thread(this::listen, "product-catalog-listener");
+        this.listener.setDaemon(true);
+        this.listener.start();
+    }
+
+    /**
+     * Stop listening for product changes
+     * @throws InterruptedException  if interrupted while waiting for the listener to stop
+     */
+    @Override
+    public synchronized void stop() throws InterruptedException {
+        this.listening = false;
+        if ( this.listener != null ) {
+            this.listener.interrupt();
+            this.listener.join(POLL_MILLIS * 5);
+            this.listener = null;
+        }
+    }
+
+    /**
+     * Get the current snapshot of the products, loading it if not yet loaded
+     * @return snapshot  the snapshot
+     */
+    public Snapshot snapshot() {
+        Snapshot current = this.snapshot;
+        if ( current == null ) {
+            current = refresh();
+        }
+        return current;
+    }
+
+    /**
+     * Get a product by identifier from the current snapshot
+     * @param id  the product identifier
+     * @return product  a copy of the product, or null if there is no product with the id
+     */
+    public Product getProduct(Integer id) {
+        return snapshot().getProduct(id);
+    }
+
+    /**
+     * Reload the products, after products change
+     * @return snapshot  the reloaded snapshot
+     */
+    public Snapshot refresh() {
+        synchronized ( this.refreshLock ) {
+            Snapshot loaded = new Snapshot(this.productStore.listProducts());
+            this.snapshot = loaded;
+            return loaded;
+        }
+    }
+
+    /**
+     * Listen for product change notifications until stopped, reloading the products on each,
+     * and reconnecting when the connection fails
+     */
+    private void listen() {
+        while ( this.listening ) {
+            try ( Handle handle = this.database.open() ) {
+                handle.execute("LISTEN " + CHANNEL);
+                PGConnection connection = handle.getConnection().unwrap(PGConnection.class);
+
+                // Products may have changed while not listening
+                refresh();
+                while ( this.listening ) {
+                    PGNotification[] notifications = connection.getNotifications(POLL_MILLIS);
+                    if ( notifications != null && notifications.length > 0 ) {
+                        refresh();
+                    }
+                }
+            } catch (Exception e) {
+                if ( this.listening ) {
+                    log.warn("Couldn't listen for product changes, reconnecting: " + e.getMessage());
+                    try {
+                        Thread.sleep(RECONNECT_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a product, so changes to the copy don't change the catalog
+     * @param product  the product
+     * @return copy  the copy
+     */
+    private static Product copy(Product product) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setObject(product.getObject());
+        copy.setActive(product.isActive());
+        copy.setAmount(product.getAmount());
+        copy.setCaption(product.getCaption());
+        copy.setCurrency(product.getCurrency());
+        copy.setCreated(product.getCreated());
+        copy.setDescription(product.getDescription());
+        copy.setInterval(product.getInterval());
+        copy.setName(product.getName());
+        copy.setStatementDescriptor(product.getStatementDescriptor());
+        copy.setType(product.getType());
+        copy.setUnitLabel(product.getUnitLabel());
+        copy.setUrl(product.getUrl());
+        copy.setMetadata(product.getMetadata() == null ? null : product.getMetadata().deepCopy());
+        return copy;
+    }
+
+    /**
+     * Hash the JSON of the products into an entity tag
+     * @param products  the products
+     * @return tag  the URL-safe base64 SHA-256 hash of the products
+     */
+    private static String hash(List<Product> products) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(digest.digest(MAPPER.writeValueAsBytes(products)));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Translate a SQL LIKE pattern into a regular expression
+     * @param like  the LIKE pattern, with % and _ wildcards and \ escapes
+     * @return pattern  the regular expression matching the same strings
+     */
+    private static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if ( c == '\\' && i + 1 < like.length() ) {
+                regex.append(Pattern.quote(String.valueOf(like.charAt(++i))));
+            } else if ( c == '%' ) {
+                regex.append(".*");
+            } else if ( c == '_' ) {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
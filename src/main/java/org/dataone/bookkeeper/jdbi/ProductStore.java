@@ -55,7 +55,7 @@ public interface ProductStore {
             "type, " +
             "unitLabel, " +
             "url, " +
-            "metadata::json AS metadata " +
+            "metadata " +
         "FROM products ";
 
     String ORDER_CLAUSE = "ORDER BY name, created DESC ";
@@ -147,7 +147,7 @@ public interface ProductStore {
         ":getType, " +
         ":getUnitLabel, " +
         ":getUrl, " +
-        ":getMetadataJSON::json) " +
+        ":getMetadataJSON::jsonb) " +
         "RETURNING id")
     @GetGeneratedKeys
     Integer insert(@BindMethods Product product);
@@ -170,7 +170,7 @@ public interface ProductStore {
         "type = :getType, " +
         "unitLabel = :getUnitLabel, " +
         "url = :getUrl, " +
-        "metadata = :getMetadataJSON::json " +
+        "metadata = :getMetadataJSON::jsonb " +
         "WHERE id = :getId " +
         "RETURNING id")
     @GetGeneratedKeys
@@ -27,6 +27,7 @@ import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindBean;
 import org.jdbi.v3.sqlobject.customizer.BindList;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
@@ -39,6 +40,26 @@ import java.util.List;
 @RegisterBeanMapper(Quota.class)
 public interface QuotaStore {
 
+    /** The statement used to insert quotas */
+    String INSERT = "INSERT INTO quotas " +
+        "(object, " +
+        "quotaType, " +
+        "softLimit, " +
+        "hardLimit, " +
+        "unit, " +
+        "orderId, " +
+        "subject, " +
+        "name) " +
+        "VALUES " +
+        "(:object, " +
+        ":quotaType, " +
+        ":softLimit, " +
+        ":hardLimit, " +
+        ":unit, " +
+        ":orderId, " +
+        ":subject, " +
+        ":name) ";
+
     /** The query used to find all quotas */
     String SELECT_CLAUSE =
         "SELECT " +
@@ -72,6 +93,9 @@ public interface QuotaStore {
     /** The query used to find a quota by subject identifier */
     String SELECT_OWNER = SELECT_CLAUSE + "WHERE q.subject = :subject ";
 
+    /** The query used to find quotas by subject identifier and type */
+    String SELECT_BY_OWNER_AND_TYPE = SELECT_CLAUSE + "WHERE q.subject = :subject AND q.quotaType = :quotaType ";
+
     /** The query used to find quotas by multiple subject identifiers */
     String SELECT_OWNERS = SELECT_CLAUSE + "WHERE q.subject IN (<subjects>) ";
 
@@ -79,6 +103,40 @@ public interface QuotaStore {
     String SELECT_BY_NAME_AND_OWNERS = SELECT_CLAUSE +
         "WHERE q.quotaType = :quotaType AND q.subject IN (<subjects>) ";
 
+    /** The query used to count quotas for paged results */
+    String COUNT_CLAUSE = "SELECT count(*) FROM quotas q ";
+
+    /** The criterion matching all quotas */
+    String WHERE_ANY = "WHERE TRUE ";
+
+    /** The criterion matching quotas by type */
+    String WHERE_TYPE = "WHERE q.quotaType = :quotaType ";
+
+    /** The criterion matching quotas by multiple subject identifiers */
+    String WHERE_OWNERS = "WHERE q.subject IN (<subjects>) ";
+
+    /** The criterion matching quotas by type and multiple subject identifiers */
+    String WHERE_TYPE_AND_OWNERS = "WHERE q.quotaType = :quotaType AND q.subject IN (<subjects>) ";
+
+    /** The sum of the quantities of the active usages of quota q, the quota's totalUsage */
+    String SUM_TOTAL_USAGE =
+        "SELECT COALESCE(SUM(u.quantity), 0) FROM usages u WHERE u.status != 'inactive' AND u.quotaId = q.id";
+
+    /** Clause to return a page of quotas after the :after keyset cursor, skipping :start rows */
+    String PAGE_CLAUSE = "AND q.id > :after ORDER BY q.id LIMIT :count OFFSET :start";
+
+    /** The paged query used to list quotas */
+    String SELECT_PAGE = SELECT_CLAUSE + WHERE_ANY + PAGE_CLAUSE;
+
+    /** The paged query used to find quotas by type */
+    String SELECT_PAGE_BY_TYPE = SELECT_CLAUSE + WHERE_TYPE + PAGE_CLAUSE;
+
+    /** The paged query used to find quotas by multiple subject identifiers */
+    String SELECT_PAGE_BY_OWNERS = SELECT_CLAUSE + WHERE_OWNERS + PAGE_CLAUSE;
+
+    /** The paged query used to find quotas by type and multiple subject identifiers */
+    String SELECT_PAGE_BY_TYPE_AND_OWNERS = SELECT_CLAUSE + WHERE_TYPE_AND_OWNERS + PAGE_CLAUSE;
+
     /**
      * List all quotas
      * @return quotas the list of quotas
@@ -129,6 +187,17 @@ public interface QuotaStore {
     @SqlQuery(SELECT_OWNER)
     List<Quota> findQuotasBySubject(@Bind("subject") String subject);
 
+    /**
+     * Find quotas by subject identifier and quota type
+     *
+     * @param subject the subject identifier (such as an ORCID identifier)
+     * @param quotaType the quota type (e.g. "portal", "storage")
+     * @return quotas the list of quotas for the subject and type
+     */
+    @SqlQuery(SELECT_BY_OWNER_AND_TYPE)
+    List<Quota> findQuotasBySubjectAndType(@Bind("subject") String subject,
+        @Bind("quotaType") String quotaType);
+
     /**
      * Find quotas by a list of subject identifiers
      *
@@ -149,32 +218,158 @@ public interface QuotaStore {
     List<Quota> findQuotasByNameAndSubjects(@Bind("quotaType") String quotaType,
         @BindList("subjects") List<String> subjects);
 
+    /**
+     * List a page of quotas ordered by identifier
+     *
+     * @param after  the keyset cursor, only quotas with a greater identifier are listed
+     * @param start  the number of quotas to skip after the cursor
+     * @param count  the maximum number of quotas to list
+     * @return quotas the page of quotas
+     */
+    @SqlQuery(SELECT_PAGE)
+    List<Quota> listQuotasPage(@Bind("after") Integer after, @Bind("start") Integer start,
+        @Bind("count") Integer count);
+
+    /**
+     * Count all quotas
+     * @return total  the number of quotas
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_ANY)
+    Integer countQuotas();
+
+    /**
+     * Find a page of quotas by quota type, ordered by identifier
+     *
+     * @param quotaType quota type
+     * @param after  the keyset cursor, only quotas with a greater identifier are listed
+     * @param start  the number of quotas to skip after the cursor
+     * @param count  the maximum number of quotas to list
+     * @return quotas the page of quotas for the quota type
+     */
+    @SqlQuery(SELECT_PAGE_BY_TYPE)
+    List<Quota> findQuotasPageByType(@Bind("quotaType") String quotaType,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count quotas by quota type
+     * @param quotaType quota type
+     * @return total  the number of quotas for the quota type
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_TYPE)
+    Integer countQuotasByType(@Bind("quotaType") String quotaType);
+
+    /**
+     * Find a page of quotas by a list of subject identifiers, ordered by identifier
+     *
+     * @param subjects the subject identifiers list (such as an ORCID identifier)
+     * @param after  the keyset cursor, only quotas with a greater identifier are listed
+     * @param start  the number of quotas to skip after the cursor
+     * @param count  the maximum number of quotas to list
+     * @return quotas the page of quotas for the subjects
+     */
+    @SqlQuery(SELECT_PAGE_BY_OWNERS)
+    List<Quota> findQuotasPageBySubjects(@BindList("subjects") List<String> subjects,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count quotas by a list of subject identifiers
+     * @param subjects the subject identifiers list (such as an ORCID identifier)
+     * @return total  the number of quotas for the subjects
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_OWNERS)
+    Integer countQuotasBySubjects(@BindList("subjects") List<String> subjects);
+
+    /**
+     * Find a page of quotas by a quota type and subjects, ordered by identifier
+     *
+     * @param quotaType the quota name (e.g. "portal", "storage")
+     * @param subjects the subject identifiers (such as an ORCID identifier)
+     * @param after  the keyset cursor, only quotas with a greater identifier are listed
+     * @param start  the number of quotas to skip after the cursor
+     * @param count  the maximum number of quotas to list
+     * @return quotas the page of quotas for the subjects and names
+     */
+    @SqlQuery(SELECT_PAGE_BY_TYPE_AND_OWNERS)
+    List<Quota> findQuotasPageByNameAndSubjects(@Bind("quotaType") String quotaType,
+        @BindList("subjects") List<String> subjects,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count quotas by a quota type and subjects
+     * @param quotaType the quota name (e.g. "portal", "storage")
+     * @param subjects the subject identifiers (such as an ORCID identifier)
+     * @return total  the number of quotas for the subjects and names
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_TYPE_AND_OWNERS)
+    Integer countQuotasByNameAndSubjects(@Bind("quotaType") String quotaType,
+        @BindList("subjects") List<String> subjects);
+
+    /**
+     * Find which of the given quota identifiers exist
+     * @param ids the quota identifiers
+     * @return ids the existing quota identifiers
+     */
+    @SqlQuery("SELECT q.id FROM quotas q WHERE q.id IN (<ids>)")
+    List<Integer> findExistingQuotaIds(@BindList("ids") List<Integer> ids);
+
+    /**
+     * Add the summed usage changes of a transaction that defers the usages triggers to the
+     * totalUsage of each quota. Adding the change, rather than recomputing the total, keeps
+     * the changes that concurrent transactions make to the same quotas. Give the quotas in
+     * identifier order, so concurrent batches lock them in the same order.
+     * @param ids the quota identifiers
+     * @param deltas the change in the total usage of each quota
+     */
+    @SqlBatch("UPDATE quotas SET totalUsage = COALESCE(totalUsage, 0) + :delta WHERE id = :id")
+    void addTotalUsages(@Bind("id") List<Integer> ids, @Bind("delta") List<Double> deltas);
+
+    /**
+     * Recompute the totalUsage of the given quotas from their active usages. The recompute doesn't see the changes of concurrent uncommitted
+     * transactions, so only use it while the quotas' usages aren't being changed.
+     * @param ids the quota identifiers
+     */
+    @SqlUpdate("UPDATE quotas q " +
+        "SET totalUsage = (" + SUM_TOTAL_USAGE + ") " +
+        "WHERE q.id IN (<ids>)")
+    void updateTotalUsages(@BindList("ids") List<Integer> ids);
+
+    /**
+     * Block usage writes until the end of the transaction, waiting for those in progress to
+     * commit, so a recompute of the totals sees every usage whose trigger changed a total
+     */
+    @SqlUpdate("LOCK TABLE usages IN SHARE MODE")
+    void lockUsages();
+
+    /**
+     * Recompute the totalUsage of every quota from its active usages, correcting any drift
+     * in the incrementally maintained totals. Call it after lockUsages() in the same
+     * transaction, otherwise the total change of a usage write that commits during the
+     * recompute is overwritten.
+     * @return count the number of quotas whose totalUsage changed
+     */
+    @SqlUpdate("UPDATE quotas q " +
+        "SET totalUsage = t.total " +
+        "FROM (SELECT q.id, (" + SUM_TOTAL_USAGE + ") AS total FROM quotas q) t " +
+        "WHERE t.id = q.id AND q.totalUsage IS DISTINCT FROM t.total")
+    int reconcileTotalUsages();
+
     /**
      * Insert a quota with a given Quota instance
      * @param quota the quota to insert
      */
-    @SqlUpdate("INSERT INTO quotas " +
-        "(object, " +
-        "quotaType, " +
-        "softLimit, " +
-        "hardLimit, " +
-        "unit, " +
-        "orderId, " +
-        "subject, " +
-        "name) " +
-        "VALUES " +
-        "(:object, " +
-        ":quotaType, " +
-        ":softLimit, " +
-        ":hardLimit, " +
-        ":unit, " +
-        ":orderId, " +
-        ":subject, " +
-        ":name) " +
-        "RETURNING id")
+    @SqlUpdate(INSERT + "RETURNING id")
     @GetGeneratedKeys
     Integer insert(@BindBean Quota quota);
 
+    /**
+     * Insert a batch of quotas in one round trip
+     * @param quotas the quotas to insert
+     * @return ids the quota identifiers, in the order of the quotas
+     */
+    @SqlBatch(INSERT)
+    @GetGeneratedKeys("id")
+    List<Integer> insertBatch(@BindBean List<Quota> quotas);
+
     /**
      * Update a quota for a given id, but don't update totalUsage since they are handled by triggers
      * @param quota the quota to update
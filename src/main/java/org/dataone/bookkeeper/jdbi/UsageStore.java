@@ -22,15 +22,22 @@
 package org.dataone.bookkeeper.jdbi;
 
 import org.dataone.bookkeeper.api.Usage;
+import org.jdbi.v3.core.mapper.MapMapper;
+import org.jdbi.v3.core.result.ResultIterable;
 import org.jdbi.v3.sqlobject.config.RegisterBeanMapper;
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindBean;
 import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.customizer.FetchSize;
 import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @RegisterBeanMapper(Usage.class)
 public interface UsageStore {
@@ -105,6 +112,112 @@ public interface UsageStore {
             "WHERE u.instanceid = :instanceId " +
             "AND q.quotaType = :quotaType";
 
+    /**
+     * Select the status by instance identifier and quota type. Only indexed columns are
+     * read, so both tables are scanned index-only when their pages are all-visible
+     */
+    String SELECT_STATUS_BY_INSTANCE_ID_AND_QUOTA_TYPE =
+        "SELECT u.status FROM usages u " +
+            "INNER JOIN quotas q ON q.id = u.quotaid " +
+            "WHERE u.instanceid = :instanceId " +
+            "AND q.quotaType = :quotaType";
+
+    /**
+     * Select the statuses of instances in quota types, with their instance identifiers and
+     * quota types. Callers keep the instance identifier and quota type pairs they asked for
+     */
+    String SELECT_STATUSES_BY_INSTANCE_IDS_AND_QUOTA_TYPES =
+        "SELECT u.instanceid, q.quotaType, u.status FROM usages u " +
+            "INNER JOIN quotas q ON q.id = u.quotaid " +
+            "WHERE u.instanceid IN (<instanceIds>) " +
+            "AND q.quotaType IN (<quotaTypes>)";
+
+    /** The query used to count usages for paged results */
+    String COUNT_CLAUSE = "SELECT count(*) FROM usages u ";
+
+    /** The join used by criteria on quota subjects and types */
+    String QUOTA_JOIN = "INNER JOIN quotas q ON q.id = u.quotaid ";
+
+    /** The criterion matching all usages */
+    String WHERE_ANY = "WHERE TRUE ";
+
+    /** The criterion matching usages by instance identifier */
+    String WHERE_INSTANCE_ID = "WHERE u.instanceid = :instanceId ";
+
+    /** The criterion matching usages by instance identifier and quota subjects */
+    String WHERE_INSTANCE_ID_AND_OWNERS = QUOTA_JOIN +
+        "WHERE u.instanceid = :instanceId AND q.subject IN (<subjects>) ";
+
+    /** The criterion matching usages by quota identifier */
+    String WHERE_QUOTA_ID = "WHERE u.quotaid = :quotaId ";
+
+    /** The criterion matching usages by quota identifier and quota subjects */
+    String WHERE_QUOTA_ID_AND_OWNERS = QUOTA_JOIN +
+        "WHERE u.quotaid = :quotaId AND q.subject IN (<subjects>) ";
+
+    /** The criterion matching usages by quota type */
+    String WHERE_QUOTA_TYPE = QUOTA_JOIN + "WHERE q.quotaType = :quotaType ";
+
+    /** The criterion matching usages by quota type and quota subjects */
+    String WHERE_QUOTA_TYPE_AND_OWNERS = QUOTA_JOIN +
+        "WHERE q.quotaType = :quotaType AND q.subject IN (<subjects>) ";
+
+    /** The criterion matching usages by quota subjects */
+    String WHERE_OWNERS = QUOTA_JOIN + "WHERE q.subject IN (<subjects>) ";
+
+    /** The optional, case-insensitive usage status criterion, ignored when :status is null */
+    String STATUS_CRITERION = "AND (CAST(:status AS text) IS NULL OR lower(u.status) = lower(:status)) ";
+
+    /** Clause to return a page of usages after the :after keyset cursor, skipping :start rows */
+    String PAGE_CLAUSE = "AND u.id > :after ORDER BY u.id LIMIT :count OFFSET :start";
+
+    /** The statement used to insert usages */
+    String INSERT = "INSERT INTO usages " +
+            "(object, " +
+            "quotaId, " +
+            "instanceId, " +
+            "quantity, " +
+            "status, " +
+            "nodeId) " +
+            "VALUES " +
+            "(:object, " +
+            ":quotaId, " +
+            ":instanceId, " +
+            ":quantity, " +
+            ":status, " +
+            ":nodeId) ";
+
+    /** The usage columns returned by statements that modify usages */
+    String RETURNING_CLAUSE = "RETURNING id, object, quotaId, instanceId, quantity, status, nodeId";
+
+    /**
+     * The statement used to reserve quota space with a pending usage. The conditional update
+     * of the quota row admits the reservation only when it fits within the hard limit, and the
+     * row lock it takes makes concurrent reservations of the quota check the limit one after the
+     * other, each seeing the total including the reservations before it. The lock is held only
+     * for the statement, rather than across round trips as with SELECT ... FOR UPDATE.
+     * A quota without a hard limit admits any reservation. A reservation of an instance that
+     * already has a usage in the quota inserts nothing, rather than failing on the unique key.
+     */
+    String RESERVE = "WITH quota AS (" +
+            "UPDATE quotas q SET totalUsage = COALESCE(q.totalUsage, 0) " +
+            "WHERE q.id = :quotaId " +
+            "AND (q.hardLimit IS NULL " +
+                "OR COALESCE(q.totalUsage, 0) + :quantity <= q.hardLimit) " +
+            "RETURNING q.id) " +
+        "INSERT INTO usages (object, quotaId, instanceId, quantity, status, nodeId, expires) " +
+        "SELECT 'usage', quota.id, :instanceId, :quantity, 'pending', :nodeId, " +
+            "now() + :ttlSeconds * interval '1 second' " +
+        "FROM quota " +
+        "ON CONFLICT (quotaId, instanceId) DO NOTHING " +
+        RETURNING_CLAUSE;
+
+    /** The number of rows fetched per round trip when streaming usages */
+    int STREAM_FETCH_SIZE = 500;
+
+    /** The query used to stream all usages */
+    String SELECT_STREAM = SELECT_CLAUSE + "ORDER BY u.id";
+
     /**
      * List all usages
      * @return usages the list of usages
@@ -112,6 +225,16 @@ public interface UsageStore {
     @SqlQuery(SELECT_ALL)
     List<Usage> listUsages();
 
+    /**
+     * Stream all usages ordered by identifier. Rows are fetched STREAM_FETCH_SIZE at a time
+     * and mapped as they are iterated, so the caller must iterate within a transaction
+     * (the Postgres driver only uses a cursor when auto-commit is off) and close the iterator.
+     * @return usages the iterable usages
+     */
+    @SqlQuery(SELECT_STREAM)
+    @FetchSize(STREAM_FETCH_SIZE)
+    ResultIterable<Usage> streamUsages();
+
     /**
      * Find usages by usage identifier
      * @param id the usage identifier
@@ -207,28 +330,293 @@ public interface UsageStore {
     @SqlQuery(SELECT_BY_INSTANCE_ID_AND_QUOTA_TYPE)
     Usage findUsageByInstanceIdAndQuotaType(@Bind("instanceId") String instanceId, @Bind("quotaType") String quotaType);
 
+    /**
+     * Find the usage status by instance identifier and quota type, without reading the usage
+     * @param instanceId the usage instance id
+     * @param quotaType the quota type
+     * @return status the usage status, or null if there is no usage
+     */
+    @SqlQuery(SELECT_STATUS_BY_INSTANCE_ID_AND_QUOTA_TYPE)
+    String findUsageStatus(@Bind("instanceId") String instanceId, @Bind("quotaType") String quotaType);
+
+    /**
+     * Find the usage statuses of instances in quota types with one query
+     * @param instanceIds the usage instance ids
+     * @param quotaTypes the quota types
+     * @return statuses the rows of instanceid, quotatype, and status of the matching usages
+     */
+    @SqlQuery(SELECT_STATUSES_BY_INSTANCE_IDS_AND_QUOTA_TYPES)
+    @RegisterRowMapper(MapMapper.class)
+    List<Map<String, Object>> findUsageStatuses(@BindList("instanceIds") Collection<String> instanceIds,
+                                                @BindList("quotaTypes") Collection<String> quotaTypes);
+
+    /**
+     * List a page of usages, ordered by identifier
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of all usages
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_ANY + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPage(@Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count all usages
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of all usages
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_ANY + STATUS_CRITERION)
+    Integer countUsages(@Bind("status") String status);
+
+    /**
+     * Find a page of usages by instance identifier, ordered by identifier
+     * @param instanceId the usage instance id
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the instance identifier
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_INSTANCE_ID + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByInstanceId(@Bind("instanceId") String instanceId, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the instance identifier
+     * @param instanceId the usage instance id
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the instance identifier
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_INSTANCE_ID + STATUS_CRITERION)
+    Integer countUsagesByInstanceId(@Bind("instanceId") String instanceId, @Bind("status") String status);
+
+    /**
+     * Find a page of usages by instance identifier and subjects, ordered by identifier
+     * @param instanceId the usage instance id
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the instance identifier and subjects
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_INSTANCE_ID_AND_OWNERS + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByInstanceIdAndSubjects(@Bind("instanceId") String instanceId, @BindList("subjects") List<String> subjects, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the instance identifier and subjects
+     * @param instanceId the usage instance id
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the instance identifier and subjects
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_INSTANCE_ID_AND_OWNERS + STATUS_CRITERION)
+    Integer countUsagesByInstanceIdAndSubjects(@Bind("instanceId") String instanceId, @BindList("subjects") List<String> subjects, @Bind("status") String status);
+
+    /**
+     * Find a page of usages by quota identifier, ordered by identifier
+     * @param quotaId the quota id
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the quota identifier
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_QUOTA_ID + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByQuotaId(@Bind("quotaId") Integer quotaId, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the quota identifier
+     * @param quotaId the quota id
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the quota identifier
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_QUOTA_ID + STATUS_CRITERION)
+    Integer countUsagesByQuotaId(@Bind("quotaId") Integer quotaId, @Bind("status") String status);
+
+    /**
+     * Find a page of usages by quota identifier and subjects, ordered by identifier
+     * @param quotaId the quota id
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the quota identifier and subjects
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_QUOTA_ID_AND_OWNERS + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByQuotaIdAndSubjects(@Bind("quotaId") Integer quotaId, @BindList("subjects") List<String> subjects, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the quota identifier and subjects
+     * @param quotaId the quota id
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the quota identifier and subjects
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_QUOTA_ID_AND_OWNERS + STATUS_CRITERION)
+    Integer countUsagesByQuotaIdAndSubjects(@Bind("quotaId") Integer quotaId, @BindList("subjects") List<String> subjects, @Bind("status") String status);
+
+    /**
+     * Find a page of usages by quota type, ordered by identifier
+     * @param quotaType quota type (e.g. "portal", "storage", ...)
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the quota type
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_QUOTA_TYPE + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByQuotaType(@Bind("quotaType") String quotaType, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the quota type
+     * @param quotaType quota type (e.g. "portal", "storage", ...)
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the quota type
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_QUOTA_TYPE + STATUS_CRITERION)
+    Integer countUsagesByQuotaType(@Bind("quotaType") String quotaType, @Bind("status") String status);
+
+    /**
+     * Find a page of usages by quota type and subjects, ordered by identifier
+     * @param quotaType quota type (e.g. "portal", "storage", ...)
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the quota type and subjects
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_QUOTA_TYPE_AND_OWNERS + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByQuotaTypeAndSubjects(@Bind("quotaType") String quotaType, @BindList("subjects") List<String> subjects, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the quota type and subjects
+     * @param quotaType quota type (e.g. "portal", "storage", ...)
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the quota type and subjects
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_QUOTA_TYPE_AND_OWNERS + STATUS_CRITERION)
+    Integer countUsagesByQuotaTypeAndSubjects(@Bind("quotaType") String quotaType, @BindList("subjects") List<String> subjects, @Bind("status") String status);
+
+    /**
+     * Find a page of usages by quota subjects, ordered by identifier
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @param after  the keyset cursor, only usages with a greater identifier are listed
+     * @param start  the number of usages to skip after the cursor
+     * @param count  the maximum number of usages to list
+     * @return usages the page of usages for the quota subjects
+     */
+    @SqlQuery(SELECT_CLAUSE + WHERE_OWNERS + STATUS_CRITERION + PAGE_CLAUSE)
+    List<Usage> findUsagesPageByQuotaSubjects(@BindList("subjects") List<String> subjects, @Bind("status") String status,
+        @Bind("after") Integer after, @Bind("start") Integer start, @Bind("count") Integer count);
+
+    /**
+     * Count usages for the quota subjects
+     * @param subjects list of quota subjects
+     * @param status  the usage status to match, or null for any status
+     * @return total  the number of usages for the quota subjects
+     */
+    @SqlQuery(COUNT_CLAUSE + WHERE_OWNERS + STATUS_CRITERION)
+    Integer countUsagesByQuotaSubjects(@BindList("subjects") List<String> subjects, @Bind("status") String status);
+
+    /**
+     * Skip the usages trigger updates of quotas.totalUsage for the rest of the current transaction.
+     * The caller must add the usage changes to the affected quotas before committing.
+     */
+    @SqlUpdate("SET LOCAL bookkeeper.defer_quota_totals = 'on'")
+    void deferQuotaTotals();
+
+    /**
+     * Insert a batch of usages in one round trip. A usage of an instance that already has a
+     * usage in the quota, including one inserted concurrently, is skipped rather than failing
+     * the batch on the unique key.
+     * @param usages the usages to insert
+     * @return usages the inserted usages, without the skipped ones. Callers match them to the
+     *                given usages by quotaId and instanceId.
+     */
+    @SqlBatch(INSERT + "ON CONFLICT (quotaId, instanceId) DO NOTHING")
+    @GetGeneratedKeys({"id", "object", "quotaid", "instanceid", "quantity", "status", "nodeid"})
+    List<Usage> insertBatch(@BindBean List<Usage> usages);
+
+    /**
+     * Reserve quota space with a pending usage, if the quantity fits within the quota's hard
+     * limit. The pending usage counts toward the quota's totalUsage until it is committed,
+     * cancelled, or expired.
+     * @param quotaId the quota identifier
+     * @param instanceId the instance identifier
+     * @param quantity the quantity to reserve
+     * @param nodeId the node identifier
+     * @param ttlSeconds the number of seconds until the reservation expires
+     * @return usage the pending usage, or null if the quota doesn't exist, has no room, or
+     *               already has a usage for the instance
+     */
+    @SqlQuery(RESERVE)
+    Usage reserve(@Bind("quotaId") Integer quotaId, @Bind("instanceId") String instanceId,
+        @Bind("quantity") Double quantity, @Bind("nodeId") String nodeId,
+        @Bind("ttlSeconds") Integer ttlSeconds);
+
+    /**
+     * Commit a reservation, activating its pending usage
+     * @param id the usage identifier of the reservation
+     * @return usage the active usage, or null if there is no pending usage with the identifier
+     */
+    @SqlQuery("UPDATE usages SET status = 'active', expires = NULL " +
+        "WHERE id = :id AND status = 'pending' " + RETURNING_CLAUSE)
+    Usage commitReservation(@Bind("id") Integer id);
+
+    /**
+     * Cancel a reservation, deleting its pending usage to release the quota space
+     * @param id the usage identifier of the reservation
+     * @return usage the deleted usage, or null if there is no pending usage with the identifier
+     */
+    @SqlQuery("DELETE FROM usages WHERE id = :id AND status = 'pending' " + RETURNING_CLAUSE)
+    Usage cancelReservation(@Bind("id") Integer id);
+
+    /**
+     * Expire abandoned reservations, deleting the pending usages past their expiry
+     * @return usages the expired usages
+     */
+    @SqlQuery("DELETE FROM usages WHERE status = 'pending' AND expires < now() " + RETURNING_CLAUSE)
+    List<Usage> expireReservations();
+
     /**
      * Insert a usage with a given Usage instance
      * @param usage the usage to insert
      */
-    @SqlUpdate("INSERT INTO usages " +
-            "(object, " +
-            "quotaId, " +
-            "instanceId, " +
-            "quantity, " +
-            "status, " +
-            "nodeId) " +
-            "VALUES " +
-            "(:object, " +
-            ":quotaId, " +
-            ":instanceId, " +
-            ":quantity, " +
-            ":status, " +
-            ":nodeId) " +
-            "RETURNING id")
+    @SqlUpdate(INSERT + "RETURNING id")
     @GetGeneratedKeys
     Integer insert(@BindBean Usage usage);
 
+    /**
+     * Insert a usage, or update the existing usage with the same quotaId and instanceId,
+     * in a single statement. The unique usages_quotaid_instanceid_idx index makes this
+     * safe when the same usage is reported concurrently. Updating a pending reservation
+     * clears its expiry, so the reservation sweep doesn't delete the reported usage.
+     * @param usage the usage to insert or update
+     * @return usage the inserted or updated usage
+     */
+    @SqlUpdate(INSERT +
+            "ON CONFLICT (quotaId, instanceId) DO UPDATE " +
+            "SET object = EXCLUDED.object, " +
+            "quantity = EXCLUDED.quantity, " +
+            "status = EXCLUDED.status, " +
+            "nodeId = EXCLUDED.nodeId, " +
+            "expires = NULL " +
+            "RETURNING *")
+    @GetGeneratedKeys
+    Usage upsert(@BindBean Usage usage);
+
     /**
      * Update a usage for a given id
      * @param usage the usage to update
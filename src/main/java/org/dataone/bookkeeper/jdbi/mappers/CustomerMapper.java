@@ -22,20 +22,17 @@
 package org.dataone.bookkeeper.jdbi.mappers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.dropwizard.jackson.Jackson;
 import org.dataone.bookkeeper.api.Address;
 import org.dataone.bookkeeper.api.Customer;
-import org.dataone.bookkeeper.api.Quota;
 import org.jdbi.v3.core.mapper.RowMapper;
 import org.jdbi.v3.core.statement.StatementContext;
-import org.postgresql.util.PSQLException;
 
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * Maps customer rows to Customer instances. We use this since the JSON
@@ -43,6 +40,15 @@ import java.util.List;
  */
 public class CustomerMapper implements RowMapper<Customer> {
 
+    /* A Jackson mapper shared by all rows, since building one per row is expensive */
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    /* A reader for the address column */
+    private static final ObjectReader ADDRESS_READER = MAPPER.readerFor(Address.class);
+
+    /* A reader for the JSON object columns */
+    private static final ObjectReader OBJECT_READER = MAPPER.readerFor(ObjectNode.class);
+
     /**
      * Construct a CustomerMapper
      */
@@ -61,7 +67,6 @@ public class CustomerMapper implements RowMapper<Customer> {
     @Override
     public Customer map(ResultSet rs, StatementContext ctx) throws SQLException {
         Customer customer = null;
-        ObjectMapper mapper = Jackson.newObjectMapper();
 
         try {
             // Create a customer instance from the resultset
@@ -70,19 +75,19 @@ public class CustomerMapper implements RowMapper<Customer> {
                 rs.getString("c_object"),
                 rs.getString("c_subject"),
                 new Integer(rs.getInt("c_balance")),
-                mapper.readValue(rs.getString("c_address"), Address.class),
+                ADDRESS_READER.readValue(rs.getString("c_address")),
                 new Integer(rs.getInt("c_created")),
                 rs.getString("c_currency"),
                 rs.getBoolean("c_delinquent"),
                 rs.getString("c_description"),
                 rs.getString("c_discount") != null ?
-                    (ObjectNode) mapper.readTree(rs.getString("c_discount")) : null,
+                    OBJECT_READER.readValue(rs.getString("c_discount")) : null,
                 rs.getString("c_email"),
                 rs.getString("c_invoicePrefix"),
                 rs.getString("c_invoiceSettings") != null ?
-                    (ObjectNode) mapper.readTree(rs.getString("c_invoiceSettings")) : null,
+                    OBJECT_READER.readValue(rs.getString("c_invoiceSettings")) : null,
                 rs.getString("c_metadata") != null ?
-                    (ObjectNode) mapper.readTree(rs.getString("c_metadata")) : null,
+                    OBJECT_READER.readValue(rs.getString("c_metadata")) : null,
                 rs.getString("c_givenName"),
                 rs.getString("c_surName"),
                 rs.getString("c_phone")
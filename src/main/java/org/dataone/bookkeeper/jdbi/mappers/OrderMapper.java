@@ -21,9 +21,9 @@
 
 package org.dataone.bookkeeper.jdbi.mappers;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.dropwizard.jackson.Jackson;
 import org.dataone.bookkeeper.api.Order;
@@ -34,12 +34,20 @@ import org.jdbi.v3.core.statement.StatementContext;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 public class OrderMapper implements RowMapper<Order> {
 
+    /* A Jackson mapper shared by all rows, since building one per row is expensive */
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    /* A reader that parses the items array straight into order items */
+    private static final ObjectReader ITEMS_READER =
+        MAPPER.readerFor(new TypeReference<List<OrderItem>>() {});
+
+    /* A reader for the JSON object columns */
+    private static final ObjectReader OBJECT_READER = MAPPER.readerFor(ObjectNode.class);
+
     /**
      * Construct an OrderMapper
      */
@@ -59,30 +67,20 @@ public class OrderMapper implements RowMapper<Order> {
     @Override
     public Order map(ResultSet rs, StatementContext ctx) throws SQLException {
 
-        ObjectMapper mapper = Jackson.newObjectMapper();
         /* The order to return */
         Order order;
         /* The list of order items */
-        List<OrderItem> items = new LinkedList<OrderItem>();
-        /* The list of items as a JSON array */
-        ArrayNode itemsArray;
+        List<OrderItem> items;
 
         try {
-            itemsArray =
-                (ArrayNode) mapper.readTree(rs.getString("o_items"));
-
-            Iterator<JsonNode> iterator = itemsArray.elements();
-            while ( iterator.hasNext() ) {
-                ObjectNode item = (ObjectNode) iterator.next();
-                items.add(mapper.readValue(item.toString(), OrderItem.class));
-            }
+            items = ITEMS_READER.readValue(rs.getString("o_items"));
             order = new Order(
                 new Integer(rs.getInt("o_id")),
                 rs.getString("o_object"),
                 new Integer(rs.getInt("o_amount")),
                 new Integer(rs.getInt("o_amountReturned")),
                 rs.getString("o_charge") != null ?
-                    (ObjectNode) mapper.readTree(rs.getString("o_charge")) : null,
+                    OBJECT_READER.readValue(rs.getString("o_charge")) : null,
                 new Integer(rs.getInt("o_created")),
                 rs.getString("o_currency"),
                 rs.getString("o_subject"),
@@ -90,16 +88,16 @@ public class OrderMapper implements RowMapper<Order> {
                 rs.getString("o_email"),
                 items,
                 rs.getString("o_metadata") != null ?
-                    (ObjectNode) mapper.readTree(rs.getString("o_metadata")) : null,
+                    OBJECT_READER.readValue(rs.getString("o_metadata")) : null,
                 rs.getString("o_name"),
                 rs.getString("o_status"),
                 rs.getString("o_statusTransitions") != null ?
-                    (ObjectNode) mapper.readTree(rs.getString("o_statusTransitions")) : null,
+                    OBJECT_READER.readValue(rs.getString("o_statusTransitions")) : null,
                 new Integer(rs.getInt("o_updated")),
                 rs.getString("o_seriesId"),
                 new Integer(rs.getInt("o_startDate")),
                 new Integer(rs.getInt("o_endDate")),
-                null // let the row reducer populate quotas
+                null // let OrderQuotasMapper or the row reducer populate quotas
 
             );
         } catch (IOException e) {
@@ -0,0 +1,78 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.jdbi.mappers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.dropwizard.jackson.Jackson;
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.Quota;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Maps order rows that carry their quotas in an aggregated o_quotas JSON array,
+ * so that each order is a single row rather than one row per quota
+ */
+public class OrderQuotasMapper implements RowMapper<Order> {
+
+    /* A reader that parses the aggregated quotas straight into quotas, shared by all rows */
+    private static final ObjectReader QUOTAS_READER =
+        Jackson.newObjectMapper().readerFor(new TypeReference<List<Quota>>() {});
+
+    /* The mapper of the order columns */
+    private final OrderMapper orderMapper = new OrderMapper();
+
+    /**
+     * Construct an OrderQuotasMapper
+     */
+    public OrderQuotasMapper() {
+    }
+
+    /**
+     * Map the current row of the result set.
+     * This method should not cause the result set to advance; allow Jdbi to do that, please.
+     *
+     * @param rs  the result set being iterated
+     * @param ctx the statement context
+     * @return the order with its quotas, which are null when the order has none
+     * @throws SQLException if anything goes wrong go ahead and let this percolate; Jdbi will handle it
+     */
+    @Override
+    public Order map(ResultSet rs, StatementContext ctx) throws SQLException {
+        Order order = orderMapper.map(rs, ctx);
+        String quotas = rs.getString("o_quotas");
+        try {
+            if ( quotas != null ) {
+                order.setQuotas(QUOTAS_READER.readValue(quotas));
+            }
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        return order;
+    }
+}
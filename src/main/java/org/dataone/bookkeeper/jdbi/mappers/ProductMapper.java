@@ -21,6 +21,7 @@
 
 package org.dataone.bookkeeper.jdbi.mappers;
 
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.dropwizard.jackson.Jackson;
 import org.dataone.bookkeeper.api.Product;
@@ -37,6 +38,10 @@ import java.sql.SQLException;
  */
 public class ProductMapper implements RowMapper<Product> {
 
+    /* A reader for the metadata column, shared by all rows */
+    private static final ObjectReader OBJECT_READER =
+        Jackson.newObjectMapper().readerFor(ObjectNode.class);
+
     /**
      * Construct a ProductMapper
      */
@@ -72,8 +77,7 @@ public class ProductMapper implements RowMapper<Product> {
                 rs.getString("unitLabel"),
                 rs.getString("url"),
                 rs.getString("metadata") != null ?
-                    (ObjectNode) Jackson.newObjectMapper().readTree(
-                        rs.getString("metadata")) : null
+                    OBJECT_READER.readValue(rs.getString("metadata")) : null
             );
         } catch (IOException e) {
             throw new SQLException(e);
@@ -0,0 +1,165 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.quotas;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.dropwizard.jackson.Jackson;
+import org.dataone.bookkeeper.api.Feature;
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.Product;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.cache.InvalidationGenerations;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of the quotas granted by each product, keyed by product identifier, used to
+ * create the quotas of a paid order without parsing the product's features each time.
+ *
+ * A template holds the quotas of the product's metadata.features, with the limits of
+ * features of the same quotaType added together. Orders get copies of the templates.
+ * Templates are built from the products of the ProductCatalog, and each entry records the
+ * tag of the catalog snapshot it was built from. An entry is discarded when read after the
+ * catalog reloads different products, so products changed on any instance are picked up
+ * as soon as the catalog sees them.
+ */
+public class ProductQuotaTemplates {
+
+    /* A Jackson mapper for reading product features */
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    /**
+     * The quota templates of a product and the tag of the catalog snapshot they were built from
+     */
+    private static final class Entry {
+
+        /* The quota templates, or null when the product doesn't exist */
+        private final List<Quota> quotas;
+
+        /* The tag of the catalog snapshot the templates were built from */
+        private final String tag;
+
+        /**
+         * Construct an entry
+         * @param quotas  the quota templates, or null when the product doesn't exist
+         * @param tag  the tag of the catalog snapshot the templates were built from
+         */
+        private Entry(List<Quota> quotas, String tag) {
+            this.quotas = quotas;
+            this.tag = tag;
+        }
+    }
+
+    /* The cached quota templates keyed by product identifier */
+    private final LoadingCache<Integer, Entry> cache;
+
+    /* The product catalog the templates are built from */
+    private final ProductCatalog productCatalog;
+
+    /**
+     * Construct a ProductQuotaTemplates cache
+     * @param productCatalog  the product catalog the templates are built from
+     * @param cachePolicy  the Caffeine cache policy
+     * @param metrics  the metric registry for cache statistics
+     */
+    public ProductQuotaTemplates(ProductCatalog productCatalog, CaffeineSpec cachePolicy,
+                                 MetricRegistry metrics) {
+        this.productCatalog = productCatalog;
+        this.cache = Caffeine.from(cachePolicy)
+            .recordStats()
+            .build(productId -> {
+                ProductCatalog.Snapshot snapshot = productCatalog.snapshot();
+                Product product = snapshot.getProduct(productId);
+                return new Entry(product == null ? null : templates(product), snapshot.getTag());
+            });
+
+        metrics.register(MetricRegistry.name(ProductQuotaTemplates.class, "hits"),
+            (Gauge<Long>) () -> this.cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(ProductQuotaTemplates.class, "misses"),
+            (Gauge<Long>) () -> this.cache.stats().missCount());
+    }
+
+    /**
+     * Create the quotas a product grants to an order, one per quotaType, from the cached
+     * templates of the product
+     * @param productId  the product identifier
+     * @param order  the order the quotas are granted to
+     * @return quotas  new quotas for the order's subject, or null if the product doesn't exist
+     */
+    public List<Quota> createQuotas(Integer productId, Order order) {
+        Entry entry = InvalidationGenerations.get(this.cache, productId,
+            cached -> ! cached.tag.equals(this.productCatalog.snapshot().getTag()));
+        if ( entry.quotas == null ) {
+            return null;
+        }
+        List<Quota> quotas = new ArrayList<Quota>(entry.quotas.size());
+        for (Quota template : entry.quotas) {
+            quotas.add(new Quota(null, template.getObject(), template.getQuotaType(),
+                template.getSoftLimit(), template.getHardLimit(), 0.0, template.getUnit(),
+                order.getId(), order.getSubject(), order.getName()));
+        }
+        return quotas;
+    }
+
+    /**
+     * Build the quota templates of a product's features, combining the limits of
+     * quotas of the same quotaType
+     * @param product  the product
+     * @return quotas  the quota templates
+     */
+    private static List<Quota> templates(Product product) {
+        Map<String, Quota> quotas = new LinkedHashMap<String, Quota>();
+        JsonNode features = product.getMetadata() == null ? null : product.getMetadata().get("features");
+        if ( features != null ) {
+            for (JsonNode featureNode : features) {
+                Feature feature;
+                try {
+                    feature = MAPPER.treeToValue(featureNode, Feature.class);
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+                Quota quota = feature.getQuota();
+                if ( quota != null ) {
+                    Quota existingQuota = quotas.get(quota.getQuotaType());
+                    if ( existingQuota != null ) {
+                        quota.setSoftLimit(existingQuota.getSoftLimit() + quota.getSoftLimit());
+                        quota.setHardLimit(existingQuota.getHardLimit() + quota.getHardLimit());
+                    }
+                    quotas.put(quota.getQuotaType(), quota);
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<Quota>(quotas.values()));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.quotas;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * The answer to a quota admission check: whether a subject has room for a quantity
+ * of a quota type, given the limits and total usage of the subject's quotas of that type
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class QuotaCheck {
+
+    /**
+     * The admission decisions
+     */
+    public enum Decision {
+        /* The quantity fits within the soft limit */
+        ALLOW("allow"),
+
+        /* The quantity exceeds the soft limit, but fits within the hard limit */
+        SOFT_EXCEEDED("soft-exceeded"),
+
+        /* The quantity exceeds the hard limit */
+        HARD_DENIED("hard-denied");
+
+        /* The serialized decision */
+        private final String value;
+
+        Decision(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Get the serialized decision
+         * @return value  the decision value
+         */
+        @JsonValue
+        public String getValue() {
+            return value;
+        }
+    }
+
+    /* The subject checked */
+    private final String subject;
+
+    /* The quota type checked */
+    private final String quotaType;
+
+    /* The quantity to admit */
+    private final Double quantity;
+
+    /* The admission decision */
+    private final Decision decision;
+
+    /* The soft limit of the subject's quotas of the type */
+    private final Double softLimit;
+
+    /* The hard limit of the subject's quotas of the type */
+    private final Double hardLimit;
+
+    /* The total usage of the subject's quotas of the type */
+    private final Double totalUsage;
+
+    /**
+     * Construct a quota check
+     * @param subject  the subject checked
+     * @param quotaType  the quota type checked
+     * @param quantity  the quantity to admit
+     * @param decision  the admission decision
+     * @param softLimit  the soft limit, or null when unlimited
+     * @param hardLimit  the hard limit, or null when unlimited
+     * @param totalUsage  the total usage
+     */
+    public QuotaCheck(String subject, String quotaType, Double quantity, Decision decision,
+                      Double softLimit, Double hardLimit, Double totalUsage) {
+        this.subject = subject;
+        this.quotaType = quotaType;
+        this.quantity = quantity;
+        this.decision = decision;
+        this.softLimit = softLimit;
+        this.hardLimit = hardLimit;
+        this.totalUsage = totalUsage;
+    }
+
+    /**
+     * @return subject  the subject checked
+     */
+    @JsonProperty
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @return quotaType  the quota type checked
+     */
+    @JsonProperty
+    public String getQuotaType() {
+        return quotaType;
+    }
+
+    /**
+     * @return quantity  the quantity to admit
+     */
+    @JsonProperty
+    public Double getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * @return decision  the admission decision
+     */
+    @JsonProperty
+    public Decision getDecision() {
+        return decision;
+    }
+
+    /**
+     * @return softLimit  the soft limit of the subject's quotas of the type, omitted when unlimited
+     */
+    @JsonProperty
+    public Double getSoftLimit() {
+        return softLimit;
+    }
+
+    /**
+     * @return hardLimit  the hard limit of the subject's quotas of the type, omitted when unlimited
+     */
+    @JsonProperty
+    public Double getHardLimit() {
+        return hardLimit;
+    }
+
+    /**
+     * @return totalUsage  the total usage of the subject's quotas of the type
+     */
+    @JsonProperty
+    public Double getTotalUsage() {
+        return totalUsage;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.quotas;
+
+import org.dataone.bookkeeper.api.Quota;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The room left in a subject's quotas of one type. When a subject has several quotas of
+ * a type (e.g. from several orders), their limits and usages are added together. A quota
+ * without a limit is unlimited, so the summed limit of quotas including one is null.
+ */
+public class QuotaHeadroom {
+
+    /* The identifiers of the quotas */
+    private final Set<Integer> quotaIds;
+
+    /* The summed soft limits, or null when unlimited */
+    private final Double softLimit;
+
+    /* The summed hard limits, or null when unlimited */
+    private final Double hardLimit;
+
+    /* The summed total usages */
+    private final double totalUsage;
+
+    /**
+     * Construct a quota headroom
+     * @param quotaIds  the identifiers of the quotas
+     * @param softLimit  the summed soft limits, or null when unlimited
+     * @param hardLimit  the summed hard limits, or null when unlimited
+     * @param totalUsage  the summed total usages
+     */
+    public QuotaHeadroom(Set<Integer> quotaIds, Double softLimit, Double hardLimit, double totalUsage) {
+        this.quotaIds = Collections.unmodifiableSet(quotaIds);
+        this.softLimit = softLimit;
+        this.hardLimit = hardLimit;
+        this.totalUsage = totalUsage;
+    }
+
+    /**
+     * Build the headroom of a subject's quotas of one type
+     * @param quotas  the quotas, not empty
+     * @return headroom  the headroom of the quotas
+     */
+    public static QuotaHeadroom of(List<Quota> quotas) {
+        Set<Integer> quotaIds = new HashSet<Integer>();
+        Double softLimit = 0.0;
+        Double hardLimit = 0.0;
+        double totalUsage = 0;
+        for (Quota quota : quotas) {
+            quotaIds.add(quota.getId());
+            softLimit = addLimit(softLimit, quota.getSoftLimit());
+            hardLimit = addLimit(hardLimit, quota.getHardLimit());
+            totalUsage += quota.getTotalUsage() == null ? 0 : quota.getTotalUsage();
+        }
+        return new QuotaHeadroom(quotaIds, softLimit, hardLimit, totalUsage);
+    }
+
+    /**
+     * Decide whether a quantity can be admitted
+     * @param subject  the subject checked
+     * @param quotaType  the quota type checked
+     * @param quantity  the quantity to admit
+     * @return check  the admission decision
+     */
+    public QuotaCheck check(String subject, String quotaType, double quantity) {
+        double projected = totalUsage + quantity;
+        QuotaCheck.Decision decision;
+        if ( hardLimit != null && projected > hardLimit ) {
+            decision = QuotaCheck.Decision.HARD_DENIED;
+        } else if ( softLimit != null && projected > softLimit ) {
+            decision = QuotaCheck.Decision.SOFT_EXCEEDED;
+        } else {
+            decision = QuotaCheck.Decision.ALLOW;
+        }
+        return new QuotaCheck(subject, quotaType, quantity, decision, softLimit, hardLimit, totalUsage);
+    }
+
+    /**
+     * @return quotaIds  the identifiers of the quotas
+     */
+    public Set<Integer> getQuotaIds() {
+        return quotaIds;
+    }
+
+    /**
+     * Add a quota's limit to the summed limits
+     * @param sum  the summed limits, or null when unlimited
+     * @param limit  the quota's limit, or null when unlimited
+     * @return sum  the new sum, or null when unlimited
+     */
+    private static Double addLimit(Double sum, Double limit) {
+        return sum == null || limit == null ? null : sum + limit;
+    }
+
+    /**
+     * @return softLimit  the summed soft limits, or null when unlimited
+     */
+    public Double getSoftLimit() {
+        return softLimit;
+    }
+
+    /**
+     * @return hardLimit  the summed hard limits, or null when unlimited
+     */
+    public Double getHardLimit() {
+        return hardLimit;
+    }
+
+    /**
+     * @return totalUsage  the summed total usages
+     */
+    public double getTotalUsage() {
+        return totalUsage;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.dataone.bookkeeper.quotas;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.cache.InvalidationGenerations;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A cache of quota headroom keyed by subject and quota type, used to answer quota
+ * admission checks without a database query.
+ *
+ * Entries are invalidated whenever this instance changes the usages or quotas behind
+ * them. An entry loaded before a later invalidation of its key or one of its quotas is
+ * discarded when read, so a load that races an invalidation isn't served (see
+ * InvalidationGenerations). Changes made elsewhere (other instances, or directly in the
+ * database) are picked up when entries expire, so the policy should use a short
+ * expireAfterWrite.
+ */
+public class QuotaHeadroomCache {
+
+    /**
+     * A cached headroom and the generation its load started in
+     */
+    private static final class Entry {
+
+        /* The headroom, or null when there are no quotas */
+        private final QuotaHeadroom headroom;
+
+        /* The generation the load of the headroom started in */
+        private final long generation;
+
+        /**
+         * Construct an entry
+         * @param headroom  the headroom, or null when there are no quotas
+         * @param generation  the generation the load of the headroom started in
+         */
+        private Entry(QuotaHeadroom headroom, long generation) {
+            this.headroom = headroom;
+            this.generation = generation;
+        }
+    }
+
+    /* The cached headroom keyed by subject and quota type */
+    private final LoadingCache<String, Entry> cache;
+
+    /* The invalidations of quota identifiers (Integer) and of cache keys (String),
+       retained for the cache's expireAfterWrite, so set once the cache is built */
+    private InvalidationGenerations<Object> invalidations;
+
+    /**
+     * Construct a QuotaHeadroomCache
+     * @param quotaStore  the quota store used to load headroom
+     * @param cachePolicy  the Caffeine cache policy
+     * @param metrics  the metric registry for cache statistics
+     */
+    public QuotaHeadroomCache(QuotaStore quotaStore, CaffeineSpec cachePolicy, MetricRegistry metrics) {
+        this(quotaStore, cachePolicy, Ticker.systemTicker(), metrics);
+    }
+
+    /**
+     * Construct a QuotaHeadroomCache with the given time source
+     * @param quotaStore  the quota store used to load headroom
+     * @param cachePolicy  the Caffeine cache policy
+     * @param ticker  the time source of the cache
+     * @param metrics  the metric registry for cache statistics
+     */
+    QuotaHeadroomCache(QuotaStore quotaStore, CaffeineSpec cachePolicy, Ticker ticker,
+                       MetricRegistry metrics) {
+        this.cache = Caffeine.from(cachePolicy)
+            .ticker(ticker)
+            .recordStats()
+            .build(key -> {
+                long loadGeneration = this.invalidations.current();
+                int separator = key.lastIndexOf('\n');
+                List<Quota> quotas = quotaStore.findQuotasBySubjectAndType(
+                    key.substring(0, separator), key.substring(separator + 1));
+                return new Entry(quotas.isEmpty() ? null : QuotaHeadroom.of(quotas), loadGeneration);
+            });
+        this.invalidations = new InvalidationGenerations<Object>(
+            InvalidationGenerations.retentionNanos(this.cache), ticker);
+
+        metrics.register(MetricRegistry.name(QuotaHeadroomCache.class, "hits"),
+            (Gauge<Long>) () -> this.cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(QuotaHeadroomCache.class, "misses"),
+            (Gauge<Long>) () -> this.cache.stats().missCount());
+        metrics.register(MetricRegistry.name(QuotaHeadroomCache.class, "hit-ratio"),
+            (Gauge<Double>) () -> this.cache.stats().hitRate());
+    }
+
+    /**
+     * Get the headroom of a subject's quotas of a type, loading it when not cached
+     * @param subject  the quota subject
+     * @param quotaType  the quota type
+     * @return headroom  the headroom, or empty if the subject has no quotas of the type
+     */
+    public Optional<QuotaHeadroom> get(String subject, String quotaType) {
+        String key = key(subject, quotaType);
+        Entry entry = InvalidationGenerations.get(this.cache, key, cached -> isStale(key, cached));
+        return Optional.ofNullable(entry.headroom);
+    }
+
+    /**
+     * Discard the cached headroom that includes the quota, after its usages or limits change
+     * @param quotaId  the quota identifier
+     */
+    public void invalidateQuota(Integer quotaId) {
+        if ( quotaId != null ) {
+            this.invalidations.invalidate(quotaId);
+        }
+    }
+
+    /**
+     * Discard the cached headroom of the quotas
+     * @param quotaIds  the quota identifiers
+     */
+    public void invalidateQuotas(Collection<Integer> quotaIds) {
+        for (Integer quotaId : quotaIds) {
+            invalidateQuota(quotaId);
+        }
+    }
+
+    /**
+     * Discard the cached headroom of a subject's quotas of a type, after a quota is added
+     * @param subject  the quota subject
+     * @param quotaType  the quota type
+     */
+    public void invalidate(String subject, String quotaType) {
+        if ( subject != null && quotaType != null ) {
+            String key = key(subject, quotaType);
+            this.invalidations.invalidate(key);
+            this.cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Get the number of quotas and keys with a retained invalidation
+     * @return size  the number of retained invalidations
+     */
+    int invalidationCount() {
+        return this.invalidations.size();
+    }
+
+    /**
+     * Check if the entry was loaded before a later invalidation of its key or quotas
+     * @param key  the cache key
+     * @param entry  the cached entry
+     * @return true if the entry is stale
+     */
+    private boolean isStale(String key, Entry entry) {
+        if ( this.invalidations.isStale(key, entry.generation) ) {
+            return true;
+        }
+        if ( entry.headroom != null ) {
+            for (Integer quotaId : entry.headroom.getQuotaIds()) {
+                if ( this.invalidations.isStale(quotaId, entry.generation) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the cache key of a subject and quota type
+     * @param subject  the quota subject
+     * @param quotaType  the quota type
+     * @return key  the cache key
+     */
+    private static String key(String subject, String quotaType) {
+        return subject + '\n' + quotaType;
+    }
+}
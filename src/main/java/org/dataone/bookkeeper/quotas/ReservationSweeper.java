@@ -0,0 +1,81 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.quotas;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.bookkeeper.api.Usage;
+import org.dataone.bookkeeper.jdbi.UsageStore;
+
+import java.util.List;
+
+/**
+ * Expires abandoned usage reservations, releasing the quota space of pending usages
+ * that were neither committed nor cancelled before they expired. Run it on a schedule.
+ */
+public class ReservationSweeper implements Runnable {
+
+    /* The logging facility for this class */
+    private final Log log = LogFactory.getLog(ReservationSweeper.class);
+
+    /* The usage store for database calls */
+    private final UsageStore usageStore;
+
+    /* The cache of quota headroom, invalidated for the quotas of expired reservations */
+    private final QuotaHeadroomCache quotaHeadroomCache;
+
+    /* The cache of usage statuses, invalidated for the instances of expired reservations */
+    private final UsageStatusCache usageStatusCache;
+
+    /**
+     * Construct a reservation sweeper
+     * @param usageStore  the usage store
+     * @param quotaHeadroomCache  the cache of quota headroom
+     * @param usageStatusCache  the cache of usage statuses
+     */
+    public ReservationSweeper(UsageStore usageStore, QuotaHeadroomCache quotaHeadroomCache,
+                              UsageStatusCache usageStatusCache) {
+        this.usageStore = usageStore;
+        this.quotaHeadroomCache = quotaHeadroomCache;
+        this.usageStatusCache = usageStatusCache;
+    }
+
+    /**
+     * Expire the reservations past their expiry. Failures are logged rather than thrown,
+     * so that the next scheduled run still happens.
+     */
+    @Override
+    public void run() {
+        try {
+            List<Usage> expired = this.usageStore.expireReservations();
+            for (Usage usage : expired) {
+                this.quotaHeadroomCache.invalidateQuota(usage.getQuotaId());
+                this.usageStatusCache.invalidate(usage.getInstanceId());
+            }
+            if ( ! expired.isEmpty() ) {
+                log.info("Expired " + expired.size() + " abandoned usage reservations.");
+            }
+        } catch (Exception e) {
+            log.error("Couldn't expire the usage reservations: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.quotas;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.dataone.bookkeeper.cache.InvalidationGenerations;
+import org.dataone.bookkeeper.jdbi.UsageStore;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A cache of usage statuses keyed by instance identifier and quota type, used to answer
+ * the unauthenticated usage status lookups without a database query. Bulk lookups load
+ * the statuses not cached with one query.
+ *
+ * Entries are invalidated by instance identifier whenever this instance changes a usage,
+ * and an entry loaded before a later invalidation of its instance is discarded when read,
+ * so a load that races a change of its instance isn't served (see InvalidationGenerations). Instances without a usage are cached too. Changes made
+ * elsewhere (other instances, quota type changes, or the database directly) are picked up
+ * when entries expire, so the policy should use a short expireAfterWrite.
+ */
+public class UsageStatusCache {
+
+    /**
+     * A cached usage status and the generation its load started in
+     */
+    private static final class Entry {
+
+        /* The usage status, or null when there is no usage */
+        private final String status;
+
+        /* The generation the load of the status started in */
+        private final long generation;
+
+        /**
+         * Construct an entry
+         * @param status  the usage status, or null when there is no usage
+         * @param generation  the generation the load of the status started in
+         */
+        private Entry(String status, long generation) {
+            this.status = status;
+            this.generation = generation;
+        }
+    }
+
+    /* The cached statuses keyed by instance identifier and quota type */
+    private final LoadingCache<String, Entry> cache;
+
+    /* The invalidations of instance identifiers, set once the cache is built */
+    private InvalidationGenerations<String> invalidations;
+
+    /**
+     * Construct a UsageStatusCache
+     * @param usageStore  the usage store used to load statuses
+     * @param cachePolicy  the Caffeine cache policy
+     * @param metrics  the metric registry for cache statistics
+     */
+    public UsageStatusCache(UsageStore usageStore, CaffeineSpec cachePolicy, MetricRegistry metrics) {
+        this(usageStore, cachePolicy, Ticker.systemTicker(), metrics);
+    }
+
+    /**
+     * Construct a UsageStatusCache with the given time source
+     * @param usageStore  the usage store used to load statuses
+     * @param cachePolicy  the Caffeine cache policy
+     * @param ticker  the time source of the cache
+     * @param metrics  the metric registry for cache statistics
+     */
+    UsageStatusCache(UsageStore usageStore, CaffeineSpec cachePolicy, Ticker ticker,
+                     MetricRegistry metrics) {
+        this.cache = Caffeine.from(cachePolicy)
+            .ticker(ticker)
+            .recordStats()
+            .build(new CacheLoader<String, Entry>() {
+                @Override
+                public Entry load(String key) {
+                    long loadGeneration = invalidations.current();
+                    return new Entry(usageStore.findUsageStatus(instanceId(key), quotaType(key)),
+                        loadGeneration);
+                }
+
+                @Override
+                public Map<String, Entry> loadAll(Iterable<? extends String> keys) {
+                    return loadStatuses(usageStore, keys);
+                }
+            });
+        this.invalidations = new InvalidationGenerations<String>(
+            InvalidationGenerations.retentionNanos(this.cache), ticker);
+
+        metrics.register(MetricRegistry.name(UsageStatusCache.class, "hits"),
+            (Gauge<Long>) () -> this.cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(UsageStatusCache.class, "misses"),
+            (Gauge<Long>) () -> this.cache.stats().missCount());
+        metrics.register(MetricRegistry.name(UsageStatusCache.class, "hit-ratio"),
+            (Gauge<Double>) () -> this.cache.stats().hitRate());
+    }
+
+    /**
+     * Get the status of an instance's usage of a quota type, loading it when not cached
+     * @param instanceId  the usage instance identifier
+     * @param quotaType  the quota type
+     * @return status  the usage status, or empty if the instance has no usage of the type
+     */
+    public Optional<String> get(String instanceId, String quotaType) {
+        String key = key(instanceId, quotaType);
+        Entry entry = InvalidationGenerations.get(this.cache, key, cached -> isStale(key, cached));
+        return Optional.ofNullable(entry.status);
+    }
+
+    /**
+     * Get the statuses of instances' usages of quota types, loading those not cached with
+     * one query
+     * @param keys  the instance identifiers and quota types
+     * @return statuses  the usage status of each key that has a usage, in the order given
+     */
+    public Map<UsageStatusKey, String> getAll(Collection<UsageStatusKey> keys) {
+        Map<String, UsageStatusKey> keysByCacheKey = new LinkedHashMap<String, UsageStatusKey>();
+        for (UsageStatusKey key : keys) {
+            keysByCacheKey.put(key(key.getInstanceId(), key.getQuotaType()), key);
+        }
+        Map<String, Entry> entries = this.cache.getAll(keysByCacheKey.keySet());
+
+        Map<UsageStatusKey, String> statuses = new LinkedHashMap<UsageStatusKey, String>();
+        for (Map.Entry<String, UsageStatusKey> key : keysByCacheKey.entrySet()) {
+            Entry entry = entries.get(key.getKey());
+            Optional<String> status = isStale(key.getKey(), entry) ?
+                get(key.getValue().getInstanceId(), key.getValue().getQuotaType()) :
+                Optional.ofNullable(entry.status);
+            if ( status.isPresent() ) {
+                statuses.put(key.getValue(), status.get());
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Discard the cached statuses of an instance, after one of its usages changes
+     * @param instanceId  the usage instance identifier
+     */
+    public void invalidate(String instanceId) {
+        if ( instanceId != null ) {
+            this.invalidations.invalidate(instanceId);
+        }
+    }
+
+    /**
+     * Get the number of instances with a retained invalidation
+     * @return size  the number of retained invalidations
+     */
+    int invalidationCount() {
+        return this.invalidations.size();
+    }
+
+    /**
+     * Load the statuses of the keys with one query, including the keys without a usage
+     * @param usageStore  the usage store used to load statuses
+     * @param keys  the cache keys
+     * @return entries  the entry of each key
+     */
+    private Map<String, Entry> loadStatuses(UsageStore usageStore, Iterable<? extends String> keys) {
+        long loadGeneration = this.invalidations.current();
+        Set<String> instanceIds = new LinkedHashSet<String>();
+        Set<String> quotaTypes = new LinkedHashSet<String>();
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        for (String key : keys) {
+            instanceIds.add(instanceId(key));
+            quotaTypes.add(quotaType(key));
+            entries.put(key, new Entry(null, loadGeneration));
+        }
+
+        // The query matches every instance in every quota type, so keep the requested pairs.
+        // As with single lookups, the first usage found for a pair is used
+        Set<String> found = new HashSet<String>();
+        for (Map<String, Object> row : usageStore.findUsageStatuses(instanceIds, quotaTypes)) {
+            String key = key((String) row.get("instanceid"), (String) row.get("quotatype"));
+            if ( entries.containsKey(key) && found.add(key) ) {
+                entries.put(key, new Entry((String) row.get("status"), loadGeneration));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Check if the entry was loaded before a later invalidation of its instance
+     * @param key  the cache key
+     * @param entry  the cached entry
+     * @return true if the entry is stale
+     */
+    private boolean isStale(String key, Entry entry) {
+        return this.invalidations.isStale(instanceId(key), entry.generation);
+    }
+
+    /**
+     * Build the cache key of an instance identifier and quota type
+     * @param instanceId  the usage instance identifier
+     * @param quotaType  the quota type
+     * @return key  the cache key
+     */
+    private static String key(String instanceId, String quotaType) {
+        return instanceId + '\n' + quotaType;
+    }
+
+    /**
+     * Get the quota type of a cache key
+     * @param key  the cache key
+     * @return quotaType  the quota type
+     */
+    private static String quotaType(String key) {
+        return key.substring(key.lastIndexOf('\n') + 1);
+    }
+
+    /**
+     * Get the instance identifier of a cache key
+     * @param key  the cache key
+     * @return instanceId  the usage instance identifier
+     */
+    private static String instanceId(String key) {
+        return key.substring(0, key.lastIndexOf('\n'));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.quotas;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * An instance identifier and quota type whose usage status is looked up
+ */
+public class UsageStatusKey {
+
+    /* The usage instance identifier */
+    private final String instanceId;
+
+    /* The quota type */
+    private final String quotaType;
+
+    /**
+     * Construct a usage status key
+     * @param instanceId  the usage instance identifier
+     * @param quotaType  the quota type
+     */
+    @JsonCreator
+    public UsageStatusKey(@JsonProperty("instanceId") String instanceId,
+                          @JsonProperty("quotaType") String quotaType) {
+        this.instanceId = instanceId;
+        this.quotaType = quotaType;
+    }
+
+    /**
+     * Get the usage instance identifier
+     * @return instanceId  the instance identifier
+     */
+    @JsonProperty
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Get the quota type
+     * @return quotaType  the quota type
+     */
+    @JsonProperty
+    public String getQuotaType() {
+        return quotaType;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if ( this == other ) {
+            return true;
+        }
+        if ( ! (other instanceof UsageStatusKey) ) {
+            return false;
+        }
+        UsageStatusKey key = (UsageStatusKey) other;
+        return Objects.equals(instanceId, key.instanceId) && Objects.equals(quotaType, key.quotaType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(instanceId, quotaType);
+    }
+}
@@ -21,8 +21,17 @@
 
 package org.dataone.bookkeeper.resources;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import javax.validation.Validation;
 import javax.validation.Validator;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 /**
  * A base resource class providing functionality across resource classes
@@ -31,8 +40,98 @@ class BaseResource {
     /* The product validator */
     static Validator validator;
 
+    /* The maximum number of items returned in one page of a list */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /* The response header carrying the total number of items across all pages */
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    /* The media type of newline-delimited JSON streams, one JSON object per line */
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /*
+     * The produced newline-delimited JSON type, with a lower quality than application/json
+     * so that requests accepting any type keep getting the paged JSON list
+     */
+    static final String APPLICATION_NDJSON_QS = APPLICATION_NDJSON + ";qs=0.5";
+
     /* Create a static validator for resources */
     static {
         validator = Validation.buildDefaultValidatorFactory().getValidator();
     }
+
+    /**
+     * Validate the requested paging parameters
+     * @param start  the number of items to skip
+     * @param count  the requested page size
+     * @param after  the keyset cursor
+     * @return pageSize  the page size, capped at MAX_PAGE_SIZE
+     * @throws WebApplicationException  if a paging parameter is negative or the count is zero
+     */
+    static int pageSize(Integer start, Integer count, Integer after) throws WebApplicationException {
+        if ( start < 0 || count < 1 || after < 0 ) {
+            throw new WebApplicationException("The 'start' and 'after' parameters must not be " +
+                "negative and 'count' must be positive.", Response.Status.BAD_REQUEST);
+        }
+        return Math.min(count, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Build a paged list response. The total number of items is returned in the X-Total-Count
+     * header and, when there are more items, a Link header with rel="next" points to the next
+     * page using the keyset cursor of the last item.
+     *
+     * @param entity  the list entity of the page
+     * @param total  the total number of items across all pages
+     * @param nextAfter  the keyset cursor of the next page, or null if this is the last page
+     * @param uriInfo  the request URI information
+     * @return response  the paged response
+     */
+    static Response pagedResponse(Object entity, int total, Integer nextAfter, UriInfo uriInfo) {
+        Response.ResponseBuilder builder = Response.ok(entity).header(TOTAL_COUNT_HEADER, total);
+        if ( nextAfter != null ) {
+            builder.link(uriInfo.getRequestUriBuilder()
+                .replaceQueryParam("after", nextAfter)
+                .replaceQueryParam("start", 0)
+                .build(), "next");
+        }
+        return builder.build();
+    }
+
+    /**
+     * Trim a page fetched with one extra row down to the page size
+     * @param page  the fetched rows, up to pageSize + 1
+     * @param pageSize  the page size
+     * @param <T>  the item type
+     * @return page  the rows of the page
+     */
+    static <T> List<T> trimPage(List<T> page, int pageSize) {
+        return page.size() > pageSize ? page.subList(0, pageSize) : page;
+    }
+
+    /**
+     * Create a JSON generator writing newline-delimited JSON to a response stream.
+     * The generator leaves the stream open for the container to close.
+     * @param mapper  the mapper used to serialize the values
+     * @param out  the response output stream
+     * @return generator  the JSON generator
+     * @throws IOException  if the generator can't be created
+     */
+    static JsonGenerator ndjsonGenerator(ObjectMapper mapper, OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    /**
+     * Write a value as one line of newline-delimited JSON
+     * @param generator  the JSON generator
+     * @param value  the value to write
+     * @throws IOException  if the value can't be written
+     */
+    static void writeNdjson(JsonGenerator generator, Object value) throws IOException {
+        generator.writeObject(value);
+        generator.writeRaw('\n');
+    }
 }
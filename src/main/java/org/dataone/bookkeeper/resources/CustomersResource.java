@@ -49,9 +49,14 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriInfo;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The entry point to the customers collection
@@ -80,22 +85,32 @@ public class CustomersResource extends BaseResource {
     }
 
     /**
-     * List customers, optionally by orderId or subject.
-     * Use start and count to get paginated results
+     * List customers, optionally by email or by one or more subjects.
+     * Use start and count, or the after cursor from the next Link header, to get paginated
+     * results. The total number of customers is returned in the X-Total-Count header.
+     * At most MAX_PAGE_SIZE (1000) customers are returned per page, also when no paging
+     * parameters are given; follow the next Link header for the rest. At most MAX_PAGE_SIZE
+     * subjects may be given.
+     * @param uriInfo  the request URI information
      * @param start  the paging start index
      * @param count  the paging size count
+     * @param after  the paging cursor, the identifier of the last customer of the previous page
+     * @param email  the email of the desired customer
+     * @param subjects  the subjects of the desired customers
      * @return customers  the customer list
      */
     @Timed
     @GET
     @PermitAll
     @Produces(MediaType.APPLICATION_JSON)
-    public CustomerList listCustomers(
+    public Response listCustomers(
         @Context SecurityContext context,
+        @Context UriInfo uriInfo,
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("count") @DefaultValue("1000") Integer count,
+        @QueryParam("after") @DefaultValue("0") Integer after,
         @QueryParam("email") @Email String email,
-        @QueryParam("subject") String subject)
+        @QueryParam("subject") List<String> subjects)
         throws WebApplicationException {
 
         Customer caller = (Customer) context.getUserPrincipal();
@@ -103,14 +118,37 @@ public class CustomersResource extends BaseResource {
 
         List<Customer> customers = new ArrayList<Customer>();
         Customer customer;
+        int pageSize = pageSize(start, count, after);
+        int total = 1;
+        Integer nextAfter = null;
         // List customers, checking privilege status before returning
-        if ( subject != null && ! subject.isEmpty() ) {
-            customer = customerStore.findCustomerBySubject(subject);
-            // Before returning, throw NotAuthorized if customer.subject != token.sub
-            if ((customer.getSubject().compareToIgnoreCase(caller.getSubject()) != 0) && ! isBkAdmin) {
-                throw new WebApplicationException("Bookkeeper admin privilege is required list a customer other than the requestor's, " + caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+        if ( subjects != null && ! subjects.isEmpty() ) {
+            if ( subjects.size() > MAX_PAGE_SIZE ) {
+                throw new WebApplicationException("At most " + MAX_PAGE_SIZE +
+                    " subjects may be given.", Response.Status.BAD_REQUEST);
             }
-            customers.add(customer);
+            // Find the customers of all the subjects in one round trip
+            Set<String> uniqueSubjects = new LinkedHashSet<String>(subjects);
+            Map<String, Customer> customersBySubject = new HashMap<String, Customer>();
+            for (Customer found : customerStore.findCustomersBySubjects(uniqueSubjects)) {
+                customersBySubject.put(found.getSubject(), found);
+            }
+            // Return the customers in the order the subjects were requested
+            for (String subject : uniqueSubjects) {
+                Customer found = customersBySubject.get(subject);
+                if ( found == null ) {
+                    continue;
+                }
+                // Before returning, throw NotAuthorized if customer.subject != token.sub
+                if ((found.getSubject().compareToIgnoreCase(caller.getSubject()) != 0) && ! isBkAdmin) {
+                    throw new WebApplicationException("Bookkeeper admin privilege is required list a customer other than the requestor's, " + caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+                }
+                customers.add(found);
+            }
+            if ( customers.isEmpty() ) {
+                throw new WebApplicationException("No customers were found.", Response.Status.NOT_FOUND);
+            }
+            total = customers.size();
         } else if ( email != null && ! email.isEmpty() ) {
             customer = customerStore.findCustomerByEmail(email);
             // Before returning, throw NotAuthorized if customer.subject != token.sub
@@ -123,11 +161,14 @@ public class CustomersResource extends BaseResource {
             if ( ! isBkAdmin ) {
                 throw new WebApplicationException("Bookkeeper admin privilege is required list all customers, " + caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
             }
-            customers = customerStore.listCustomers();
+            // Fetch one customer more than the page size to know if there is a next page
+            customers = customerStore.listCustomersPage(after, start, pageSize + 1);
+            total = customerStore.countCustomers();
+            nextAfter = customers.size() > pageSize ? customers.get(pageSize - 1).getId() : null;
+            customers = trimPage(customers, pageSize);
         }
 
-        // TODO: Incorporate paging params - new CustomerList(start, count, total, customers)
-        return new CustomerList(customers);
+        return pagedResponse(new CustomerList(customers), total, nextAfter, uriInfo);
     }
 
     /**
@@ -170,6 +211,8 @@ public class CustomersResource extends BaseResource {
             String message = "Couldn't insert the customer: " + e.getMessage();
             throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
         }
+        // The subject had no customer record until now
+        this.dataoneAuthHelper.invalidateCustomer(customer.getSubject());
         return customer;
     }
 
@@ -249,6 +292,7 @@ public class CustomersResource extends BaseResource {
             }
             // Then update the customer
             Integer id = customerStore.update(customer);
+            this.dataoneAuthHelper.invalidateCustomer(existing.getSubject());
         } catch (Exception e) {
             String message = "Couldn't update the customer: " + e.getMessage();
             throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
@@ -280,7 +324,11 @@ public class CustomersResource extends BaseResource {
             throw new WebApplicationException(message, Response.Status.BAD_REQUEST);
         }
         try {
+            Customer existing = customerStore.getCustomer(customerId);
             customerStore.delete(customerId);
+            if ( existing != null ) {
+                this.dataoneAuthHelper.invalidateCustomer(existing.getSubject());
+            }
         } catch (Exception e) {
             message = "Deleting the customer with id " + customerId + " failed: " + e.getMessage();
             log.error(message);
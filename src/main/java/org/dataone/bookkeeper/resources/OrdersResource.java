@@ -22,23 +22,25 @@
 package org.dataone.bookkeeper.resources;
 
 import com.codahale.metrics.annotation.Timed;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.dropwizard.jackson.Jackson;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dataone.bookkeeper.api.Customer;
-import org.dataone.bookkeeper.api.Feature;
 import org.dataone.bookkeeper.api.Order;
 import org.dataone.bookkeeper.api.OrderItem;
 import org.dataone.bookkeeper.api.OrderList;
 import org.dataone.bookkeeper.api.Product;
 import org.dataone.bookkeeper.api.Quota;
 import org.dataone.bookkeeper.jdbi.CustomerStore;
+import org.dataone.bookkeeper.jdbi.OrderQuotasIterator;
 import org.dataone.bookkeeper.jdbi.OrderStore;
-import org.dataone.bookkeeper.jdbi.ProductStore;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
 import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.dataone.bookkeeper.quotas.ProductQuotaTemplates;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
 import org.dataone.bookkeeper.security.DataONEAuthHelper;
 import org.jdbi.v3.core.Jdbi;
 
@@ -60,13 +62,12 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -81,14 +82,14 @@ public class OrdersResource extends BaseResource {
     /* The logging facility for this class */
     private final Log log = LogFactory.getLog(OrdersResource.class);
 
+    /* The jdbi database access reference, used to stream orders in a transaction */
+    private final Jdbi database;
+
     /* The order store for database calls */
     private final OrderStore orderStore;
 
-    /* The product store for database calls */
-    private final ProductStore productStore;
-
-    /* The quota store for database calls */
-    private final QuotaStore quotaStore;
+    /* The in-memory product catalog */
+    private final ProductCatalog productCatalog;
 
     /* The customer store for database calls */
     private final CustomerStore customerStore;
@@ -96,26 +97,45 @@ public class OrdersResource extends BaseResource {
     /* A Jackson mapper for marshaling types */
     private final ObjectMapper mapper = Jackson.newObjectMapper();
 
+    /* The cache of quota headroom, invalidated when quotas are added */
+    private final QuotaHeadroomCache quotaHeadroomCache;
+
+    /* The cache of the quotas granted by each product */
+    private final ProductQuotaTemplates productQuotaTemplates;
+
     /* An instance of the DataONE authn and authz delegate */
     private final DataONEAuthHelper dataoneAuthHelper;
 
     /**
      * Construct an order collection
      * @param database  the jdbi database access reference
+     * @param dataoneAuthHelper  the DataONE authn and authz delegate
+     * @param quotaHeadroomCache  the cache of quota headroom
+     * @param productCatalog  the in-memory product catalog
+     * @param productQuotaTemplates  the cache of the quotas granted by each product
      */
-    public OrdersResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper) {
+    public OrdersResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper,
+                          QuotaHeadroomCache quotaHeadroomCache, ProductCatalog productCatalog,
+                          ProductQuotaTemplates productQuotaTemplates) {
+        this.database = database;
         this.orderStore = database.onDemand(OrderStore.class);
-        this.productStore = database.onDemand(ProductStore.class);
-        this.quotaStore = database.onDemand(QuotaStore.class);
+        this.productCatalog = productCatalog;
         this.customerStore = database.onDemand(CustomerStore.class);
         this.dataoneAuthHelper = dataoneAuthHelper;
+        this.quotaHeadroomCache = quotaHeadroomCache;
+        this.productQuotaTemplates = productQuotaTemplates;
     }
 
     /**
      * List orders, optionally by orderId or subject.
-     * Use start and count to get paginated results
+     * Use start and count, or the after cursor from the next Link header, to get paginated
+     * results. The total number of orders is returned in the X-Total-Count header.
+     * At most MAX_PAGE_SIZE (1000) orders are returned per page, also when no paging
+     * parameters are given; follow the next Link header for the rest.
+     * @param uriInfo  the request URI information
      * @param start  the paging start index
      * @param count  the paging size count
+     * @param after  the paging cursor, the identifier of the last order of the previous page
      * @param customerId  the order customer identifier
      * @param subjects  the subjects associated with the desired orders
      * @return orders  the order list
@@ -124,10 +144,12 @@ public class OrdersResource extends BaseResource {
     @GET
     @PermitAll
     @Produces(MediaType.APPLICATION_JSON)
-    public OrderList listOrders(
+    public Response listOrders(
         @Context SecurityContext context,
+        @Context UriInfo uriInfo,
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("count") @DefaultValue("1000") Integer count,
+        @QueryParam("after") @DefaultValue("0") Integer after,
         @QueryParam("subject") Set<String> subjects,
         @QueryParam("customerId") Integer customerId)
         throws WebApplicationException {
@@ -139,16 +161,23 @@ public class OrdersResource extends BaseResource {
         Set<String> desiredSubjects;
         List<String> associatedSubjects = new ArrayList<>();
         Customer existing;
+        // Fetch one order more than the page size to know if there is a next page
+        int pageSize = pageSize(start, count, after);
+        int total = 0;
+        Integer nextAfter = null;
         try {
             if ( isAdmin ) {
                 // Admins have access to all orders by customerId or subjects or unfiltered
                 if ( customerId != null ) {
-                    orders = orderStore.findOrdersByCustomerId(customerId);
+                    orders = orderStore.findOrdersPageByCustomerId(customerId, after, start, pageSize + 1);
+                    total = orderStore.countOrdersByCustomerId(customerId);
                 } else if ( subjects != null && ! subjects.isEmpty() ) {
                     associatedSubjects.addAll(subjects);
-                    orders = orderStore.findOrdersBySubjects(associatedSubjects);
+                    orders = orderStore.findOrdersPageBySubjects(associatedSubjects, after, start, pageSize + 1);
+                    total = orderStore.countOrdersBySubjects(associatedSubjects);
                 } else {
-                    orders = orderStore.listOrders();
+                    orders = orderStore.listOrdersPage(after, start, pageSize + 1);
+                    total = orderStore.countOrders();
                 }
             } else {
                 // Handle non-admins
@@ -159,18 +188,22 @@ public class OrdersResource extends BaseResource {
                         throw new WebApplicationException(
                             "Caller doesn't have access to this record.", Response.Status.FORBIDDEN);
                     }
-                    orders = orderStore.findOrdersByCustomerId(customerId);
+                    orders = orderStore.findOrdersPageByCustomerId(customerId, after, start, pageSize + 1);
+                    total = orderStore.countOrdersByCustomerId(customerId);
                 } else if ( subjects != null && ! subjects.isEmpty() ) {
                     // Or return redacted orders the caller is associated with
                     desiredSubjects = dataoneAuthHelper.filterByAssociatedSubjects(caller, subjects);
                     associatedSubjects.addAll(desiredSubjects);
-                    List<Order> associatedOrders = orderStore.findOrdersBySubjects(associatedSubjects);
+                    List<Order> associatedOrders =
+                        orderStore.findOrdersPageBySubjects(associatedSubjects, after, start, pageSize + 1);
+                    total = orderStore.countOrdersBySubjects(associatedSubjects);
                     // Redact order information if the caller is not the customer subject
                     // TODO: If caller.subject is an owner of the order.subject group, don't redact,
                     //       but we don't easily have this information currently
+                    // Compare subjects directly rather than looking up the order's customer,
+                    // so redacting a page of orders doesn't cost a query per order
                     for (Order order : associatedOrders) {
-                        existing = customerStore.findCustomerBySubject(order.getSubject());
-                        if ( ! caller.getSubject().equals(existing.getSubject()) ) {
+                        if ( ! caller.getSubject().equals(order.getSubject()) ) {
                             Order redactedOrder = new Order();
                             redactedOrder.setId(order.getId());
                             redactedOrder.setSeriesId(order.getSeriesId());
@@ -190,6 +223,10 @@ public class OrdersResource extends BaseResource {
                 }
             }
 
+            // Trim the extra order, keeping the last order of the page as the next cursor
+            nextAfter = orders.size() > pageSize ? orders.get(pageSize - 1).getId() : null;
+            orders = trimPage(orders, pageSize);
+
         } catch (Exception e) {
             e.printStackTrace();
             String message = "Couldn't list the orders due to an internal error.";
@@ -198,12 +235,44 @@ public class OrdersResource extends BaseResource {
         }
 
         // Handle empty orders
-        if (orders.isEmpty()) {
+        if (total == 0) {
             throw new WebApplicationException(
                 "No orders were found.", Response.Status.NOT_FOUND);
         }
-        // TODO: Incorporate paging params - new OrderList(start, count, total, orders)
-        return new OrderList(orders);
+        return pagedResponse(new OrderList(orders), total, nextAfter, uriInfo);
+    }
+
+    /**
+     * Stream all orders with their quotas as newline-delimited JSON, one order per line,
+     * ordered by identifier. Orders are fetched from the database in batches and written
+     * as they are mapped, so memory use doesn't grow with the number of orders.
+     * Only admins may stream orders, and the stream isn't filtered; use the paged JSON
+     * list to filter orders.
+     * @param context  the security context of the authenticated user
+     * @return response  the streamed orders
+     */
+    @Timed
+    @GET
+    @PermitAll
+    @Produces(APPLICATION_NDJSON_QS)
+    public Response streamOrders(@Context SecurityContext context) {
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException(caller.getSubject() +
+                " does not have admin privilege needed to stream all orders.",
+                Response.Status.FORBIDDEN);
+        }
+
+        StreamingOutput output = out -> this.database.useTransaction(handle -> {
+            JsonGenerator generator = ndjsonGenerator(this.mapper, out);
+            try ( OrderQuotasIterator orders = OrderQuotasIterator.streamOrders(handle) ) {
+                while ( orders.hasNext() ) {
+                    writeNdjson(generator, orders.next());
+                }
+            }
+            generator.flush();
+        });
+        return Response.ok(output, APPLICATION_NDJSON).build();
     }
 
     /**
@@ -237,7 +306,7 @@ public class OrdersResource extends BaseResource {
             // Update order item details from the listed product
             Product product = null;
             for (OrderItem item : order.getItems() ) {
-                product = productStore.getProduct(item.getParent());
+                product = productCatalog.getProduct(item.getParent());
                 if ( product == null ) {
                     String message = "Couldn't find parent product for order item.";
                     throw new WebApplicationException(message, Response.Status.NOT_FOUND);
@@ -356,7 +425,7 @@ public class OrdersResource extends BaseResource {
             // Update order item details from the listed product
             Product product = null;
             for (OrderItem item : order.getItems() ) {
-                product = productStore.getProduct(item.getParent());
+                product = productCatalog.getProduct(item.getParent());
                 if ( product == null ) {
                     String message = "Couldn't find parent product for order item.";
                     throw new WebApplicationException(message, Response.Status.NOT_FOUND);
@@ -379,7 +448,8 @@ public class OrdersResource extends BaseResource {
     }
 
     /**
-     * Pay for the order (currently just confirms a trial state)
+     * Pay for the order (currently just confirms a trial state). The quotas of the order's
+     * products are inserted in one batch, in the same transaction as the order update.
      * @param context the security context for the caller
      * @param orderId the order identifier
      * @return order the paid order
@@ -424,6 +494,7 @@ public class OrdersResource extends BaseResource {
                 List<OrderItem> orderItems = order.getItems();
                 Customer customer = customerStore.getCustomer(order.getCustomer());
                 Integer productId = null;
+                List<Quota> newQuotas = new ArrayList<Quota>();
 
                 // Set the order status and transitions object
                 order.setStatus("trialing");
@@ -436,51 +507,31 @@ public class OrdersResource extends BaseResource {
                     // For SKUs, add customer to the service and set quotas
                     if ( item.getType().equals("sku") ) {
                         productId = item.getParent();
-                        Product product = productStore.getProduct(productId);
-
-                        // Translate the product's feature quota into a customer/subject quota
-                        Map<String, Quota> quotas = new LinkedHashMap<String, Quota>();
-                        Iterator<JsonNode> featuresIterator =
-                            (product.getMetadata().get("features")).elements();
-                        Quota quota = null;
-                        Quota existingQuota = null;
-                        Double newSoftLimit;
-                        Double newHardLimit;
-                        while ( featuresIterator.hasNext() ) {
-                            // Find quotas in each feature, combining equivalent quotas
-                            ObjectNode featureNode = (ObjectNode) featuresIterator.next();
-                            Feature feature = mapper.readValue(featureNode.toString(), Feature.class);
-                            quota = feature.getQuota();
-                            if ( quota != null ) {
-                                quota.setTotalUsage(0.0);
-                                quota.setSubject(order.getSubject());
-                                quota.setOrderId(order.getId());
-                                quota.setName(order.getName());
-                                if ( ! quotas.containsKey(quota.getQuotaType()) ) {
-                                    // Add new quotas
-                                    quotas.put(quota.getQuotaType(), quota);
-                                } else {
-                                    // Combine quotas of the same name
-                                    existingQuota = quotas.get(quota.getQuotaType());
-                                    newSoftLimit = existingQuota.getSoftLimit() + quota.getSoftLimit();
-                                    quota.setSoftLimit(newSoftLimit);
-                                    newHardLimit = existingQuota.getHardLimit() + quota.getHardLimit();
-                                    quota.setHardLimit(newHardLimit);
-                                    quotas.put(quota.getQuotaType(), quota);
-                                }
-                            }
-                        }
 
-                        // Insert the quotas associated with the order
-                        for ( Quota newQuota : quotas.values()) {
-                            quotaStore.insert(newQuota);
+                        // Copy the product's feature quotas into customer/subject quotas
+                        List<Quota> quotas = productQuotaTemplates.createQuotas(productId, order);
+                        if ( quotas == null ) {
+                            String message = "Couldn't find the product for product id " + productId;
+                            throw new WebApplicationException(message, Response.Status.NOT_FOUND);
                         }
+                        newQuotas.addAll(quotas);
                     }
 
                 }
                 order.setUpdated(new Integer((int) Instant.now().getEpochSecond()));
-                // TODO: Decide if this call should be a transaction with the quota
-                orderStore.update(order);
+
+                // Insert the order's quotas and update the order in one transaction,
+                // so a failed payment doesn't leave quotas for an unpaid order
+                Order paidOrder = order;
+                this.database.useTransaction(handle -> {
+                    if ( ! newQuotas.isEmpty() ) {
+                        handle.attach(QuotaStore.class).insertBatch(newQuotas);
+                    }
+                    handle.attach(OrderStore.class).update(paidOrder);
+                });
+                for ( Quota newQuota : newQuotas ) {
+                    quotaHeadroomCache.invalidate(newQuota.getSubject(), newQuota.getQuotaType());
+                }
             } else {
                 String message = "Couldn't find the order for order id " + orderId;
                 throw new WebApplicationException(message, Response.Status.NOT_FOUND);
@@ -27,6 +27,7 @@ import org.apache.commons.logging.LogFactory;
 import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.api.Product;
 import org.dataone.bookkeeper.api.ProductList;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
 import org.dataone.bookkeeper.jdbi.ProductStore;
 import org.dataone.bookkeeper.security.DataONEAuthHelper;
 import org.jdbi.v3.core.Jdbi;
@@ -46,8 +47,11 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 import java.time.Instant;
@@ -64,54 +68,78 @@ public class ProductsResource extends BaseResource {
     /* The logging facility for this class */
     private Log log = LogFactory.getLog(ProductsResource.class);
 
+    /* The number of seconds clients may reuse a product listing without revalidating it */
+    private static final int LIST_MAX_AGE_SECONDS = 60;
+
     /* The product store for database calls */
     private final ProductStore productStore;
 
+    /* The in-memory catalog serving product reads, reloaded when products change */
+    private final ProductCatalog productCatalog;
+
     /* An instance of the DataONE authn and authz delegate */
     private final DataONEAuthHelper dataoneAuthHelper;
 
     /**
      * Construct a product collection
      * @param database  the jdbi database access reference
+     * @param dataoneAuthHelper  the DataONE authn and authz delegate
+     * @param productCatalog  the in-memory product catalog
      */
-    public ProductsResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper) {
+    public ProductsResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper,
+                            ProductCatalog productCatalog) {
         this.productStore = database.onDemand(ProductStore.class);
+        this.productCatalog = productCatalog;
         this.dataoneAuthHelper = dataoneAuthHelper;
     }
 
     /**
      * List products, optionally by name, description, or active status.
-     * Use start and count to get paginated results
+     * Use start and count to get paginated results. Products are served from the in-memory
+     * catalog, with an ETag that changes when any product changes, so clients can revalidate
+     * a listing with If-None-Match and get a 304 when the products are unchanged.
+     * @param request  the request, for evaluating If-None-Match
      * @param start  the paging start index
      * @param count  the paging size count
      * @param name  the product name
      * @param description  the product description
      * @param status  the product active status
-     * @return products  the product list
+     * @return response  the product list, or 304 if the client's copy is current
      */
     @Timed
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public ProductList listProducts(
+    public Response listProducts(
+        @Context Request request,
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("count") @DefaultValue("1000") Integer count,
         @QueryParam("name") String name,
         @QueryParam("description") String description,
         @QueryParam("status") Boolean status) throws WebApplicationException {
 
+        // Read the list and its tag from the same snapshot
+        ProductCatalog.Snapshot catalog = productCatalog.snapshot();
+        EntityTag tag = new EntityTag(catalog.getTag());
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(LIST_MAX_AGE_SECONDS);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if ( notModified != null ) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+
         List<Product> products;
         if (name != null) {
-            products = productStore.findProductsByName(name);
+            products = catalog.findProductsByName(name);
         } else if (description != null) {
-            products = productStore.findProductsByDescription(description);
+            products = catalog.findProductsByDescription(description);
         } else if (status != null) {
-            products = productStore.findProductsByActiveStatus(status);
+            products = catalog.findProductsByActiveStatus(status);
         } else {
-            products = productStore.listProducts();
+            products = catalog.listProducts();
         }
 
         // TODO: Incorporate paging params - new ProductList(start, count, total, products)
-        return new ProductList(products);
+        return Response.ok(new ProductList(products)).tag(tag).cacheControl(cacheControl).build();
     }
 
     /**
@@ -138,6 +166,7 @@ public class ProductsResource extends BaseResource {
             product.setCreated(new Integer((int) Instant.now().getEpochSecond()));
             Integer id = productStore.insert(product);
             product = productStore.getProduct(id);
+            productCatalog.refresh();
         } catch (Exception e) {
             String message = "Couldn't insert the product: " + e.getMessage();
             throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
@@ -158,9 +187,9 @@ public class ProductsResource extends BaseResource {
         throws WebApplicationException {
 
         Product product = null;
-        // Get the product from the store
+        // Get the product from the catalog
         try {
-            product = productStore.getProduct(productId);
+            product = productCatalog.getProduct(productId);
         } catch (Exception e) {
             String message = "Couldn't get the product: " + e.getMessage();
             throw new WebApplicationException(message, Response.Status.NOT_FOUND);
@@ -195,6 +224,7 @@ public class ProductsResource extends BaseResource {
 
             product.setCreated(existing.getCreated());
             productStore.update(product);
+            productCatalog.refresh();
         } catch (Exception e) {
             String message = "Couldn't update the product: " + e.getMessage();
             throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
@@ -227,6 +257,7 @@ public class ProductsResource extends BaseResource {
         }
         try {
             productStore.delete(productId);
+            productCatalog.refresh();
         } catch (Exception e) {
             message = "Deleting the product with id " + productId + " failed: " + e.getMessage();
             log.error(message);
@@ -28,6 +28,9 @@ import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.api.Quota;
 import org.dataone.bookkeeper.api.QuotaList;
 import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.dataone.bookkeeper.quotas.QuotaCheck;
+import org.dataone.bookkeeper.quotas.QuotaHeadroom;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
 import org.dataone.bookkeeper.security.DataONEAuthHelper;
 import org.jdbi.v3.core.Jdbi;
 
@@ -49,9 +52,11 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriInfo;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -68,24 +73,36 @@ public class QuotasResource extends BaseResource {
     /* The quota store for database calls */
     private final QuotaStore quotaStore;
 
+    /* The cache of quota headroom, invalidated when quotas change */
+    private final QuotaHeadroomCache quotaHeadroomCache;
+
     /* An instance of the DataONE authn and authz delegate */
     private final DataONEAuthHelper dataoneAuthHelper;
 
     /**
      * Construct a quota collection
      * @param database  the jdbi database access reference
+     * @param dataoneAuthHelper  the DataONE authn and authz delegate
+     * @param quotaHeadroomCache  the cache of quota headroom
      */
-    public QuotasResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper) {
+    public QuotasResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper,
+                          QuotaHeadroomCache quotaHeadroomCache) {
         this.quotaStore = database.onDemand(QuotaStore.class);
         this.dataoneAuthHelper = dataoneAuthHelper;
+        this.quotaHeadroomCache = quotaHeadroomCache;
 
     }
 
     /**
      * List quotas, optionally by subject or by proxy requestor.
-     * Use start and count to get paginated results
+     * Use start and count, or the after cursor from the next Link header, to get paginated
+     * results. The total number of quotas is returned in the X-Total-Count header.
+     * At most MAX_PAGE_SIZE (1000) quotas are returned per page, also when no paging
+     * parameters are given; follow the next Link header for the rest.
+     * @param uriInfo  the request URI information
      * @param start  the paging start index
      * @param count  the paging size count
+     * @param after  the paging cursor, the identifier of the last quota of the previous page
      * @param subjects the quota subjects (repeatable and treated as a list)
      * @param quotaType the quota type (e.g. "portal", "storage", ...)
      * @param requestor the DataONE subject to make the request as
@@ -95,10 +112,12 @@ public class QuotasResource extends BaseResource {
     @GET
     @PermitAll
     @Produces(MediaType.APPLICATION_JSON)
-    public QuotaList listQuotas(
+    public Response listQuotas(
         @Context SecurityContext context,
+        @Context UriInfo uriInfo,
         @QueryParam("start") @DefaultValue("0") Integer start,
         @QueryParam("count") @DefaultValue("1000") Integer count,
+        @QueryParam("after") @DefaultValue("0") Integer after,
         @QueryParam("quotaType") String quotaType,
         @QueryParam("subject") Set<String> subjects,
         @QueryParam("requestor") String requestor) throws WebApplicationException {
@@ -160,22 +179,30 @@ public class QuotasResource extends BaseResource {
             }
         }
 
+        // Fetch one quota more than the page size to know if there is a next page
+        int pageSize = pageSize(start, count, after);
+        int total;
         if (quotaType != null) {
             if (approvedSubjects.size() > 0) {
-                quotas = quotaStore.findQuotasByNameAndSubjects(quotaType, approvedSubjects);
+                quotas = quotaStore.findQuotasPageByNameAndSubjects(
+                    quotaType, approvedSubjects, after, start, pageSize + 1);
+                total = quotaStore.countQuotasByNameAndSubjects(quotaType, approvedSubjects);
             } else {
                 /* Not sure if this is useful or practical, i.e. admin user can view all quotas for a quota type. */
-                quotas = quotaStore.findQuotasByType(quotaType);
+                quotas = quotaStore.findQuotasPageByType(quotaType, after, start, pageSize + 1);
+                total = quotaStore.countQuotasByType(quotaType);
             }
         } else {
             if (approvedSubjects.size() > 0) {
-                quotas = quotaStore.findQuotasBySubjects(approvedSubjects);
+                quotas = quotaStore.findQuotasPageBySubjects(approvedSubjects, after, start, pageSize + 1);
+                total = quotaStore.countQuotasBySubjects(approvedSubjects);
             } else {
-                quotas = quotaStore.listQuotas();
+                quotas = quotaStore.listQuotasPage(after, start, pageSize + 1);
+                total = quotaStore.countQuotas();
             }
         }
 
-        if (quotas == null || quotas.size() == 0) {
+        if (total == 0) {
             if (! isAdmin || isProxy) {
                 // If not an admin user or is a proxy user, we have no way to determine if they didn't have enough
                 // privilege or if the quotas don't exist.
@@ -186,8 +213,54 @@ public class QuotasResource extends BaseResource {
             }
         }
 
-        // TODO: Incorporate paging params - new QuotaList(start, count, total, quotas)
-        return new QuotaList(quotas);
+        List<Quota> page = trimPage(quotas, pageSize);
+        Integer nextAfter = quotas.size() > pageSize ? page.get(pageSize - 1).getId() : null;
+        return pagedResponse(new QuotaList(page), total, nextAfter, uriInfo);
+    }
+
+    /**
+     * Check whether a subject has room for a quantity of a quota type, for member nodes
+     * deciding whether to accept an upload. The decision is "allow" when the total usage
+     * plus the quantity fits within the soft limit, "soft-exceeded" when it only fits within
+     * the hard limit, and "hard-denied" otherwise. When the subject has several quotas of the
+     * type, their limits and usages are added together. Answers come from an in-memory cache
+     * of quota headroom, loaded with one indexed query and invalidated when usages change.
+     * @param context  the security context of the authenticated user
+     * @param subject  the quota subject
+     * @param quotaType  the quota type (e.g. "portal", "storage", ...)
+     * @param quantity  the quantity to admit
+     * @return check  the admission decision
+     * @throws WebApplicationException  if the caller can't check the subject, or it has no quota
+     */
+    @Timed
+    @GET
+    @PermitAll
+    @Path("check")
+    public QuotaCheck check(
+        @Context SecurityContext context,
+        @QueryParam("subject") @NotNull String subject,
+        @QueryParam("quotaType") @NotNull String quotaType,
+        @QueryParam("quantity") @DefaultValue("0") Double quantity) throws WebApplicationException {
+
+        if ( quantity < 0 ) {
+            throw new WebApplicationException("The quantity must not be negative.",
+                Response.Status.BAD_REQUEST);
+        }
+
+        // Non-admins may only check the subjects they are associated with
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) &&
+            ! this.dataoneAuthHelper.getAssociatedSubjects(caller).contains(subject) ) {
+            throw new WebApplicationException(caller.getSubject() +
+                " is not associated with the subject " + subject + ".", Response.Status.FORBIDDEN);
+        }
+
+        Optional<QuotaHeadroom> headroom = quotaHeadroomCache.get(subject, quotaType);
+        if ( ! headroom.isPresent() ) {
+            throw new WebApplicationException("No " + quotaType + " quota was found for " +
+                subject + ".", Response.Status.NOT_FOUND);
+        }
+        return headroom.get().check(subject, quotaType, quantity);
     }
 
     /**
@@ -211,6 +284,7 @@ public class QuotasResource extends BaseResource {
         // Insert the quota after it is validated
         try {
             Integer id = quotaStore.insert(quota);
+            quotaHeadroomCache.invalidate(quota.getSubject(), quota.getQuotaType());
             quota = quotaStore.getQuota(id);
         } catch (Exception e) {
             String message = "Couldn't insert the quota: " + e.getMessage();
@@ -291,6 +365,8 @@ public class QuotasResource extends BaseResource {
         // Update the quota after validation
         try {
             updatedQuota = quotaStore.update(quota);
+            quotaHeadroomCache.invalidateQuota(quota.getId());
+            quotaHeadroomCache.invalidate(quota.getSubject(), quota.getQuotaType());
         } catch (Exception e) {
             String message = "Couldn't update the quota: " + e.getMessage();
             throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
@@ -323,6 +399,7 @@ public class QuotasResource extends BaseResource {
         }
         try {
             quotaStore.delete(quotaId);
+            quotaHeadroomCache.invalidateQuota(quotaId);
         } catch (Exception e) {
             message = "Deleting the quota with id " + quotaId + " failed: " + e.getMessage();
             log.error(message);
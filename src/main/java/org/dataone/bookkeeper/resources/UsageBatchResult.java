@@ -0,0 +1,95 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.resources;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.dataone.bookkeeper.api.Usage;
+
+/**
+ * The result of creating one usage of a usage batch
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UsageBatchResult {
+
+    /* The index of the usage in the submitted batch */
+    private final int index;
+
+    /* The HTTP status code of the item, 201 when the usage was created */
+    private final int status;
+
+    /* The created usage, when successful */
+    private final Usage usage;
+
+    /* The reason the usage wasn't created, when unsuccessful */
+    private final String message;
+
+    /**
+     * Construct a usage batch result
+     * @param index  the index of the usage in the batch
+     * @param status  the HTTP status code of the item
+     * @param usage  the created usage, or null
+     * @param message  the reason the usage wasn't created, or null
+     */
+    UsageBatchResult(int index, int status, Usage usage, String message) {
+        this.index = index;
+        this.status = status;
+        this.usage = usage;
+        this.message = message;
+    }
+
+    /**
+     * Get the index of the usage in the submitted batch
+     * @return index  the index
+     */
+    @JsonProperty
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the HTTP status code of the item
+     * @return status  the status code
+     */
+    @JsonProperty
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the created usage
+     * @return usage  the usage, or null if it wasn't created
+     */
+    @JsonProperty
+    public Usage getUsage() {
+        return usage;
+    }
+
+    /**
+     * Get the reason the usage wasn't created
+     * @return message  the message, or null if the usage was created
+     */
+    @JsonProperty
+    public String getMessage() {
+        return message;
+    }
+}
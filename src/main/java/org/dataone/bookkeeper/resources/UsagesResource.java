@@ -22,6 +22,9 @@
 package org.dataone.bookkeeper.resources;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dataone.bookkeeper.api.Customer;
@@ -31,20 +34,29 @@ import org.dataone.bookkeeper.api.UsageList;
 import org.dataone.bookkeeper.api.UsageStatus;
 import org.dataone.bookkeeper.jdbi.QuotaStore;
 import org.dataone.bookkeeper.jdbi.UsageStore;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
+import org.dataone.bookkeeper.quotas.UsageStatusCache;
+import org.dataone.bookkeeper.quotas.UsageStatusKey;
 import org.dataone.bookkeeper.security.DataONEAuthHelper;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.result.ResultIterator;
 
 import javax.annotation.security.PermitAll;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 import java.util.*;
-import java.util.stream.Collectors;
 
 
 /**
@@ -53,33 +65,74 @@ import java.util.stream.Collectors;
 @Timed
 @Path("/usages")
 @Produces(MediaType.APPLICATION_JSON)
-public class UsagesResource {
+public class UsagesResource extends BaseResource {
 
     /* The logging facility for this class */
     private Log log = LogFactory.getLog(UsagesResource.class);
 
+    /* The jdbi database access reference, used to stream usages in a transaction */
+    private final Jdbi database;
+
+    /* The maximum number of usages created in one batch */
+    static final int MAX_BATCH_SIZE = 1000;
+
     /* The quotas store for database calls */
     private final QuotaStore quotaStore;
 
     /* The usages store for database calls */
     private final UsageStore usageStore;
 
+    /* A Jackson mapper for marshaling types */
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    /* The cache of quota headroom, invalidated when usages change */
+    private final QuotaHeadroomCache quotaHeadroomCache;
+
+    /* The cache of usage statuses, invalidated when usages change */
+    private final UsageStatusCache usageStatusCache;
+
     /* An instance of the DataONE authn and authz delegate */
     private final DataONEAuthHelper dataoneAuthHelper;
 
+    /* The default number of seconds until a usage reservation expires */
+    private final int reservationTtlSeconds;
+
+    /* The number of seconds clients and proxies may reuse a usage status */
+    private final int statusMaxAgeSeconds;
+
     /**
-     * Construct a quota collection
+     * Construct a usage collection
      * @param database  the jdbi database access reference
+     * @param dataoneAuthHelper  the DataONE authn and authz delegate
+     * @param quotaHeadroomCache  the cache of quota headroom
+     * @param reservationTtlSeconds  the default number of seconds until a reservation expires
+     * @param usageStatusCache  the cache of usage statuses
+     * @param statusMaxAgeSeconds  the number of seconds clients and proxies may reuse a status
      */
-    public UsagesResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper) {
+    public UsagesResource(Jdbi database, DataONEAuthHelper dataoneAuthHelper,
+                          QuotaHeadroomCache quotaHeadroomCache, int reservationTtlSeconds,
+                          UsageStatusCache usageStatusCache, int statusMaxAgeSeconds) {
+        this.database = database;
         this.quotaStore = database.onDemand(QuotaStore.class);
         this.usageStore = database.onDemand(UsageStore.class);
         this.dataoneAuthHelper = dataoneAuthHelper;
+        this.quotaHeadroomCache = quotaHeadroomCache;
+        this.reservationTtlSeconds = reservationTtlSeconds;
+        this.usageStatusCache = usageStatusCache;
+        this.statusMaxAgeSeconds = statusMaxAgeSeconds;
     }
 
     /**
      * Get the usage for a given instance identifier and quota type
+     * Use start and count, or the after cursor from the next Link header, to get paginated
+     * results. The total number of usages is returned in the X-Total-Count header.
+     * At most MAX_PAGE_SIZE (1000) usages are returned per page, also when no paging
+     * parameters are given; follow the next Link header for the rest.
      * @param context  the security context of the authenticated user
+     * @param uriInfo  the request URI information
+     * @param start  the paging start index
+     * @param count  the paging size count
+     * @param after  the paging cursor, the identifier of the last usage of the previous page
      * @param instanceId the instance identifier of the usage
      * @param quotaType name of the quota being used
      * @param subjects the quota subject
@@ -89,9 +142,11 @@ public class UsagesResource {
     @Timed
     @GET
     @PermitAll
-    public UsageList listUsages(@Context SecurityContext context,
+    public Response listUsages(@Context SecurityContext context,
+                                @Context UriInfo uriInfo,
                                 @QueryParam("start") @DefaultValue("0") Integer start,
                                 @QueryParam("count") @DefaultValue("1000") Integer count,
+                                @QueryParam("after") @DefaultValue("0") Integer after,
                                 @QueryParam("quotaId") Integer quotaId,
                                 @QueryParam("quotaType") String quotaType,
                                 @QueryParam("instanceId") String instanceId,
@@ -167,6 +222,9 @@ public class UsagesResource {
             At this point, the subject list for non-admin users is vetted.
          */
         /* The "instanceid + quotaId" combination is unique among all usages, so only one usage should be returned. */
+        // Otherwise fetch one usage more than the page size to know if there is a next page
+        int pageSize = pageSize(start, count, after);
+        int total;
         if (instanceId != null && quotaId != null) {
             if (approvedSubjects.size() == 0) {
                 usage = usageStore.findUsageByInstanceIdAndQuotaId(instanceId, quotaId);
@@ -180,52 +238,57 @@ public class UsagesResource {
                  */
                 usage = usageStore.findUsageByInstanceIdQuotaIdAndSubjects(instanceId, quotaId, approvedSubjects);
             }
-            if (usage == null) {
-                usages = null;
-            } else {
-                usages = new ArrayList<>();
-                usages.add(usage);
-            }
+            usages = singleUsagePage(usage, status, after, start);
+            total = usage == null || ! hasStatus(usage, status) ? 0 : 1;
         } else if (instanceId != null && quotaType != null) {
             usage = usageStore.findUsageByInstanceIdAndQuotaType(instanceId, quotaType);
-            if (usage == null) {
-                usages = null;
-            } else {
-                usages = new ArrayList<>();
-                usages.add(usage);
-            }
+            usages = singleUsagePage(usage, status, after, start);
+            total = usage == null || ! hasStatus(usage, status) ? 0 : 1;
         } else if (instanceId != null) {
             if(approvedSubjects.size() == 0) {
-                usages = usageStore.findUsagesByInstanceId(instanceId);
+                usages = usageStore.findUsagesPageByInstanceId(instanceId, status, after, start, pageSize + 1);
+                total = usageStore.countUsagesByInstanceId(instanceId, status);
             } else {
-                usages = usageStore.findUsagesByInstanceIdAndSubjects(instanceId, approvedSubjects);
+                usages = usageStore.findUsagesPageByInstanceIdAndSubjects(
+                    instanceId, approvedSubjects, status, after, start, pageSize + 1);
+                total = usageStore.countUsagesByInstanceIdAndSubjects(instanceId, approvedSubjects, status);
             }
         } else if (quotaId != null) {
             if(approvedSubjects.size() == 0) {
-                usages = usageStore.findUsagesByQuotaId(quotaId);
+                usages = usageStore.findUsagesPageByQuotaId(quotaId, status, after, start, pageSize + 1);
+                total = usageStore.countUsagesByQuotaId(quotaId, status);
             } else {
                 /* Non-admin users can only retrieve instanceIds for an subject that they are associated with,
                  * so constrain results by subjects, i.e. if the instanceId they are trying to access must
                   * belong to an subject they can access. */
-                usages = usageStore.findUsagesByQuotaIdAndSubjects(quotaId, approvedSubjects);
+                usages = usageStore.findUsagesPageByQuotaIdAndSubjects(
+                    quotaId, approvedSubjects, status, after, start, pageSize + 1);
+                total = usageStore.countUsagesByQuotaIdAndSubjects(quotaId, approvedSubjects, status);
             }
         } else if (quotaType != null) {
             if(approvedSubjects.size() == 0) {
                 /* subject is null, quotaType is not */
-                usages = usageStore.findUsagesByQuotaType(quotaType);
+                usages = usageStore.findUsagesPageByQuotaType(quotaType, status, after, start, pageSize + 1);
+                total = usageStore.countUsagesByQuotaType(quotaType, status);
             } else {
-                usages = usageStore.findUsagesByQuotaTypeAndSubjects(quotaType, approvedSubjects);
+                usages = usageStore.findUsagesPageByQuotaTypeAndSubjects(
+                    quotaType, approvedSubjects, status, after, start, pageSize + 1);
+                total = usageStore.countUsagesByQuotaTypeAndSubjects(quotaType, approvedSubjects, status);
             }
         } else if (approvedSubjects.size() > 0) {
             // quotaId, quotaType, instanceId not set
-            usages = usageStore.findUsagesByQuotaSubjects(approvedSubjects);
+            usages = usageStore.findUsagesPageByQuotaSubjects(approvedSubjects, status, after, start, pageSize + 1);
+            total = usageStore.countUsagesByQuotaSubjects(approvedSubjects, status);
         } else {
             /* Must be admin user, so list all usages */
-            usages = usageStore.listUsages();
+            usages = usageStore.findUsagesPage(status, after, start, pageSize + 1);
+            total = usageStore.countUsages(status);
         }
 
-        if (usages == null || usages.size() == 0) {
-            if (! isAdmin || isProxy) {
+        if (total == 0) {
+            if (status != null) {
+                throw new WebApplicationException("No requested usages found with status = " + status, Response.Status.NOT_FOUND);
+            } else if (! isAdmin || isProxy) {
                 // If not an admin user or is a proxy user, we have no way to determine if they didn't have enough
                 // privilege or if the usage doesn't exist.
                 throw new WebApplicationException("The requested usages were not found or requestor does not have privilege to view them.", Response.Status.NOT_FOUND);
@@ -233,21 +296,69 @@ public class UsagesResource {
                 // Admin user can see any existing usage, so can't be a priv issue.
                 throw new WebApplicationException("The requested usage was not found.", Response.Status.NOT_FOUND);
             }
-        } else {
-            // Filter by status, if requested.
-            if (status != null) {
-                List<Usage> filteredUsages = usages
-                    .stream()
-                    .filter(u -> u.getStatus().compareToIgnoreCase(status) == 0)
-                    .collect(Collectors.toList());
-                if (filteredUsages.size() > 0) {
-                    usages = filteredUsages;
-                } else {
-                    throw new WebApplicationException("No requested usages found with status = " + status, Response.Status.NOT_FOUND);
+        }
+        List<Usage> page = trimPage(usages, pageSize);
+        Integer nextAfter = usages.size() > pageSize ? page.get(pageSize - 1).getId() : null;
+        return pagedResponse(new UsageList(page), total, nextAfter, uriInfo);
+    }
+
+    /**
+     * Stream all usages as newline-delimited JSON, one usage per line, ordered by identifier.
+     * Usages are fetched from the database in batches and written as they are mapped,
+     * so memory use doesn't grow with the number of usages. Only admins may stream usages,
+     * and the stream isn't filtered; use the paged JSON list to filter usages.
+     * @param context  the security context of the authenticated user
+     * @return response  the streamed usages
+     */
+    @Timed
+    @GET
+    @PermitAll
+    @Produces(APPLICATION_NDJSON_QS)
+    public Response streamUsages(@Context SecurityContext context) {
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException(caller.getSubject() +
+                " does not have admin privilege needed to stream all usages.",
+                Response.Status.FORBIDDEN);
+        }
+
+        StreamingOutput output = out -> this.database.useTransaction(handle -> {
+            JsonGenerator generator = ndjsonGenerator(this.mapper, out);
+            try ( ResultIterator<Usage> usages = handle.attach(UsageStore.class).streamUsages().iterator() ) {
+                while ( usages.hasNext() ) {
+                    writeNdjson(generator, usages.next());
                 }
             }
+            generator.flush();
+        });
+        return Response.ok(output, APPLICATION_NDJSON).build();
+    }
+
+    /**
+     * Check if a usage has the requested status
+     * @param usage  the usage to check
+     * @param status  the requested status, or null for any status
+     * @return true if the status matches, ignoring case
+     */
+    private boolean hasStatus(Usage usage, String status) {
+        return status == null ||
+            (usage.getStatus() != null && usage.getStatus().compareToIgnoreCase(status) == 0);
+    }
+
+    /**
+     * Build the page of a lookup that matches at most one usage
+     * @param usage  the matching usage, or null
+     * @param status  the requested status, or null for any status
+     * @param after  the paging cursor
+     * @param start  the paging start index
+     * @return usages  the page holding the usage, or an empty page
+     */
+    private List<Usage> singleUsagePage(Usage usage, String status, Integer after, Integer start) {
+        List<Usage> usages = new ArrayList<>();
+        if ( usage != null && hasStatus(usage, status) && usage.getId() > after && start == 0 ) {
+            usages.add(usage);
         }
-        return new UsageList(usages);
+        return usages;
     }
 
     /**
@@ -276,6 +387,8 @@ public class UsagesResource {
                     usage.setStatus(DEFAULT_STATUS);
                 }
                 Integer id = usageStore.insert(usage);
+                quotaHeadroomCache.invalidateQuota(usage.getQuotaId());
+                usageStatusCache.invalidate(usage.getInstanceId());
                 usage = usageStore.getUsage(id);
             } catch (Exception e) {
                 String message = "Couldn't insert the usage: " + e.getMessage();
@@ -288,6 +401,137 @@ public class UsagesResource {
         }
     }
 
+    /**
+     * Create a batch of usages in one transaction. Each usage is validated on its own, and the
+     * valid usages are inserted together, adding their quantities to the totalUsage of each
+     * affected quota once rather than once per usage. A usage whose quotaId and instanceId
+     * already have a usage, including one created concurrently, is skipped by the insert and
+     * isn't added to the totals. The result of each usage is returned in the order submitted,
+     * with a 201 status when it was created, or a 400, 404, or 409 status and a message when not.
+     * @param context  the security context of the authenticated user
+     * @param usages  the usages to create, at most MAX_BATCH_SIZE
+     * @return results  the result of each usage of the batch
+     * @throws WebApplicationException  if the caller isn't an admin, the batch size is invalid,
+     *                                  or the batch couldn't be inserted
+     */
+    @Timed
+    @POST
+    @PermitAll
+    @Path("batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public List<UsageBatchResult> createBatch(
+            @Context SecurityContext context,
+            @NotNull List<Usage> usages) throws WebApplicationException {
+        String DEFAULT_STATUS = "active";
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException("Admin privilege is required to create usages, " +
+                caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+        }
+        if ( usages.isEmpty() || usages.size() > MAX_BATCH_SIZE ) {
+            throw new WebApplicationException("A usage batch must have between 1 and " +
+                MAX_BATCH_SIZE + " usages.", Response.Status.BAD_REQUEST);
+        }
+
+        // Validate each usage, keeping the first of any duplicated quotaId and instanceId
+        UsageBatchResult[] results = new UsageBatchResult[usages.size()];
+        Map<String, Integer> candidates = new LinkedHashMap<>();
+        for (int index = 0; index < usages.size(); index++) {
+            Usage usage = usages.get(index);
+            String message = null;
+            if ( usage == null ) {
+                message = "The usage is missing.";
+            } else if ( usage.getQuotaId() == null || usage.getInstanceId() == null ) {
+                message = "The usage quotaId and instanceId are required.";
+            } else {
+                Set<ConstraintViolation<Usage>> violations = validator.validate(usage);
+                if ( ! violations.isEmpty() ) {
+                    message = violations.iterator().next().getPropertyPath() + " " +
+                        violations.iterator().next().getMessage();
+                }
+            }
+            if ( message != null ) {
+                results[index] = new UsageBatchResult(index, 400, null, message);
+            } else if ( candidates.putIfAbsent(batchKey(usage), index) != null ) {
+                results[index] = new UsageBatchResult(index, 409, null,
+                    "The usage quotaId and instanceId are repeated in the batch.");
+            } else {
+                // On create, status is always set to 'active'
+                usage.setStatus(DEFAULT_STATUS);
+            }
+        }
+
+        // Check the quotas exist, with one query for the whole batch
+        if ( ! candidates.isEmpty() ) {
+            Set<Integer> quotaIds = new HashSet<>();
+            for (Integer index : candidates.values()) {
+                quotaIds.add(usages.get(index).getQuotaId());
+            }
+            Set<Integer> existingQuotaIds =
+                new HashSet<>(quotaStore.findExistingQuotaIds(new ArrayList<>(quotaIds)));
+            for (Iterator<Integer> iterator = candidates.values().iterator(); iterator.hasNext(); ) {
+                Integer index = iterator.next();
+                if ( ! existingQuotaIds.contains(usages.get(index).getQuotaId()) ) {
+                    results[index] = new UsageBatchResult(index, 404, null,
+                        "The usage quota doesn't exist.");
+                    iterator.remove();
+                }
+            }
+        }
+
+        // Insert the valid usages, skipping existing ones, and replace the quota trigger
+        // updates with one update per quota of the usages actually inserted
+        if ( ! candidates.isEmpty() ) {
+            List<Usage> valid = new ArrayList<>();
+            for (Integer index : candidates.values()) {
+                valid.add(usages.get(index));
+            }
+            Map<Integer, Double> deltas = new TreeMap<>();
+            List<Usage> inserted;
+            try {
+                inserted = this.database.inTransaction(handle -> {
+                    UsageStore batchUsageStore = handle.attach(UsageStore.class);
+                    batchUsageStore.deferQuotaTotals();
+                    List<Usage> insertedUsages = batchUsageStore.insertBatch(valid);
+                    for (Usage usage : insertedUsages) {
+                        deltas.merge(usage.getQuotaId(),
+                            usage.getQuantity() != null ? usage.getQuantity() : 0.0, Double::sum);
+                    }
+                    if ( ! deltas.isEmpty() ) {
+                        handle.attach(QuotaStore.class).addTotalUsages(
+                            new ArrayList<>(deltas.keySet()), new ArrayList<>(deltas.values()));
+                    }
+                    return insertedUsages;
+                });
+                quotaHeadroomCache.invalidateQuotas(deltas.keySet());
+                for (Usage usage : inserted) {
+                    usageStatusCache.invalidate(usage.getInstanceId());
+                }
+            } catch (Exception e) {
+                String message = "Couldn't insert the usages: " + e.getMessage();
+                throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
+            }
+            for (Usage usage : inserted) {
+                Integer index = candidates.remove(batchKey(usage));
+                results[index] = new UsageBatchResult(index, 201, usage, null);
+            }
+            for (Integer index : candidates.values()) {
+                results[index] = new UsageBatchResult(index, 409, null,
+                    "A usage with the quotaId and instanceId already exists.");
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Get the key identifying a usage within a batch, unique for a quotaId and instanceId
+     * @param usage  the usage
+     * @return key  the batch key
+     */
+    private static String batchKey(Usage usage) {
+        return usage.getQuotaId() + ":" + usage.getInstanceId();
+    }
+
     /**
      * Get the usage for a given identifier
      * @param context  the security context of the authenticated user
@@ -361,7 +605,15 @@ public class UsagesResource {
 
         if ( isAdmin ) {
             try {
+                // Invalidate the headroom of the previous quota too, in case the usage moved
+                Usage existing = usageStore.getUsage(usageId);
                 updatedUsage = usageStore.update(usage);
+                quotaHeadroomCache.invalidateQuota(usage.getQuotaId());
+                usageStatusCache.invalidate(usage.getInstanceId());
+                if ( existing != null ) {
+                    quotaHeadroomCache.invalidateQuota(existing.getQuotaId());
+                    usageStatusCache.invalidate(existing.getInstanceId());
+                }
             } catch (Exception e) {
                 String message = "Couldn't update the usage: " + e.getMessage();
                 throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
@@ -372,6 +624,207 @@ public class UsagesResource {
         return updatedUsage;
     }
 
+    /**
+     * Create or update the usage for the given quota and instance identifiers in a single
+     * statement, so repeated or concurrent reports of the same usage don't conflict.
+     * Requires administrative authorization.
+     * @param context  the security context of the authenticated user
+     * @param usage  the usage to create or update
+     * @param quotaId  the quota identifier of the usage
+     * @param instanceId  the instance identifier of the usage
+     * @return usage  the created or updated usage
+     * @throws WebApplicationException  400 if the identifiers don't match the usage, 404 if the
+     *                                  quota doesn't exist, or 500 if the upsert fails
+     */
+    @Timed
+    @PUT
+    @PermitAll
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Usage upsert(
+            @Context SecurityContext context,
+            @NotNull @Valid Usage usage,
+            @QueryParam("quotaId") @NotNull @Positive Integer quotaId,
+            @QueryParam("instanceId") @NotNull String instanceId
+    ) throws WebApplicationException {
+        String DEFAULT_STATUS = "active";
+        Usage upsertedUsage;
+
+        // The calling user injected in the security context via authentication
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException("Admin privilege is required to update a usage, " +
+                caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+        }
+
+        // The query parameters identify the usage, so the usage can't name another one
+        if ( (usage.getQuotaId() != null && ! usage.getQuotaId().equals(quotaId)) ||
+            (usage.getInstanceId() != null && ! usage.getInstanceId().equals(instanceId)) ) {
+            throw new WebApplicationException("The usage quotaId and instanceId must match " +
+                "the quotaId and instanceId parameters.", Response.Status.BAD_REQUEST);
+        }
+        usage.setQuotaId(quotaId);
+        usage.setInstanceId(instanceId);
+        if ( usage.getStatus() == null ) {
+            usage.setStatus(DEFAULT_STATUS);
+        }
+        if ( quotaStore.getQuota(quotaId) == null ) {
+            throw new WebApplicationException("The quota " + quotaId + " doesn't exist.",
+                Response.Status.NOT_FOUND);
+        }
+
+        try {
+            upsertedUsage = usageStore.upsert(usage);
+            quotaHeadroomCache.invalidateQuota(quotaId);
+            usageStatusCache.invalidate(instanceId);
+        } catch (Exception e) {
+            String message = "Couldn't update the usage: " + e.getMessage();
+            throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        return upsertedUsage;
+    }
+
+    /**
+     * Reserve quota space for the given usage. The check against the quota's hard limit, the
+     * check for an existing usage of the instance, and the insert of the pending usage happen in
+     * one statement, so concurrent reservations can't together exceed the limit or reserve the
+     * same instance twice. When nothing is reserved, the reason is looked up afterward. The
+     * pending usage counts toward the quota until it is committed, cancelled, or it expires.
+     * Requires administrative authorization.
+     * @param context  the security context of the authenticated user
+     * @param usage  the usage to reserve, with the quotaId, instanceId, and quantity
+     * @param ttl  the number of seconds until the reservation expires, or the configured default
+     * @return response  201 with the pending usage
+     * @throws WebApplicationException  404 if the quota doesn't exist, 409 if the usage would
+     *                                  exceed the hard limit or already exists
+     */
+    @Timed
+    @POST
+    @PermitAll
+    @Path("reservations")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response reserve(
+            @Context SecurityContext context,
+            @NotNull @Valid Usage usage,
+            @QueryParam("ttl") @Positive Integer ttl) throws WebApplicationException {
+        Usage reservation;
+
+        // The calling user injected in the security context via authentication
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException("Admin privilege is required to reserve a usage, " +
+                caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+        }
+        if ( usage.getQuotaId() == null || usage.getInstanceId() == null ||
+            usage.getQuantity() == null ) {
+            throw new WebApplicationException("The usage quotaId, instanceId, and quantity " +
+                "are required.", Response.Status.BAD_REQUEST);
+        }
+        try {
+            reservation = usageStore.reserve(usage.getQuotaId(), usage.getInstanceId(),
+                usage.getQuantity(), usage.getNodeId(),
+                ttl != null ? ttl : this.reservationTtlSeconds);
+        } catch (Exception e) {
+            String message = "Couldn't reserve the usage: " + e.getMessage();
+            throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        if ( reservation == null ) {
+            if ( quotaStore.getQuota(usage.getQuotaId()) == null ) {
+                throw new WebApplicationException("The quota " + usage.getQuotaId() +
+                    " doesn't exist.", Response.Status.NOT_FOUND);
+            }
+            if ( usageStore.findUsageByInstanceIdAndQuotaId(
+                usage.getInstanceId(), usage.getQuotaId()) != null ) {
+                throw new WebApplicationException("A usage for instance " + usage.getInstanceId() +
+                    " already exists in quota " + usage.getQuotaId() + ".", Response.Status.CONFLICT);
+            }
+            throw new WebApplicationException("The usage quantity " + usage.getQuantity() +
+                " would exceed the hard limit of quota " + usage.getQuotaId() + ".",
+                Response.Status.CONFLICT);
+        }
+        quotaHeadroomCache.invalidateQuota(reservation.getQuotaId());
+        usageStatusCache.invalidate(reservation.getInstanceId());
+        return Response.status(Response.Status.CREATED).entity(reservation).build();
+    }
+
+    /**
+     * Commit the reservation, activating its pending usage. Requires administrative authorization.
+     * @param context  the security context of the authenticated user
+     * @param usageId  the usage identifier of the reservation
+     * @return usage  the active usage
+     * @throws WebApplicationException  404 if there is no pending usage with the identifier
+     */
+    @Timed
+    @PUT
+    @PermitAll
+    @Path("reservations/{usageId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Usage commitReservation(
+            @Context SecurityContext context,
+            @PathParam("usageId") @NotNull @Positive Integer usageId) throws WebApplicationException {
+        Usage usage;
+
+        // The calling user injected in the security context via authentication
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException("Admin privilege is required to commit a reservation, " +
+                caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+        }
+
+        try {
+            usage = usageStore.commitReservation(usageId);
+        } catch (Exception e) {
+            String message = "Couldn't commit the reservation: " + e.getMessage();
+            throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        if ( usage == null ) {
+            throw new WebApplicationException("There is no pending usage with id " + usageId +
+                ", it may have expired.", Response.Status.NOT_FOUND);
+        }
+        quotaHeadroomCache.invalidateQuota(usage.getQuotaId());
+        usageStatusCache.invalidate(usage.getInstanceId());
+        return usage;
+    }
+
+    /**
+     * Cancel the reservation, releasing its quota space. Requires administrative authorization.
+     * @param context  the security context of the authenticated user
+     * @param usageId  the usage identifier of the reservation
+     * @return response  200 if cancelled
+     * @throws WebApplicationException  404 if there is no pending usage with the identifier
+     */
+    @Timed
+    @DELETE
+    @PermitAll
+    @Path("reservations/{usageId}")
+    public Response cancelReservation(
+            @Context SecurityContext context,
+            @PathParam("usageId") @NotNull @Positive Integer usageId) throws WebApplicationException {
+        Usage usage;
+
+        // The calling user injected in the security context via authentication
+        Customer caller = (Customer) context.getUserPrincipal();
+        if ( ! this.dataoneAuthHelper.isAdmin(caller.getSubject()) ) {
+            throw new WebApplicationException("Admin privilege is required to cancel a reservation, " +
+                caller.getSubject() + " is not authorized.", Response.Status.FORBIDDEN);
+        }
+
+        try {
+            usage = usageStore.cancelReservation(usageId);
+        } catch (Exception e) {
+            String message = "Couldn't cancel the reservation: " + e.getMessage();
+            throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        if ( usage == null ) {
+            throw new WebApplicationException("There is no pending usage with id " + usageId +
+                ", it may have expired.", Response.Status.NOT_FOUND);
+        }
+        quotaHeadroomCache.invalidateQuota(usage.getQuotaId());
+        usageStatusCache.invalidate(usage.getInstanceId());
+        return Response.ok().build();
+    }
+
     /**
      * Delete the usage
      * @param usageId the usage id
@@ -398,7 +851,12 @@ public class UsagesResource {
         }
 
         try {
+            Usage existing = usageStore.getUsage(usageId);
             usageStore.delete(usageId);
+            if ( existing != null ) {
+                quotaHeadroomCache.invalidateQuota(existing.getQuotaId());
+                usageStatusCache.invalidate(existing.getInstanceId());
+            }
         } catch (Exception e) {
             message = "Deleting the usage with id " + usageId + " failed: " + e.getMessage();
             log.error(message);
@@ -408,23 +866,26 @@ public class UsagesResource {
         return Response.ok().build();
     }
     /**
-     * Get a usage status
+     * Get a usage status. Statuses are served from a short-lived cache, and each response has
+     * an ETag and a Cache-Control max-age, so pollers and proxies can revalidate with
+     * If-None-Match and get a 304 when the status is unchanged.
+     * @param request  the request, used to evaluate its preconditions
      * @param quotaType the usage quota type ("portal" | "storage" | ...)
      * @param instanceId the usage instance id type
-     * @return response 200 if deleted
-     * @throws WebApplicationException  a web app exception
+     * @return response 200 with the usage status, or 304 if it matches If-None-Match
+     * @throws WebApplicationException  400 if a parameter is missing, 404 if there is no usage
      */
     @Timed
     @GET
     @Path("/status")
     @Produces(MediaType.APPLICATION_JSON)
-    public UsageStatus getStatus(
+    public Response getStatus(
+            @Context Request request,
             @QueryParam("quotaType") String quotaType,
             @QueryParam("instanceId") String instanceId) throws WebApplicationException {
 
         log.debug("Usage status");
-        Usage usage = null;
-        UsageStatus usageStatus = null;
+        Optional<String> status;
 
         String message = null;
         if (quotaType == null || instanceId == null)  {
@@ -433,8 +894,7 @@ public class UsagesResource {
         }
 
         try {
-            log.debug("Usage status query");
-            usage = usageStore.findUsageByInstanceIdAndQuotaType(instanceId, quotaType);
+            status = usageStatusCache.get(instanceId, quotaType);
         } catch (Exception e) {
             message = "Retrieving the usage with instanceId: " + instanceId + ", quotaType: " + quotaType
                 + " failed: " + e.getMessage();
@@ -442,15 +902,61 @@ public class UsagesResource {
             throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
         }
 
-        // If a usage was returned from the store, construct a UsageStatus from it and return success
-        if (usage != null) {
-            usageStatus = new UsageStatus("usagestatus", usage.getStatus());
-        } else {
+        if ( ! status.isPresent() ) {
             throw new WebApplicationException("The requested usage status was not found.", Response.Status.NOT_FOUND);
         }
 
-        return usageStatus;
+        // The status is the whole representation, so its hash identifies it on any instance
+        EntityTag etag = new EntityTag(Integer.toHexString(status.get().hashCode()));
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(this.statusMaxAgeSeconds);
+        Response.ResponseBuilder builder = request.evaluatePreconditions(etag);
+        if ( builder == null ) {
+            builder = Response.ok(new UsageStatus("usagestatus", status.get()));
+        }
+        return builder.tag(etag).cacheControl(cacheControl).build();
     }
 
+    /**
+     * Get the usage statuses of many instances in one call. Statuses not cached are loaded
+     * with one query, rather than one request and query per instance.
+     * @param keys  the instance identifiers and quota types, at most MAX_BATCH_SIZE
+     * @return statuses  the usage statuses keyed by instance identifier, then quota type.
+     *                   Instances without a usage of a quota type are left out.
+     * @throws WebApplicationException  400 if the batch size is invalid or a key is incomplete
+     */
+    @Timed
+    @POST
+    @Path("/status/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, UsageStatus>> getStatuses(
+            @NotNull List<UsageStatusKey> keys) throws WebApplicationException {
+        if ( keys.isEmpty() || keys.size() > MAX_BATCH_SIZE ) {
+            throw new WebApplicationException("A usage status batch must have between 1 and " +
+                MAX_BATCH_SIZE + " instances.", Response.Status.BAD_REQUEST);
+        }
+        for (UsageStatusKey key : keys) {
+            if ( key == null || key.getInstanceId() == null || key.getQuotaType() == null ) {
+                throw new WebApplicationException("Both quotaType and instanceId must be " +
+                    "specified for each instance.", Response.Status.BAD_REQUEST);
+            }
+        }
+
+        Map<UsageStatusKey, String> found;
+        try {
+            found = usageStatusCache.getAll(keys);
+        } catch (Exception e) {
+            String message = "Retrieving the usage statuses failed: " + e.getMessage();
+            log.error(message);
+            throw new WebApplicationException(message, Response.Status.INTERNAL_SERVER_ERROR);
+        }
 
+        Map<String, Map<String, UsageStatus>> statuses = new LinkedHashMap<>();
+        for (Map.Entry<UsageStatusKey, String> status : found.entrySet()) {
+            statuses.computeIfAbsent(status.getKey().getInstanceId(), instanceId -> new LinkedHashMap<>())
+                .put(status.getKey().getQuotaType(), new UsageStatus("usagestatus", status.getValue()));
+        }
+        return statuses;
+    }
 }
@@ -0,0 +1,235 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.setup.Environment;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.client.v2.itk.D1Client;
+import org.dataone.service.exceptions.NotImplemented;
+import org.dataone.service.exceptions.ServiceFailure;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the Coordinating Node public key used to verify tokens.
+ *
+ * The key is fetched from the CN server certificate once and cached. Concurrent
+ * callers that miss the cache share a single fetch, and the key is refreshed in the
+ * background before its time to live elapses. If a refresh fails (e.g. during a CN
+ * outage), the last good key is kept and the refresh is retried on a later read.
+ */
+public class CNPublicKeyProvider {
+
+    /* A logger for the class */
+    private static final Log log = LogFactory.getLog(CNPublicKeyProvider.class);
+
+    /**
+     * Fetches the public key of a Coordinating Node
+     */
+    @FunctionalInterface
+    interface PublicKeyFetcher {
+
+        /**
+         * Fetch the public key of the Coordinating Node
+         * @param url  the Coordinating Node base URL
+         * @return cnPublicKey  the CN public key
+         * @throws Exception  if the key can't be fetched
+         */
+        RSAPublicKey fetch(String url) throws Exception;
+    }
+
+    /* The Coordinating Node base URL, used as the cache key */
+    private final String cnBaseUrl;
+
+    /* The single entry cache of the CN public key */
+    private final LoadingCache<String, RSAPublicKey> cache;
+
+    /* The meter of background refreshes of the key */
+    private final Meter refreshes;
+
+    /* The meter of failed background refreshes of the key */
+    private final Meter refreshFailures;
+
+    /**
+     * Construct a CNPublicKeyProvider
+     *
+     * @param cnBaseUrl  the Coordinating Node base URL
+     * @param ttlMinutes  the number of minutes a fetched key is considered fresh
+     * @param environment  the application environment used for metrics and scheduling
+     */
+    public CNPublicKeyProvider(String cnBaseUrl, long ttlMinutes, Environment environment) {
+        this(cnBaseUrl, ttlMinutes, environment.metrics(), CNPublicKeyProvider::fetchPublicKey,
+            Ticker.systemTicker(), ForkJoinPool.commonPool());
+
+        // Refresh ahead of the time to live so readers don't wait on the CN
+        long refreshSeconds = refreshSeconds(ttlMinutes);
+        ScheduledExecutorService scheduler = environment.lifecycle()
+            .scheduledExecutorService("cn-public-key-refresh-%d")
+            .threads(1)
+            .build();
+        scheduler.scheduleWithFixedDelay(
+            this::refreshIfLoaded, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Construct a CNPublicKeyProvider without scheduled refreshes
+     *
+     * @param cnBaseUrl  the Coordinating Node base URL
+     * @param ttlMinutes  the number of minutes a fetched key is considered fresh
+     * @param metrics  the metric registry
+     * @param fetcher  the fetcher of the CN public key
+     * @param ticker  the time source of the cache
+     * @param executor  the executor of cache refreshes
+     */
+    CNPublicKeyProvider(String cnBaseUrl, long ttlMinutes, MetricRegistry metrics,
+                        PublicKeyFetcher fetcher, Ticker ticker, Executor executor) {
+        this.cnBaseUrl = cnBaseUrl;
+
+        this.refreshes = metrics.meter(MetricRegistry.name(CNPublicKeyProvider.class, "refreshes"));
+        this.refreshFailures =
+            metrics.meter(MetricRegistry.name(CNPublicKeyProvider.class, "refresh-failures"));
+
+        // Keys are refreshed rather than expired, so a failed refresh keeps the last good key
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(1)
+            .refreshAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+            .ticker(ticker)
+            .executor(executor)
+            .recordStats()
+            .build(new CacheLoader<String, RSAPublicKey>() {
+                @Override
+                public RSAPublicKey load(String url) throws Exception {
+                    return fetcher.fetch(url);
+                }
+
+                @Override
+                public RSAPublicKey reload(String url, RSAPublicKey oldKey) throws Exception {
+                    refreshes.mark();
+                    try {
+                        return fetcher.fetch(url);
+                    } catch (Exception e) {
+                        refreshFailures.mark();
+                        log.warn("Couldn't refresh the CN public key, keeping the last good key: " +
+                            e.getMessage());
+                        throw e;
+                    }
+                }
+            });
+
+        metrics.register(MetricRegistry.name(CNPublicKeyProvider.class, "hits"),
+            (Gauge<Long>) () -> this.cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(CNPublicKeyProvider.class, "misses"),
+            (Gauge<Long>) () -> this.cache.stats().missCount());
+    }
+
+    /**
+     * Get the number of seconds between scheduled refreshes, 80% of the time to live
+     *
+     * @param ttlMinutes  the number of minutes a fetched key is considered fresh
+     * @return refreshSeconds  the refresh interval in seconds, at least one
+     */
+    static long refreshSeconds(long ttlMinutes) {
+        return Math.max(1L, TimeUnit.MINUTES.toSeconds(ttlMinutes) * 4 / 5);
+    }
+
+    /**
+     * Refresh the key if it has been fetched, keeping it if the refresh fails
+     */
+    void refreshIfLoaded() {
+        if ( this.cache.getIfPresent(this.cnBaseUrl) != null ) {
+            this.cache.refresh(this.cnBaseUrl);
+        }
+    }
+
+    /**
+     * Get the CN public key, fetching it from the CN only when it hasn't been cached yet
+     *
+     * @return cnPublicKey  the CN public key
+     * @throws AuthenticationException  if the key has never been fetched successfully
+     */
+    public RSAPublicKey getPublicKey() throws AuthenticationException {
+        try {
+            return this.cache.get(this.cnBaseUrl);
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause() != null ? ce.getCause() : ce;
+            String message = "Couldn't verify the token. ";
+            if ( cause instanceof NotImplemented ) {
+                message += "The CN returned a NotImplemented: " + cause.getMessage();
+            } else if ( cause instanceof ServiceFailure ) {
+                message += "The CN returned a ServiceFailure: " + cause.getMessage();
+            } else if ( cause instanceof MalformedURLException ) {
+                message += "The CN URL is malformed: " + cause.getMessage();
+            } else if ( cause instanceof IOException ) {
+                message += "The CN returned connection failed: " + cause.getMessage();
+            } else {
+                message += "The CN public key couldn't be fetched: " + cause.getMessage();
+            }
+            log.warn(message);
+            AuthenticationException ae = new AuthenticationException(message);
+            ae.initCause(cause);
+            throw ae;
+        }
+    }
+
+    /**
+     * Fetch the public key from the CN server certificate
+     *
+     * @param url  the Coordinating Node base URL
+     * @return cnPublicKey  the CN public key
+     * @throws Exception  if the CN can't be reached or its certificate is missing
+     */
+    private static RSAPublicKey fetchPublicKey(String url) throws Exception {
+        D1Client.setCN(url);
+        URL cnBaseServiceUrl = new URL(D1Client.getCN().getNodeBaseServiceUrl());
+        HttpsURLConnection connection = (HttpsURLConnection) cnBaseServiceUrl.openConnection();
+        try {
+            connection.connect();
+            Certificate cnCertificate = connection.getServerCertificates()[0];
+            if ( cnCertificate == null ) {
+                throw new IOException("The CN certificate is null.");
+            }
+            log.debug("Fetched the CN certificate: " + cnCertificate.toString());
+            return (RSAPublicKey) cnCertificate.getPublicKey();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
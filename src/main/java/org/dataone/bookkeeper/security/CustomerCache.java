@@ -0,0 +1,167 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.dataone.bookkeeper.api.Customer;
+import org.dataone.bookkeeper.cache.InvalidationGenerations;
+import org.dataone.bookkeeper.jdbi.CustomerStore;
+
+/**
+ * A subject-keyed cache of customer records, used to build authenticated principals.
+ *
+ * Entries are shared by all tokens of a subject, so a new token for a known subject
+ * doesn't read the customer again. Subjects without a customer record are cached too.
+ * Callers get a copy of the cached customer, since principals are amended with their
+ * SubjectInfo. An entry loaded before a later invalidation of its subject is discarded
+ * when read (see InvalidationGenerations). Customers changed elsewhere are picked up when
+ * entries expire.
+ */
+public class CustomerCache {
+
+    /**
+     * The customer of a subject and the generation its load started in
+     */
+    private static final class Entry {
+
+        /* The customer, or null when the subject has no customer record */
+        private final Customer customer;
+
+        /* The generation the load of the customer started in */
+        private final long generation;
+
+        /**
+         * Construct an entry
+         * @param customer  the customer, or null when the subject has no customer record
+         * @param generation  the generation the load of the customer started in
+         */
+        private Entry(Customer customer, long generation) {
+            this.customer = customer;
+            this.generation = generation;
+        }
+    }
+
+    /* The cached customers keyed by subject */
+    private final LoadingCache<String, Entry> cache;
+
+    /* The invalidations of subjects, set once the cache is built */
+    private InvalidationGenerations<String> invalidations;
+
+    /**
+     * Construct a CustomerCache
+     * @param customerStore  the customer store used to load customers
+     * @param cachePolicy  the Caffeine cache policy
+     * @param metrics  the metric registry for cache statistics
+     */
+    public CustomerCache(CustomerStore customerStore, CaffeineSpec cachePolicy, MetricRegistry metrics) {
+        this(customerStore, cachePolicy, Ticker.systemTicker(), metrics);
+    }
+
+    /**
+     * Construct a CustomerCache with the given time source
+     * @param customerStore  the customer store used to load customers
+     * @param cachePolicy  the Caffeine cache policy
+     * @param ticker  the time source of the cache
+     * @param metrics  the metric registry for cache statistics
+     */
+    CustomerCache(CustomerStore customerStore, CaffeineSpec cachePolicy, Ticker ticker,
+                  MetricRegistry metrics) {
+        this.cache = Caffeine.from(cachePolicy)
+            .ticker(ticker)
+            .recordStats()
+            .build(subject -> {
+                long loadGeneration = this.invalidations.current();
+                return new Entry(customerStore.findCustomerBySubject(subject), loadGeneration);
+            });
+        this.invalidations = new InvalidationGenerations<String>(
+            InvalidationGenerations.retentionNanos(this.cache), ticker);
+
+        metrics.register(MetricRegistry.name(CustomerCache.class, "hits"),
+            (Gauge<Long>) () -> this.cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(CustomerCache.class, "misses"),
+            (Gauge<Long>) () -> this.cache.stats().missCount());
+        metrics.register(MetricRegistry.name(CustomerCache.class, "hit-ratio"),
+            (Gauge<Double>) () -> this.cache.stats().hitRate());
+    }
+
+    /**
+     * Get the customer of a subject, loading it when not cached
+     * @param subject  the customer subject
+     * @return customer  a copy of the customer, or null if the subject has no customer record
+     */
+    public Customer get(String subject) {
+        Entry entry = InvalidationGenerations.get(this.cache, subject,
+            cached -> this.invalidations.isStale(subject, cached.generation));
+        return entry.customer == null ? null : copy(entry.customer);
+    }
+
+    /**
+     * Discard the cached customer of a subject, after the customer is created, changed, or deleted
+     * @param subject  the customer subject
+     */
+    public void invalidate(String subject) {
+        if ( subject != null ) {
+            this.invalidations.invalidate(subject);
+            this.cache.invalidate(subject);
+        }
+    }
+
+    /**
+     * Get the number of subjects with a retained invalidation
+     * @return size  the number of retained invalidations
+     */
+    int invalidationCount() {
+        return this.invalidations.size();
+    }
+
+    /**
+     * Copy a cached customer, so callers can amend it without changing the cache
+     * @param customer  the cached customer
+     * @return copy  the copy of the customer
+     */
+    private static Customer copy(Customer customer) {
+        return new Customer(
+            customer.getId(),
+            customer.getObject(),
+            customer.getSubject(),
+            customer.getBalance(),
+            customer.getAddress(),
+            customer.getCreated(),
+            customer.getCurrency(),
+            customer.isDelinquent(),
+            customer.getDescription(),
+            customer.getDiscount(),
+            customer.getEmail(),
+            customer.getInvoicePrefix(),
+            customer.getInvoiceSettings(),
+            customer.getMetadata(),
+            customer.getGivenName(),
+            customer.getSurName(),
+            customer.getPhone()
+        );
+    }
+}
@@ -21,9 +21,10 @@
 
 package org.dataone.bookkeeper.security;
 
-import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.setup.Environment;
@@ -36,8 +37,6 @@ import org.dataone.client.auth.AuthTokenSession;
 import org.dataone.client.v2.CNode;
 import org.dataone.client.v2.itk.D1Client;
 import org.dataone.service.exceptions.BaseException;
-import org.dataone.service.exceptions.NotImplemented;
-import org.dataone.service.exceptions.ServiceFailure;
 import org.dataone.service.types.v1.Group;
 import org.dataone.service.types.v1.Person;
 import org.dataone.service.types.v1.Subject;
@@ -45,16 +44,8 @@ import org.dataone.service.types.v1.SubjectInfo;
 import org.eclipse.jetty.server.Authentication;
 import org.jdbi.v3.core.Jdbi;
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.security.cert.Certificate;
-import java.security.interfaces.RSAPublicKey;
 import java.text.ParseException;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -81,11 +72,29 @@ public class DataONEAuthHelper {
     /* The DataONE application configuration */
     private DataONEConfiguration configuration;
 
-    /* The Coordinating Node instance */
-    private CNode cn;
+    /* The provider of the cached Coordinating Node public key used for verifying tokens */
+    private CNPublicKeyProvider cnPublicKeyProvider;
 
-    /* The Coordinating Node public key used for verifying tokens */
-    private RSAPublicKey cnPublicKey;
+    /* The verifier of token signatures and expiry */
+    private TokenVerifier tokenVerifier;
+
+    /* The subject-keyed cache of subject information from the CN */
+    private SubjectInfoCache subjectInfoCache;
+
+    /* The subject-keyed cache of customer records */
+    private CustomerCache customerCache;
+
+    /* The associated subjects keyed by the identity of the SubjectInfo they were built from */
+    private final Cache<SubjectInfo, Set<String>> associatedSubjectsIndex =
+        Caffeine.newBuilder().weakKeys().build();
+
+    /* The default SubjectInfo cache policy */
+    private static final String DEFAULT_SUBJECT_INFO_CACHE_POLICY =
+        "maximumSize=10000, expireAfterWrite=5m";
+
+    /* The default customer cache policy */
+    private static final String DEFAULT_CUSTOMER_CACHE_POLICY =
+        "maximumSize=10000, expireAfterWrite=5m";
 
     /**
      * Construct an empty DataONEAuthHelper
@@ -101,9 +110,36 @@ public class DataONEAuthHelper {
      * @param configuration  the DataONE configuration instance
      */
     public DataONEAuthHelper (Environment environment, Jdbi database, DataONEConfiguration configuration) {
+        this(environment, database, configuration,
+            CaffeineSpec.parse(DEFAULT_SUBJECT_INFO_CACHE_POLICY),
+            SubjectInfoCache.DEFAULT_NOT_FOUND_TTL_SECONDS,
+            CaffeineSpec.parse(DEFAULT_CUSTOMER_CACHE_POLICY));
+    }
+
+    /**
+     * Construct a DataONEAuthHelper
+     *
+     * @param environment  the application environment
+     * @param database  the JDBI database instance
+     * @param configuration  the DataONE configuration instance
+     * @param subjectInfoCachePolicy  the cache policy for subject information
+     * @param subjectNotFoundTtlSeconds  the number of seconds an unknown subject is cached
+     * @param customerCachePolicy  the cache policy for customer records
+     */
+    public DataONEAuthHelper (Environment environment, Jdbi database,
+                              DataONEConfiguration configuration, CaffeineSpec subjectInfoCachePolicy,
+                              long subjectNotFoundTtlSeconds, CaffeineSpec customerCachePolicy) {
         this.environment = environment;
         this.customerStore = database.onDemand(CustomerStore.class);
         this.configuration = configuration;
+        this.cnPublicKeyProvider = new CNPublicKeyProvider(
+            configuration.getCnBaseUrl(), configuration.getCnPublicKeyTtlMinutes(), environment);
+        this.tokenVerifier = new TokenVerifier(this.cnPublicKeyProvider);
+        this.subjectInfoCache = new SubjectInfoCache(
+            this::fetchSubjectInfo, subjectInfoCachePolicy, subjectNotFoundTtlSeconds,
+            environment.metrics());
+        this.customerCache = new CustomerCache(
+            this.customerStore, customerCachePolicy, environment.metrics());
     }
 
     /**
@@ -186,108 +222,131 @@ public class DataONEAuthHelper {
         this.configuration = configuration;
     }
 
+    /**
+     * Get the CN public key provider
+     * @return cnPublicKeyProvider  the CN public key provider
+     */
+    public CNPublicKeyProvider getCnPublicKeyProvider() {
+        return cnPublicKeyProvider;
+    }
+
+    /**
+     * Set the CN public key provider
+     * @param cnPublicKeyProvider  the CN public key provider
+     */
+    public void setCnPublicKeyProvider(CNPublicKeyProvider cnPublicKeyProvider) {
+        this.cnPublicKeyProvider = cnPublicKeyProvider;
+    }
+
+    /**
+     * Get the token verifier
+     * @return tokenVerifier  the token verifier
+     */
+    public TokenVerifier getTokenVerifier() {
+        return tokenVerifier;
+    }
+
+    /**
+     * Set the token verifier
+     * @param tokenVerifier  the token verifier
+     */
+    public void setTokenVerifier(TokenVerifier tokenVerifier) {
+        this.tokenVerifier = tokenVerifier;
+    }
+
+    /**
+     * Get the SubjectInfo cache
+     * @return subjectInfoCache  the SubjectInfo cache
+     */
+    public SubjectInfoCache getSubjectInfoCache() {
+        return subjectInfoCache;
+    }
+
+    /**
+     * Set the SubjectInfo cache
+     * @param subjectInfoCache  the SubjectInfo cache
+     */
+    public void setSubjectInfoCache(SubjectInfoCache subjectInfoCache) {
+        this.subjectInfoCache = subjectInfoCache;
+    }
+
+    /**
+     * Get the customer cache
+     * @return customerCache  the customer cache
+     */
+    public CustomerCache getCustomerCache() {
+        return customerCache;
+    }
+
+    /**
+     * Set the customer cache
+     * @param customerCache  the customer cache
+     */
+    public void setCustomerCache(CustomerCache customerCache) {
+        this.customerCache = customerCache;
+    }
+
+    /**
+     * Get the customer record of a subject, from the customer cache when there is one
+     * @param subject  the customer subject
+     * @return customer  the customer, or null if the subject has no customer record
+     */
+    public Customer findCustomer(String subject) {
+        if ( this.customerCache == null ) {
+            return getCustomerStore().findCustomerBySubject(subject);
+        }
+        return this.customerCache.get(subject);
+    }
+
+    /**
+     * Discard the cached customer record of a subject, after the customer is created,
+     * changed, or deleted
+     * @param subject  the customer subject
+     */
+    public void invalidateCustomer(String subject) {
+        if ( this.customerCache != null ) {
+            this.customerCache.invalidate(subject);
+        }
+    }
+
     /**
      * Verify the token's validity and expiry
      * @param token  the token to be verified
      * @return true  if the token is verified
      */
     public boolean verify(String token) throws AuthenticationException {
-        boolean verified = false;
-        String message;
-
-        // Fetch the CN certificate
-        try {
-            D1Client.setCN(this.configuration.getCnBaseUrl());
-            URL cnBaseUrl = new URL(D1Client.getCN().getNodeBaseServiceUrl());
-            HttpsURLConnection connection = (HttpsURLConnection) cnBaseUrl.openConnection();
-            connection.connect();
-            Certificate cnCertificate = connection.getServerCertificates()[0];
-            if ( cnCertificate != null ) {
-                log.debug("Verifying token with CN certificate: " + cnCertificate.toString());
-                this.cnPublicKey = (RSAPublicKey) cnCertificate.getPublicKey();
-
-                // Parse then verify the signed token
-                SignedJWT signedJWT = SignedJWT.parse(token);
-                JWSVerifier jwsVerifier = new RSASSAVerifier(this.cnPublicKey);
-                if ( ! signedJWT.verify(jwsVerifier) ) {
-                    log.debug("Verifying token with public key: " + this.cnPublicKey);
-                    log.warn("Couldn't verify token with CN public key: " + token);
-                    return verified;
-                    //throw new AuthenticationException("Couldn't verify token.");
-                }
-
-                // If verified, check the expiration dates
-                ZonedDateTime now = ZonedDateTime.ofInstant(Instant.now(), ZoneId.of("UTC"));
-                log.debug(now);
-                ZonedDateTime expiration =
-                    ZonedDateTime.ofInstant(
-                        signedJWT.getJWTClaimsSet()
-                            .getExpirationTime()
-                            .toInstant(),
-                        ZoneId.of("UTC")
-                    );
-                log.debug(expiration);
-
-                if ( now.isAfter(expiration) ) {
-                    log.warn("The token has expired: " + expiration);
-                    // throw new AuthenticationException("The token has expired: " + expiration);
-                } else {
-                    verified = true;
-                }
-            } else {
-                log.error("Couldn't verify token.  The CN certificate is null.");
-            }
-
-        } catch (NotImplemented notImplemented) {
-            message = "Couldn't verify the token. " +
-                 "The CN returned a NotImplemented: " + notImplemented.getMessage();
-            log.warn(message);
-            throw new AuthenticationException(message);
-        } catch (ServiceFailure serviceFailure) {
-             message = "Couldn't verify the token. " +
-                 "The CN returned a ServiceFailure: " + serviceFailure.getMessage();
-            log.warn(message);
-            throw new AuthenticationException(message);
-        } catch (MalformedURLException mue) {
-             message = "Couldn't verify the token. " +
-                 "The CN URL is malformed: " + mue.getMessage();
-            log.warn(message);
-            throw new AuthenticationException(message);
-        } catch (IOException ioe) {
-             message = "Couldn't verify the token. " +
-                 "The CN returned connection failed: " + ioe.getMessage();
-            log.warn(message);
-            throw new AuthenticationException(message);
-        } catch (ParseException e) {
-             message = "Couldn't verify the token. " +
-                 "The JWT library returned a parse exception: " + e.getMessage();
-            log.warn(message);
-            throw new AuthenticationException(message);
-        } catch (JOSEException je) {
-             message = "Couldn't verify the token. " +
-                 "The JWT library returned an exception: " + je.getMessage();
-            log.warn(message);
-            throw new AuthenticationException(message);
-        }
+        boolean verified = this.tokenVerifier.verify(token) != null;
         log.debug("Token is verified: " + verified);
         return verified;
     }
 
     /**
      * Get the subject information (groups, etc.) for the given token's subject
-     * from the DataONE Identity Service
+     * from the SubjectInfo cache, falling back to the DataONE Identity Service
      * @param token  the token of the user
+     * @param subject  the subject to look up
      * @return subjectInfo  the subject information for the subject
      */
     public SubjectInfo getSubjectInfo(String token, String subject) throws BaseException {
+        return this.subjectInfoCache.get(token, subject);
+    }
+
+    /**
+     * Fetch the subject information (groups, etc.) for the given token's subject
+     * from the DataONE Identity Service
+     * @param token  the token of the user
+     * @param subject  the subject to look up
+     * @return subjectInfo  the subject information for the subject
+     */
+    SubjectInfo fetchSubjectInfo(String token, String subject) throws BaseException {
         SubjectInfo subjectInfo = null;
         AuthTokenSession session = new AuthTokenSession(token);
         Subject d1Subject = new Subject();
         d1Subject.setValue(subject);
         session.setSubject(d1Subject);
         D1Client.setCN(this.configuration.getCnBaseUrl());
-        this.cn = D1Client.getCN();
-        subjectInfo = this.cn.getSubjectInfo(session, session.getSubject());
+        CNode cn = D1Client.getCN();
+        subjectInfo = cn.getSubjectInfo(session, session.getSubject());
 
         return subjectInfo;
     }
@@ -328,6 +387,8 @@ public class DataONEAuthHelper {
         }
 
         customer.setSubjectInfo(subjectInfo);
+        // Index the associated subjects once, while the principal is built
+        getAssociatedSubjects(customer);
         return customer;
     }
 
@@ -338,22 +399,34 @@ public class DataONEAuthHelper {
      * @throws AuthenticationException  a token parsing exception
      */
     public Customer getCustomerWithSubjectInfo(String token) throws AuthenticationException {
+        JWTClaimsSet claims;
+        try {
+            claims = SignedJWT.parse(token).getJWTClaimsSet();
+        } catch (ParseException e) {
+            throw new AuthenticationException("Couldn't parse the given token: " + e.getMessage());
+        }
+        return getCustomerWithSubjectInfo(token, claims);
+    }
+
+    /**
+     * Return a customer instance with included subjectInfo, if available
+     * @param token  the token representing the customer
+     * @param claims  the verified claims of the token
+     * @return customer  the customer represented by the token
+     * @throws AuthenticationException  if the subject information can't be retrieved
+     */
+    public Customer getCustomerWithSubjectInfo(String token, JWTClaimsSet claims)
+        throws AuthenticationException {
 
         Customer customer = null;
         String errorMessage = "Couldn't get subject information from the Coordinating Node: ";
-        String subject = null;
-        try {
-            subject = getTokenSubject(token);
-            customer = getCustomerStore().findCustomerBySubject(subject);
-            if ( customer == null ) {
-                log.info("A customer record doesn't exist yet for " + subject +
-                    ". Creating a new customer.");
-                customer = new Customer();
-                customer.setSubject(subject);
-            }
-        } catch (ParseException e) {
-            errorMessage = "Couldn't parse the given token: ";
-            throw new AuthenticationException(errorMessage + e.getMessage());
+        String subject = claims.getSubject();
+        customer = findCustomer(subject);
+        if ( customer == null ) {
+            log.info("A customer record doesn't exist yet for " + subject +
+                ". Creating a new customer.");
+            customer = new Customer();
+            customer.setSubject(subject);
         }
 
         SubjectInfo subjectInfo = null;
@@ -366,6 +439,8 @@ public class DataONEAuthHelper {
             throw ae;
         }
         customer.setSubjectInfo(subjectInfo);
+        // Index the associated subjects once, while the principal is built
+        getAssociatedSubjects(customer);
         return customer;
     }
 
@@ -389,68 +464,66 @@ public class DataONEAuthHelper {
     /**
      * For a given customer, return a filtered subject list with only associated subjects
      *
-     * This method expands the subjects found in the customer subjectInfo list, and filters
-     * out subjects in the subjects argument that are not found in the customer subjectInfo.  This
-     * helps keep callers from getting database information not related to them.
+     * This method intersects the subjects argument with the customer's associated subjects
+     * (see getAssociatedSubjects()), filtering out subjects that are not found in the customer
+     * subjectInfo.  This helps keep callers from getting database information not related to them.
      * @param customer  the calling customer
      * @param subjects  the list of subjects they want to get information about
      * @return subjects the list of subjects they are associated with
      */
     public Set<String> filterByAssociatedSubjects(Customer customer, Set<String> subjects) {
 
-        SubjectInfo subjectInfo = customer.getSubjectInfo();
-        Set<String> associatedSubjects = new HashSet<String>(); // no dupes with a Set
-
-        if ( subjectInfo != null ) {
-            List<Group> groups = subjectInfo.getGroupList();
-            List<Person> persons = subjectInfo.getPersonList();
-
-            for (String subject : subjects ) {
-                // Check the groups list
-                for (Group group : groups) {
-                    if ( group.getSubject().getValue().equals(subject) ) {
-                        associatedSubjects.add(subject);
-                        break;
-                    }
-                }
-                // Check the persons list (equivalent identities)
-                for ( Person person : persons) {
-                    if ( person.getSubject().getValue().equals(subject) ) {
-                        associatedSubjects.add(subject);
-                        break;
-                    }
-                }
+        Set<String> associatedSubjects = getAssociatedSubjects(customer);
+        Set<String> filteredSubjects = new HashSet<String>(); // no dupes with a Set
 
+        for (String subject : subjects ) {
+            if ( associatedSubjects.contains(subject) ) {
+                filteredSubjects.add(subject);
             }
         }
-        return associatedSubjects;
+        return filteredSubjects;
     }
 
     /**
      * For a given customer, return all associated subjects
      *
-     * This method expands the subjects found in the customer subjectInfo list
+     * This method expands the subjects found in the customer subjectInfo list (groups and
+     * equivalent identities). The set is computed once per SubjectInfo instance, when the
+     * customer is authenticated, and is shared for as long as the principal is cached.
      * @param customer  the calling customer
-     * @return subjects the list of all subjects they are associated with
+     * @return subjects the unmodifiable set of all subjects they are associated with
      */
     public Set<String> getAssociatedSubjects(Customer customer) {
 
         SubjectInfo subjectInfo = customer.getSubjectInfo();
+        if ( subjectInfo == null ) {
+            return Collections.emptySet();
+        }
+        return this.associatedSubjectsIndex.get(subjectInfo, DataONEAuthHelper::indexSubjects);
+    }
+
+    /**
+     * Build the set of subjects associated with the subject information
+     * @param subjectInfo  the subject information
+     * @return subjects  the unmodifiable set of group and equivalent identity subjects
+     */
+    private static Set<String> indexSubjects(SubjectInfo subjectInfo) {
         Set<String> associatedSubjects = new HashSet<String>(); // no dupes with a Set
+        List<Group> groups = subjectInfo.getGroupList();
+        List<Person> persons = subjectInfo.getPersonList();
 
-        if ( subjectInfo != null ) {
-            List<Group> groups = subjectInfo.getGroupList();
-            List<Person> persons = subjectInfo.getPersonList();
-
-                // Add all associated groups
-                for (Group group : groups) {
-                    associatedSubjects.add(group.getSubject().getValue());
-                }
-                // Add all equivalent identities
-                for ( Person person : persons) {
-                    associatedSubjects.add(person.getSubject().getValue());
-                }
+        // Add all associated groups
+        if ( groups != null ) {
+            for (Group group : groups) {
+                associatedSubjects.add(group.getSubject().getValue());
+            }
+        }
+        // Add all equivalent identities
+        if ( persons != null ) {
+            for ( Person person : persons) {
+                associatedSubjects.add(person.getSubject().getValue());
+            }
         }
-        return associatedSubjects;
+        return Collections.unmodifiableSet(associatedSubjects);
     }
 }
@@ -22,6 +22,7 @@
 package org.dataone.bookkeeper.security;
 
 
+import com.nimbusds.jwt.JWTClaimsSet;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.auth.Authenticator;
 import org.apache.commons.logging.Log;
@@ -62,12 +63,12 @@ public class DataONEAuthenticator implements Authenticator<String, Customer> {
     @Override
     public Optional<Customer> authenticate(String token) throws AuthenticationException {
         Customer customer = null;
-        // Verify the token
-        boolean verified = this.dataoneAuthHelper.verify(token);
+        // Verify the token, keeping the parsed claims
+        JWTClaimsSet claims = this.dataoneAuthHelper.getTokenVerifier().verify(token);
 
-        if ( verified ) {
+        if ( claims != null ) {
             // Amend the Customer with SubjectInfo from the DataONE Identity service
-            customer = this.dataoneAuthHelper.getCustomerWithSubjectInfo(token);
+            customer = this.dataoneAuthHelper.getCustomerWithSubjectInfo(token, claims);
         }
         if ( customer != null ) {
             return Optional.of(customer);
@@ -0,0 +1,223 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.dataone.bookkeeper.security;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.exceptions.BaseException;
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.types.v1.SubjectInfo;
+
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A subject-keyed cache of SubjectInfo (groups and equivalent identities) from the
+ * DataONE Identity Service.
+ *
+ * Entries are shared by all tokens of a subject. The CN may return less to an anonymous
+ * caller than to the subject itself, so entries fetched with a token and entries fetched
+ * anonymously are kept apart, and an anonymous entry is never served to a token holder.
+ * Tokens are only used for the fetch they arrive with and aren't kept, so entries expire
+ * rather than being refreshed in the background. Subjects the CN doesn't know are cached
+ * for a shorter time, so repeated lookups don't reach the CN while a new subject is soon seen.
+ */
+public class SubjectInfoCache {
+
+    /* A logger for the class */
+    private Log log = LogFactory.getLog(SubjectInfoCache.class);
+
+    /* The default number of seconds an unknown subject is cached */
+    public static final long DEFAULT_NOT_FOUND_TTL_SECONDS = 60;
+
+    /* The maximum number of unknown subjects cached */
+    private static final long MAX_NOT_FOUND = 10000;
+
+    /**
+     * Fetches subject information from the Coordinating Node
+     */
+    @FunctionalInterface
+    public interface SubjectInfoFetcher {
+
+        /**
+         * Fetch the subject information for the subject
+         * @param token  the token used to call the CN, or null
+         * @param subject  the subject to look up
+         * @return subjectInfo  the subject information
+         * @throws BaseException  a DataONE exception from the CN
+         */
+        SubjectInfo fetch(String token, String subject) throws BaseException;
+    }
+
+    /**
+     * The cache key of a subject, and whether its information was fetched with a token
+     */
+    private static final class SubjectKey {
+
+        /* The subject */
+        private final String subject;
+
+        /* True if the subject information is fetched with a token */
+        private final boolean authenticated;
+
+        /**
+         * Construct a subject key
+         * @param subject  the subject
+         * @param authenticated  true if the subject information is fetched with a token
+         */
+        private SubjectKey(String subject, boolean authenticated) {
+            this.subject = subject;
+            this.authenticated = authenticated;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if ( this == other ) {
+                return true;
+            }
+            if ( ! (other instanceof SubjectKey) ) {
+                return false;
+            }
+            SubjectKey key = (SubjectKey) other;
+            return this.authenticated == key.authenticated && this.subject.equals(key.subject);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.subject, this.authenticated);
+        }
+    }
+
+    /* The fetcher of subject information from the CN */
+    private final SubjectInfoFetcher fetcher;
+
+    /* The cache of subject information */
+    private final Cache<SubjectKey, SubjectInfo> cache;
+
+    /* The cache of subjects the CN doesn't know */
+    private final Cache<SubjectKey, Boolean> notFound;
+
+    /**
+     * Construct a SubjectInfoCache
+     *
+     * @param fetcher  the fetcher of subject information from the CN
+     * @param cachePolicy  the Caffeine cache policy, without refreshAfterWrite
+     * @param notFoundTtlSeconds  the number of seconds an unknown subject is cached
+     * @param metrics  the metric registry for cache statistics
+     */
+    public SubjectInfoCache(SubjectInfoFetcher fetcher, CaffeineSpec cachePolicy,
+                            long notFoundTtlSeconds, MetricRegistry metrics) {
+        this(fetcher, cachePolicy, notFoundTtlSeconds, Ticker.systemTicker(), metrics);
+    }
+
+    /**
+     * Construct a SubjectInfoCache with the given time source
+     *
+     * @param fetcher  the fetcher of subject information from the CN
+     * @param cachePolicy  the Caffeine cache policy, without refreshAfterWrite
+     * @param notFoundTtlSeconds  the number of seconds an unknown subject is cached
+     * @param ticker  the time source of the caches
+     * @param metrics  the metric registry for cache statistics
+     */
+    SubjectInfoCache(SubjectInfoFetcher fetcher, CaffeineSpec cachePolicy,
+                     long notFoundTtlSeconds, Ticker ticker, MetricRegistry metrics) {
+        this.fetcher = fetcher;
+        this.cache = Caffeine.from(cachePolicy)
+            .ticker(ticker)
+            .recordStats()
+            .build();
+        this.notFound = Caffeine.newBuilder()
+            .maximumSize(MAX_NOT_FOUND)
+            .expireAfterWrite(notFoundTtlSeconds, TimeUnit.SECONDS)
+            .ticker(ticker)
+            .build();
+
+        metrics.register(MetricRegistry.name(SubjectInfoCache.class, "hits"),
+            (Gauge<Long>) () -> this.cache.stats().hitCount());
+        metrics.register(MetricRegistry.name(SubjectInfoCache.class, "misses"),
+            (Gauge<Long>) () -> this.cache.stats().missCount());
+        metrics.register(MetricRegistry.name(SubjectInfoCache.class, "hit-ratio"),
+            (Gauge<Double>) () -> this.cache.stats().hitRate());
+        metrics.register(MetricRegistry.name(SubjectInfoCache.class, "load-failures"),
+            (Gauge<Long>) () -> this.cache.stats().loadFailureCount());
+    }
+
+    /**
+     * Get the subject information for the subject, fetching it from the CN when not cached
+     *
+     * @param token  the token of the caller, or null to call the CN anonymously
+     * @param subject  the subject to look up
+     * @return subjectInfo  the subject information for the subject
+     * @throws BaseException  NotFound if the subject is unknown, or a CN exception
+     */
+    public SubjectInfo get(String token, String subject) throws BaseException {
+        SubjectKey key = new SubjectKey(subject, token != null);
+        if ( this.notFound.getIfPresent(key) != null ) {
+            throw new NotFound("0000", "The subject wasn't found: " + subject);
+        }
+
+        SubjectInfo subjectInfo;
+        try {
+            subjectInfo = this.cache.get(key, k -> {
+                try {
+                    return this.fetcher.fetch(token, subject);
+                } catch (BaseException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException ce) {
+            if ( ce.getCause() instanceof NotFound ) {
+                log.debug("Caching the unknown subject " + subject + ": " + ce.getCause().getMessage());
+                this.notFound.put(key, Boolean.TRUE);
+            }
+            if ( ce.getCause() instanceof BaseException ) {
+                throw (BaseException) ce.getCause();
+            }
+            throw ce;
+        }
+        if ( subjectInfo == null ) {
+            this.notFound.put(key, Boolean.TRUE);
+            throw new NotFound("0000", "The subject wasn't found: " + subject);
+        }
+        return subjectInfo;
+    }
+
+    /**
+     * Discard the cached subject information for the subject
+     * @param subject  the subject to discard
+     */
+    public void invalidate(String subject) {
+        for (boolean authenticated : new boolean[] {true, false}) {
+            SubjectKey key = new SubjectKey(subject, authenticated);
+            this.cache.invalidate(key);
+            this.notFound.invalidate(key);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.dataone.bookkeeper.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.dropwizard.auth.AuthenticationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.security.interfaces.RSAPublicKey;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Verifies DataONE JWT tokens locally against the Coordinating Node public key.
+ *
+ * A token is parsed once, and its signature and expiry are checked on the parsed
+ * instance. The verified claims are returned so callers don't need to parse the
+ * token again to get its subject. Signature verifiers are thread-safe and are
+ * reused for as long as the CN key they were built from is current.
+ */
+public class TokenVerifier {
+
+    /* A logger for the class */
+    private Log log = LogFactory.getLog(TokenVerifier.class);
+
+    /* The maximum number of verifiers kept, enough to span a CN key rotation */
+    static final int MAX_VERIFIERS = 4;
+
+    /* The provider of the cached Coordinating Node public key */
+    private final CNPublicKeyProvider cnPublicKeyProvider;
+
+    /* The reusable signature verifiers keyed by the public key they verify with */
+    private final ConcurrentMap<RSAPublicKey, JWSVerifier> verifiers =
+        new ConcurrentHashMap<RSAPublicKey, JWSVerifier>(MAX_VERIFIERS);
+
+    /**
+     * Construct a TokenVerifier
+     *
+     * @param cnPublicKeyProvider  the provider of the CN public key
+     */
+    public TokenVerifier(CNPublicKeyProvider cnPublicKeyProvider) {
+        this.cnPublicKeyProvider = cnPublicKeyProvider;
+    }
+
+    /**
+     * Verify the token's signature and expiry with the current CN public key
+     *
+     * @param token  the token to be verified
+     * @return claims  the verified claims of the token, or null if the token isn't valid
+     * @throws AuthenticationException  if the token can't be parsed or the key can't be fetched
+     */
+    public JWTClaimsSet verify(String token) throws AuthenticationException {
+        return verify(token, this.cnPublicKeyProvider.getPublicKey());
+    }
+
+    /**
+     * Verify the token's signature and expiry with the given public key
+     *
+     * @param token  the token to be verified
+     * @param publicKey  the public key the token should be signed with
+     * @return claims  the verified claims of the token, or null if the token isn't valid
+     * @throws AuthenticationException  if the token can't be parsed or verified
+     */
+    public JWTClaimsSet verify(String token, RSAPublicKey publicKey) throws AuthenticationException {
+        String message;
+        try {
+            SignedJWT signedJWT = SignedJWT.parse(token);
+            if ( ! signedJWT.verify(getVerifier(publicKey)) ) {
+                log.debug("Verifying token with public key: " + publicKey);
+                log.warn("Couldn't verify token with CN public key: " + token);
+                return null;
+            }
+
+            // If verified, check the expiration date
+            JWTClaimsSet claims = signedJWT.getJWTClaimsSet();
+            Date expiration = claims.getExpirationTime();
+            if ( expiration == null ) {
+                log.warn("The token has no expiration date: " + token);
+                return null;
+            }
+            if ( System.currentTimeMillis() > expiration.getTime() ) {
+                log.warn("The token has expired: " + expiration.toInstant());
+                return null;
+            }
+            return claims;
+
+        } catch (ParseException e) {
+            message = "Couldn't verify the token. " +
+                "The JWT library returned a parse exception: " + e.getMessage();
+            log.warn(message);
+            throw new AuthenticationException(message);
+        } catch (JOSEException je) {
+            message = "Couldn't verify the token. " +
+                "The JWT library returned an exception: " + je.getMessage();
+            log.warn(message);
+            throw new AuthenticationException(message);
+        }
+    }
+
+    /**
+     * Get the verifier for the given public key, building it on first use
+     *
+     * @param publicKey  the public key to verify with
+     * @return verifier  the reusable verifier for the key
+     */
+    private JWSVerifier getVerifier(RSAPublicKey publicKey) {
+        JWSVerifier verifier = this.verifiers.get(publicKey);
+        if ( verifier == null ) {
+            // Drop verifiers for keys that have been rotated out
+            if ( this.verifiers.size() >= MAX_VERIFIERS ) {
+                this.verifiers.clear();
+            }
+            verifier = this.verifiers.computeIfAbsent(publicKey, RSASSAVerifier::new);
+        }
+        return verifier;
+    }
+
+    /**
+     * Get the number of reusable verifiers currently kept
+     *
+     * @return count  the number of verifiers
+     */
+    int getVerifierCount() {
+        return this.verifiers.size();
+    }
+}
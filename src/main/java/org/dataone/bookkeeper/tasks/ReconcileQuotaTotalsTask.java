@@ -0,0 +1,75 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.tasks;
+
+import io.dropwizard.servlets.tasks.Task;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An admin task that recomputes the totalUsage of every quota from its usages.
+ * The usages triggers maintain the totals incrementally, so this corrects any drift,
+ * such as after usages are changed with the triggers disabled.
+ * Run it with POST /tasks/reconcile-quota-totals on the admin port.
+ */
+public class ReconcileQuotaTotalsTask extends Task {
+
+    /* The logging facility for this class */
+    private final Log log = LogFactory.getLog(ReconcileQuotaTotalsTask.class);
+
+    /* The jdbi database access reference, used to reconcile the totals in a transaction */
+    private final Jdbi database;
+
+    /**
+     * Construct the reconciliation task
+     * @param database  the jdbi database access reference
+     */
+    public ReconcileQuotaTotalsTask(Jdbi database) {
+        super("reconcile-quota-totals");
+        this.database = database;
+    }
+
+    /**
+     * Recompute the quota totals, reporting the number of corrected quotas. Usage writes are
+     * blocked while the totals are recomputed, as in the V1.15 migration, so none are lost.
+     * @param parameters  the task parameters, unused
+     * @param output  the task response writer
+     */
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        int corrected = this.database.inTransaction(handle -> {
+            QuotaStore quotaStore = handle.attach(QuotaStore.class);
+            quotaStore.lockUsages();
+            return quotaStore.reconcileTotalUsages();
+        });
+        if ( corrected > 0 ) {
+            log.warn("Corrected the totalUsage of " + corrected + " quotas.");
+        }
+        output.println("Corrected the totalUsage of " + corrected + " quotas.");
+    }
+}
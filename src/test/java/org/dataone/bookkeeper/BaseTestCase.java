@@ -27,14 +27,29 @@ import com.opentable.db.postgres.embedded.EmbeddedPostgres;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.jdbi3.JdbiFactory;
 import io.dropwizard.setup.Environment;
+import org.dataone.bookkeeper.helpers.CustomerHelper;
+import org.dataone.bookkeeper.helpers.OrderHelper;
+import org.dataone.bookkeeper.helpers.QuotaHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
 import org.eclipse.jetty.util.component.LifeCycle;
 import org.flywaydb.core.Flyway;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -65,6 +80,15 @@ public class BaseTestCase {
     /* The JDBI instance */
     public static Jdbi dbi;
 
+    /* The quotas inserted by insertTestQuota(), removed after each test */
+    private final List<Integer> testQuotaIds = new ArrayList<Integer>();
+
+    /* The orders inserted by the shared helpers, removed after each test */
+    private final List<Integer> testOrderIds = new ArrayList<Integer>();
+
+    /* The customers inserted by the shared helpers, removed after each test */
+    private final List<Integer> testCustomerIds = new ArrayList<Integer>();
+
     /**
      * Initialize test resources - start an embedded PostgreSQL database
      */
@@ -122,6 +146,93 @@ public class BaseTestCase {
         }
     }
 
+    /**
+     * Create a Jdbi instance that opens a connection per handle, for tests of concurrent
+     * transactions. The shared dbi has a single connection, which would serialize them.
+     * @return dbi  the Jdbi instance
+     */
+    protected static Jdbi createConcurrentDbi() {
+        return Jdbi.create(pg.getPostgresDatabase()).installPlugin(new SqlObjectPlugin());
+    }
+
+    /**
+     * Run the tasks concurrently, one thread each, starting them together
+     * @param tasks  the tasks to run
+     * @param <T>  the result type
+     * @return results  the result of each task, in the order of the tasks
+     * @throws Exception  the first exception thrown by a task
+     */
+    protected static <T> List<T> runConcurrently(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<T>();
+            for (Future<T> future : futures) {
+                results.add(future.get(2, TimeUnit.MINUTES));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Insert a test customer with an order. Both are removed after the test.
+     * @return orderId  the identifier of the inserted order
+     * @throws SQLException  if the customer can't be inserted
+     */
+    protected Integer insertTestOrder() throws SQLException {
+        Integer customerId = CustomerHelper.insertTestCustomer(StoreHelper.getRandomId());
+        this.testCustomerIds.add(customerId);
+        Integer orderId = OrderHelper.insertTestOrder(StoreHelper.getRandomId(), customerId);
+        this.testOrderIds.add(orderId);
+        return orderId;
+    }
+
+    /**
+     * Insert a test storage quota for a new test customer and order. The quota, order,
+     * and customer are removed after the test, after the subclass has removed its usages.
+     * @return quotaId  the identifier of the inserted quota
+     * @throws SQLException  if the records can't be inserted
+     */
+    protected Integer insertTestQuota() throws SQLException {
+        Integer quotaId = QuotaHelper.insertTestQuotaWithOrder(StoreHelper.getRandomId(), insertTestOrder());
+        this.testQuotaIds.add(quotaId);
+        return quotaId;
+    }
+
+    /**
+     * Remove the records inserted by the shared helpers
+     */
+    @AfterEach
+    public void removeTestRecords() {
+        try {
+            for (Integer quotaId : this.testQuotaIds) {
+                QuotaHelper.removeTestQuota(quotaId);
+            }
+            for (Integer customerId : this.testCustomerIds) {
+                CustomerHelper.removeTestCustomer(customerId);
+            }
+            for (Integer orderId : this.testOrderIds) {
+                OrderHelper.removeTestOrder(orderId);
+            }
+        } catch (SQLException e) {
+            fail(e);
+        } finally {
+            this.testQuotaIds.clear();
+            this.testCustomerIds.clear();
+            this.testOrderIds.clear();
+        }
+    }
+
     /**
      * Clean up after all tests as needed
      */
@@ -0,0 +1,207 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.dropwizard.jackson.Jackson;
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.OrderItem;
+import org.dataone.bookkeeper.helpers.OrderHelper;
+import org.dataone.bookkeeper.jdbi.mappers.OrderMapper;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare mapping order rows with a Jackson mapper built per row, as OrderMapper did
+ * before it shared its readers, with the current OrderMapper. The rows come from a
+ * synthetic result set so that only the mapping is measured, not the database.
+ *
+ * Run with the test classpath, e.g. from an IDE, or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.dataone.bookkeeper.benchmarks.OrderMapperBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OrderMapperBenchmark {
+
+    /* The number of order rows mapped per invocation */
+    private static final int ROW_COUNT = 10000;
+
+    /* The mapper under test, per-row for a mapper built per row, shared for OrderMapper */
+    @Param({"per-row", "shared"})
+    private String mapper;
+
+    /* The row mapper under test */
+    private RowMapper<Order> rowMapper;
+
+    /* A result set positioned on a synthetic order row */
+    private ResultSet resultSet;
+
+    /**
+     * Create the mapper under test and a result set holding a serialized test order
+     * @throws IOException  if the test order can't be serialized
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.rowMapper = "shared".equals(this.mapper) ? new OrderMapper() : new PerRowOrderMapper();
+
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        Order order = OrderHelper.createTestOrder(1, 1, 1, 1);
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("o_id", order.getId());
+        row.put("o_object", order.getObject());
+        row.put("o_amount", order.getAmount());
+        row.put("o_amountReturned", order.getAmountReturned());
+        row.put("o_charge", mapper.writeValueAsString(order.getCharge()));
+        row.put("o_created", order.getCreated());
+        row.put("o_currency", order.getCurrency());
+        row.put("o_subject", order.getSubject());
+        row.put("o_customer", order.getCustomer());
+        row.put("o_email", order.getEmail());
+        row.put("o_items", mapper.writeValueAsString(order.getItems()));
+        row.put("o_metadata", mapper.writeValueAsString(order.getMetadata()));
+        row.put("o_name", order.getName());
+        row.put("o_status", order.getStatus());
+        row.put("o_statusTransitions", mapper.writeValueAsString(order.getStatusTransitions()));
+        row.put("o_updated", order.getUpdated());
+        row.put("o_seriesId", order.getSeriesId());
+        row.put("o_startDate", order.getStartDate());
+        row.put("o_endDate", order.getEndDate());
+
+        // Only the getters the mapper calls are needed
+        this.resultSet = (ResultSet) Proxy.newProxyInstance(
+            ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+            (proxy, method, args) -> {
+                Object value = row.get((String) args[0]);
+                if ( "getInt".equals(method.getName()) ) {
+                    return value == null ? 0 : (Integer) value;
+                }
+                return value;
+            });
+    }
+
+    /**
+     * Map the synthetic order row ROW_COUNT times, as when listing orders
+     * @param blackhole  the sink for the mapped orders
+     * @throws SQLException  if an order can't be mapped
+     */
+    @Benchmark
+    public void mapOrders(Blackhole blackhole) throws SQLException {
+        for (int i = 0; i < ROW_COUNT; i++) {
+            blackhole.consume(this.rowMapper.map(this.resultSet, null));
+        }
+    }
+
+    /**
+     * Run the benchmarks
+     * @param args  unused
+     * @throws RunnerException  if the benchmarks fail to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(OrderMapperBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Maps order rows with a Jackson mapper built per row, reading each item from its
+     * re-serialized JSON, as OrderMapper did before it shared its readers
+     */
+    private static class PerRowOrderMapper implements RowMapper<Order> {
+
+        @Override
+        public Order map(ResultSet rs, StatementContext ctx) throws SQLException {
+            ObjectMapper mapper = Jackson.newObjectMapper();
+            List<OrderItem> items = new LinkedList<OrderItem>();
+            try {
+                ArrayNode itemsArray = (ArrayNode) mapper.readTree(rs.getString("o_items"));
+                Iterator<JsonNode> iterator = itemsArray.elements();
+                while ( iterator.hasNext() ) {
+                    ObjectNode item = (ObjectNode) iterator.next();
+                    items.add(mapper.readValue(item.toString(), OrderItem.class));
+                }
+                return new Order(
+                    rs.getInt("o_id"),
+                    rs.getString("o_object"),
+                    rs.getInt("o_amount"),
+                    rs.getInt("o_amountReturned"),
+                    rs.getString("o_charge") != null ?
+                        (ObjectNode) mapper.readTree(rs.getString("o_charge")) : null,
+                    rs.getInt("o_created"),
+                    rs.getString("o_currency"),
+                    rs.getString("o_subject"),
+                    rs.getInt("o_customer"),
+                    rs.getString("o_email"),
+                    items,
+                    rs.getString("o_metadata") != null ?
+                        (ObjectNode) mapper.readTree(rs.getString("o_metadata")) : null,
+                    rs.getString("o_name"),
+                    rs.getString("o_status"),
+                    rs.getString("o_statusTransitions") != null ?
+                        (ObjectNode) mapper.readTree(rs.getString("o_statusTransitions")) : null,
+                    rs.getInt("o_updated"),
+                    rs.getString("o_seriesId"),
+                    rs.getInt("o_startDate"),
+                    rs.getInt("o_endDate"),
+                    null
+                );
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.benchmarks;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import io.dropwizard.jackson.Jackson;
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.helpers.OrderHelper;
+import org.dataone.bookkeeper.jdbi.OrderQuotasReducer;
+import org.dataone.bookkeeper.jdbi.OrderStore;
+import org.dataone.bookkeeper.jdbi.mappers.OrderMapper;
+import org.dataone.bookkeeper.jdbi.mappers.OrderQuotasMapper;
+import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.mapper.reflect.BeanMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compare listing orders by joining the quotas table and reducing the rows with
+ * OrderQuotasReducer, one row per quota, with aggregating the quotas of each order
+ * into a JSON array mapped by OrderQuotasMapper, one row per order, against the same
+ * embedded Postgres used by BaseTestCase.
+ *
+ * Run with the test classpath, e.g. from an IDE, or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.dataone.bookkeeper.benchmarks.OrderQuotasBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OrderQuotasBenchmark {
+
+    /* The number of orders listed */
+    private static final int ORDER_COUNT = 1000;
+
+    /* The number of quotas of each order */
+    @Param({"1", "4"})
+    private int quotasPerOrder;
+
+    /* The embedded database */
+    private EmbeddedPostgres pg;
+
+    /* The JDBI instance */
+    private Jdbi dbi;
+
+    /**
+     * Start the embedded database, migrate it, and insert the orders with their quotas
+     * @throws IOException  if the database can't be started or the test order serialized
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.pg = EmbeddedPostgres.builder()
+            .setServerConfig("fsync", "off")
+            .setServerConfig("full_page_writes", "off")
+            .start();
+        Flyway.configure()
+            .dataSource(this.pg.getPostgresDatabase())
+            .locations("filesystem:helm/db/migrations")
+            .load()
+            .migrate();
+        this.dbi = Jdbi.create(this.pg.getPostgresDatabase());
+
+        Order order = OrderHelper.createTestOrder(1, 1, 1, 1);
+        String items = Jackson.newObjectMapper().writeValueAsString(order.getItems());
+        this.dbi.useHandle(handle -> {
+            Integer customerId = handle.createQuery(
+                "INSERT INTO customers (object, subject) " +
+                "VALUES ('customer', 'http://orcid.org/0000-0000-0000-0000') RETURNING id")
+                .mapTo(Integer.class)
+                .one();
+            handle.execute("INSERT INTO orders (object, amount, charge, created, currency, customer, " +
+                "subject, email, items, metadata, name, status, statusTransitions, updated) " +
+                "SELECT 'order', 50000, ?::jsonb, now(), 'USD', ?, subject, email, ?::jsonb, " +
+                "'{}'::jsonb, 'DataONE Order # ' || i, 'paid', ?::jsonb, now() " +
+                "FROM generate_series(1, ?) i, customers WHERE customers.id = ?",
+                order.getChargeJSON(), customerId, items, order.getStatusTransitionsJSON(),
+                ORDER_COUNT, customerId);
+            handle.execute("INSERT INTO quotas (object, quotaType, softLimit, hardLimit, totalUsage, " +
+                "unit, orderId, subject) " +
+                "SELECT 'quota', 'quota' || j, 1000, 1000, 0, 'quota', o.id, o.subject " +
+                "FROM orders o, generate_series(1, ?) j", this.quotasPerOrder);
+        });
+    }
+
+    /**
+     * Stop the embedded database
+     * @throws IOException  if the database can't be stopped
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        this.pg.close();
+    }
+
+    /**
+     * List the orders joined with their quotas, reducing the rows of each order
+     * @return orders  the listed orders
+     */
+    @Benchmark
+    public List<Order> listJoinedOrders() {
+        return this.dbi.withHandle(handle ->
+            handle.createQuery(OrderStore.SELECT_ALL)
+                .registerRowMapper(new OrderMapper())
+                .registerRowMapper(BeanMapper.factory(Quota.class, "q"))
+                .reduceRows(new OrderQuotasReducer())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * List the orders with their aggregated quotas, one row per order
+     * @return orders  the listed orders
+     */
+    @Benchmark
+    public List<Order> listAggregatedOrders() {
+        return this.dbi.withHandle(handle ->
+            handle.createQuery(OrderStore.SELECT_AGGREGATED_CLAUSE + OrderStore.ORDER_CLAUSE)
+                .map(new OrderQuotasMapper())
+                .list());
+    }
+
+    /**
+     * Run the benchmarks
+     * @param args  unused
+     * @throws RunnerException  if the benchmarks fail to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(OrderQuotasBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
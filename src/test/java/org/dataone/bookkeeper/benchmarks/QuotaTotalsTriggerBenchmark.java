@@ -0,0 +1,146 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.benchmarks;
+
+import com.opentable.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the row-level quota totals triggers (migration V1.15) with the statement-level
+ * triggers (V1.16) when inactivating every usage of a quota in one statement, against
+ * the same embedded Postgres used by BaseTestCase. Each update is rolled back so that
+ * every invocation inactivates the same active usages.
+ *
+ * Run with the test classpath, e.g. from an IDE, or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.dataone.bookkeeper.benchmarks.QuotaTotalsTriggerBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QuotaTotalsTriggerBenchmark {
+
+    /* The migration to migrate to, 1.15 for row-level and latest for statement-level triggers */
+    @Param({"1.15", "latest"})
+    private String migration;
+
+    /* The number of usages of the quota */
+    @Param({"1000", "5000"})
+    private int usageCount;
+
+    /* The embedded database */
+    private EmbeddedPostgres pg;
+
+    /* The JDBI instance */
+    private Jdbi dbi;
+
+    /* The quota of the usages */
+    private Integer quotaId;
+
+    /**
+     * Start the embedded database, migrate it, and insert a quota with its usages
+     * @throws IOException  if the database can't be started
+     */
+    @Setup
+    public void setUp() throws IOException {
+        this.pg = EmbeddedPostgres.builder()
+            .setServerConfig("fsync", "off")
+            .setServerConfig("full_page_writes", "off")
+            .start();
+        Flyway.configure()
+            .dataSource(this.pg.getPostgresDatabase())
+            .locations("filesystem:helm/db/migrations")
+            .target(this.migration)
+            .load()
+            .migrate();
+        this.dbi = Jdbi.create(this.pg.getPostgresDatabase());
+
+        this.quotaId = this.dbi.withHandle(handle ->
+            handle.createQuery("INSERT INTO quotas (object, quotaType, softLimit, hardLimit, unit) " +
+                "VALUES ('quota', 'portal', 1, 1, 'portal') RETURNING id")
+                .mapTo(Integer.class)
+                .one());
+        this.dbi.useHandle(handle ->
+            handle.execute("INSERT INTO usages (object, quotaId, instanceId, quantity, status, nodeId) " +
+                "SELECT 'usage', ?, 'urn:uuid:' || i, 1.0, 'active', 'urn:node:benchmark' " +
+                "FROM generate_series(1, ?) i", this.quotaId, this.usageCount));
+    }
+
+    /**
+     * Stop the embedded database
+     * @throws IOException  if the database can't be stopped
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        this.pg.close();
+    }
+
+    /**
+     * Inactivate every usage of the quota, as when a portal is deactivated, then roll back
+     * @return count  the number of inactivated usages
+     */
+    @Benchmark
+    public int inactivateQuotaUsages() {
+        return this.dbi.withHandle(handle -> {
+            handle.begin();
+            int count = handle.execute(
+                "UPDATE usages SET status = 'inactive' WHERE quotaId = ?", this.quotaId);
+            handle.rollback();
+            return count;
+        });
+    }
+
+    /**
+     * Run the benchmarks
+     * @param args  unused
+     * @throws RunnerException  if the benchmarks fail to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(QuotaTotalsTriggerBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.dataone.bookkeeper.benchmarks;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.dataone.bookkeeper.security.TokenVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the token verification path used before TokenVerifier existed
+ * (DataONEAuthHelper.verify() followed by getTokenSubject()) with TokenVerifier.
+ *
+ * Run with the test classpath, e.g. from an IDE, or:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.dataone.bookkeeper.benchmarks.TokenVerificationBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenVerificationBenchmark {
+
+    /* The public key standing in for the CN public key */
+    private RSAPublicKey publicKey;
+
+    /* A signed token that hasn't expired */
+    private String token;
+
+    /* The verifier under test */
+    private TokenVerifier tokenVerifier;
+
+    /**
+     * Sign a token with a generated key pair
+     * @throws Exception if the token can't be signed
+     */
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        this.publicKey = (RSAPublicKey) keyPair.getPublic();
+
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+            .subject("http://orcid.org/0000-0002-8121-2341")
+            .expirationTime(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+            .build();
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256), claims);
+        signedJWT.sign(new RSASSASigner(keyPair.getPrivate()));
+        this.token = signedJWT.serialize();
+
+        // The key is passed in directly, so no key provider is needed
+        this.tokenVerifier = new TokenVerifier(null);
+    }
+
+    /**
+     * The previous path: parse and verify with a new verifier, compare expiry with
+     * ZonedDateTimes, then parse the token again to get the subject
+     * @return subject  the token subject
+     * @throws Exception  if the token can't be parsed or verified
+     */
+    @Benchmark
+    public String legacyVerifyAndGetSubject() throws Exception {
+        SignedJWT signedJWT = SignedJWT.parse(this.token);
+        JWSVerifier jwsVerifier = new RSASSAVerifier(this.publicKey);
+        if ( ! signedJWT.verify(jwsVerifier) ) {
+            return null;
+        }
+        ZonedDateTime now = ZonedDateTime.ofInstant(Instant.now(), ZoneId.of("UTC"));
+        ZonedDateTime expiration =
+            ZonedDateTime.ofInstant(
+                signedJWT.getJWTClaimsSet().getExpirationTime().toInstant(),
+                ZoneId.of("UTC")
+            );
+        if ( now.isAfter(expiration) ) {
+            return null;
+        }
+        return SignedJWT.parse(this.token).getJWTClaimsSet().getSubject();
+    }
+
+    /**
+     * The TokenVerifier path: parse once, reuse the verifier, return the claims
+     * @return subject  the token subject
+     * @throws Exception  if the token can't be parsed or verified
+     */
+    @Benchmark
+    public String tokenVerifierVerify() throws Exception {
+        JWTClaimsSet claims = this.tokenVerifier.verify(this.token, this.publicKey);
+        return claims == null ? null : claims.getSubject();
+    }
+
+    /**
+     * Run the benchmarks
+     * @param args  unused
+     * @throws RunnerException  if the benchmarks fail to run
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(TokenVerificationBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
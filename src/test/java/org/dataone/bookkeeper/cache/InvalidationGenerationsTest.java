@@ -0,0 +1,107 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the tracking and pruning of cache invalidations
+ */
+public class InvalidationGenerationsTest {
+
+    /* The number of nanoseconds invalidations are retained */
+    private static final long RETENTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /* The time source of the generations under test */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /* The generations under test */
+    private InvalidationGenerations<String> generations;
+
+    /**
+     * Build the generations with a fake time source
+     */
+    @BeforeEach
+    void setUp() {
+        generations = new InvalidationGenerations<String>(RETENTION_NANOS, nanos::get);
+    }
+
+    /**
+     * Test only entries loaded before an invalidation of their key are stale
+     */
+    @Test
+    @DisplayName("Test entries loaded before an invalidation are stale")
+    public void testIsStale() {
+        long before = generations.current();
+        generations.invalidate("a");
+        long after = generations.current();
+        assertTrue(generations.isStale("a", before));
+        assertFalse(generations.isStale("a", after));
+        assertFalse(generations.isStale("b", before));
+    }
+
+    /**
+     * Test the retained invalidations are bounded by those of one retention period, and
+     * entries made stale by pruned invalidations stay stale
+     */
+    @Test
+    @DisplayName("Test invalidations are pruned after the retention")
+    public void testPruned() {
+        long before = generations.current();
+        for (int i = 0; i < 1000; i++) {
+            generations.invalidate("key-" + i);
+        }
+        assertEquals(1000, generations.size());
+
+        nanos.addAndGet(RETENTION_NANOS + 1);
+        long loaded = generations.current();
+        generations.invalidate("key-new");
+        assertEquals(1, generations.size());
+        assertTrue(generations.isStale("key-0", before));
+        assertTrue(generations.isStale("key-new", loaded));
+        assertFalse(generations.isStale("key-0", loaded));
+        assertFalse(generations.isStale("key-0", generations.current()));
+    }
+
+    /**
+     * Test the retention follows the cache's expireAfterWrite
+     */
+    @Test
+    @DisplayName("Test the retention of a cache is its expireAfterWrite")
+    public void testRetentionNanos() {
+        assertEquals(TimeUnit.SECONDS.toNanos(10), InvalidationGenerations.retentionNanos(
+            Caffeine.from(CaffeineSpec.parse("maximumSize=10, expireAfterWrite=10s")).build()));
+        assertEquals(InvalidationGenerations.DEFAULT_RETENTION_NANOS, InvalidationGenerations.retentionNanos(
+            Caffeine.from(CaffeineSpec.parse("maximumSize=10")).build()));
+    }
+}
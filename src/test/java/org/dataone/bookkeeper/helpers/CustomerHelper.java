@@ -66,14 +66,14 @@ public class CustomerHelper {
                     "?, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
+                    "?::jsonb, " +
                     "to_timestamp(?), ?, ?, " +
                     "?, " +
-                    "?::json, " +
+                    "?::jsonb, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
-                    "?::json, " +
+                    "?::jsonb, " +
+                    "?::jsonb, " +
                     "?, " +
                     "?, " +
                     "?)",
@@ -133,16 +133,16 @@ public class CustomerHelper {
                     "?, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
+                    "?::jsonb, " +
                     "to_timestamp(?), " +
                     "?, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
+                    "?::jsonb, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
-                    "?::json, " +
+                    "?::jsonb, " +
+                    "?::jsonb, " +
                     "?, " +
                     "?, " +
                     "?)",
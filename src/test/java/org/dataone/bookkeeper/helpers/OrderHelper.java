@@ -241,17 +241,17 @@ public class OrderHelper {
                     "?, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
+                    "?::jsonb, " +
                     "to_timestamp(?), " +
                     "?, " +
                     "?, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
-                    "?::json, " +
+                    "?::jsonb, " +
+                    "?::jsonb, " +
                     "?, " +
                     "?, " +
-                    "?::json, " +
+                    "?::jsonb, " +
                     "to_timestamp(?), " +
                     "?, " +
                     "to_timestamp(?), " +
@@ -317,17 +317,17 @@ public class OrderHelper {
                         "?, " +
                         "?, " +
                         "?, " +
-                        "?::json, " +
+                        "?::jsonb, " +
                         "to_timestamp(?), " +
                         "?, " +
                         "?, " +
                         "?, " +
                         "?, " +
-                        "?::json, " +
-                        "?::json, " +
+                        "?::jsonb, " +
+                        "?::jsonb, " +
                         "?, " +
                         "?, " +
-                        "?::json, " +
+                        "?::jsonb, " +
                         "to_timestamp(?), " +
                         "?, " +
                         "to_timestamp(?), " +
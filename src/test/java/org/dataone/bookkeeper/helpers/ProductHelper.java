@@ -193,7 +193,7 @@ public class ProductHelper {
                     "unitLabel, " +
                     "url, " +
                     "metadata) VALUES " +
-                    "(?, ?, ?, ?, ?, to_timestamp(?), ?, ?, ?, ?, ?, ?, ?, ?, ?::json)",
+                    "(?, ?, ?, ?, ?, to_timestamp(?), ?, ?, ?, ?, ?, ?, ?, ?, ?::jsonb)",
                     product.getId(),
                     product.getObject(),
                     product.isActive(),
@@ -242,7 +242,7 @@ public class ProductHelper {
                         "unitLabel, " +
                         "url, " +
                         "metadata) VALUES " +
-                        "(?, ?, ?, ?, ?, to_timestamp(?), ?, ?, ?, ?, ?, ?, ?, ?, ?::json)",
+                        "(?, ?, ?, ?, ?, to_timestamp(?), ?, ?, ?, ?, ?, ?, ?, ?, ?::jsonb)",
                     product.getId(),
                     product.getObject(),
                     product.isActive(),
@@ -0,0 +1,127 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.helpers;
+
+import io.dropwizard.auth.AuthDynamicFeature;
+import io.dropwizard.auth.AuthValueFactoryProvider;
+import io.dropwizard.auth.oauth.OAuthCredentialAuthFilter;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.dataone.bookkeeper.api.Customer;
+import org.dataone.bookkeeper.config.DataONEConfiguration;
+import org.dataone.bookkeeper.security.DataONEAuthHelper;
+import org.dataone.bookkeeper.security.DataONEAuthorizer;
+import org.dataone.service.types.v1.Group;
+import org.dataone.service.types.v1.Person;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
+
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * Build in-memory Jersey resources authenticated with fixed test tokens
+ */
+public class ResourceHelper {
+
+    /* The subject of the admin caller */
+    public static final String ADMIN_SUBJECT = "CN=test-admin,DC=dataone,DC=org";
+
+    /* The subject of the non-admin caller */
+    public static final String USER_SUBJECT = "http://orcid.org/0000-0000-0000-0001";
+
+    /* The subject of a group the non-admin caller is a member of */
+    public static final String GROUP_SUBJECT = "CN=test-group,DC=dataone,DC=org";
+
+    /* The bearer authorization header value of the admin caller */
+    public static final String ADMIN_AUTHORIZATION = "Bearer admin-token";
+
+    /* The bearer authorization header value of the non-admin caller */
+    public static final String USER_AUTHORIZATION = "Bearer user-token";
+
+    /**
+     * Create a DataONE auth helper that knows the admin subject and doesn't call the CN
+     * @return dataoneAuthHelper  the auth helper
+     */
+    public static DataONEAuthHelper createAuthHelper() {
+        DataONEConfiguration configuration = new DataONEConfiguration();
+        configuration.setAdminSubjects(Collections.singletonList(ADMIN_SUBJECT));
+        configuration.setBookkeeperAdminSubjects(Collections.singletonList(ADMIN_SUBJECT));
+        DataONEAuthHelper dataoneAuthHelper = new DataONEAuthHelper();
+        dataoneAuthHelper.setConfiguration(configuration);
+        return dataoneAuthHelper;
+    }
+
+    /**
+     * Create an in-memory resource extension. The "admin-token" bearer token authenticates
+     * the admin caller and "user-token" the non-admin caller; other tokens are rejected.
+     * @param dataoneAuthHelper  the auth helper of the resource
+     * @param resource  the resource under test
+     * @return resources  the resource extension
+     */
+    public static ResourceExtension createResourceExtension(
+        DataONEAuthHelper dataoneAuthHelper, Object resource) {
+        return ResourceExtension.builder()
+            .addProvider(RolesAllowedDynamicFeature.class)
+            .addProvider(new AuthDynamicFeature(
+                new OAuthCredentialAuthFilter.Builder<Customer>()
+                    .setAuthenticator(token -> {
+                        if ( "admin-token".equals(token) ) {
+                            return Optional.of(createCaller(ADMIN_SUBJECT));
+                        } else if ( "user-token".equals(token) ) {
+                            return Optional.of(createCaller(USER_SUBJECT));
+                        }
+                        return Optional.empty();
+                    })
+                    .setAuthorizer(new DataONEAuthorizer(dataoneAuthHelper))
+                    .setPrefix("Bearer")
+                    .buildAuthFilter()))
+            .addProvider(new AuthValueFactoryProvider.Binder<>(Customer.class))
+            .addResource(resource)
+            .build();
+    }
+
+    /**
+     * Create an authenticated caller. The non-admin caller is a member of GROUP_SUBJECT.
+     * @param subject  the subject of the caller
+     * @return customer  the caller
+     */
+    private static Customer createCaller(String subject) {
+        Customer customer = new Customer();
+        customer.setSubject(subject);
+        if ( USER_SUBJECT.equals(subject) ) {
+            Subject groupSubject = new Subject();
+            groupSubject.setValue(GROUP_SUBJECT);
+            Group group = new Group();
+            group.setSubject(groupSubject);
+            Subject personSubject = new Subject();
+            personSubject.setValue(USER_SUBJECT);
+            Person person = new Person();
+            person.setSubject(personSubject);
+            SubjectInfo subjectInfo = new SubjectInfo();
+            subjectInfo.addGroup(group);
+            subjectInfo.addPerson(person);
+            customer.setSubjectInfo(subjectInfo);
+        }
+        return customer;
+    }
+}
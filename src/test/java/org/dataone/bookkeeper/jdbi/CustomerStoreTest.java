@@ -35,9 +35,12 @@ import org.junit.jupiter.api.Test;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -145,6 +148,43 @@ public class CustomerStoreTest extends BaseTestCase {
         assertTrue(customer.getId().equals(expectedCustomer.getId()));
     }
 
+    /**
+     * Test finding customers by subject identifiers in one query
+     * @throws SQLException
+     * @throws JsonProcessingException
+     */
+    @Test
+    @DisplayName("Test finding customers by subject identifiers")
+    public void testFindCustomersBySubjects() throws SQLException, JsonProcessingException {
+        List<Customer> expected = insertTestCustomers(2);
+
+        List<Customer> customers = customerStore.findCustomersBySubjects(Arrays.asList(
+            expected.get(0).getSubject(), expected.get(1).getSubject(), "http://orcid.org/missing"));
+        assertEquals(2, customers.size());
+        assertEquals(expected.get(0).getId(), customers.get(0).getId());
+        assertEquals(expected.get(1).getId(), customers.get(1).getId());
+    }
+
+    /**
+     * Insert test customers with distinct subjects. They are removed after the test.
+     * @param count  the number of customers
+     * @return customers  the inserted customers, ordered by identifier
+     * @throws SQLException
+     * @throws JsonProcessingException
+     */
+    private List<Customer> insertTestCustomers(int count) throws SQLException, JsonProcessingException {
+        List<Customer> customers = new ArrayList<Customer>();
+        for (int i = 0; i < count; i++) {
+            Customer customer = CustomerHelper.createCustomer(StoreHelper.getRandomId());
+            customer.setSubject("http://orcid.org/0000-0000-0000-" + customer.getId());
+            customer.setEmail(customer.getId() + "@example.com");
+            customers.add(CustomerHelper.insertTestCustomer(customer));
+            this.customerIds.add(customer.getId());
+        }
+        customers.sort(Comparator.comparing(Customer::getId));
+        return customers;
+    }
+
     /**
      * Test inserting a customer
      */
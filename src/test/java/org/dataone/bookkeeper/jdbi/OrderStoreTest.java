@@ -25,9 +25,12 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import org.dataone.bookkeeper.BaseTestCase;
 import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.Quota;
 import org.dataone.bookkeeper.helpers.CustomerHelper;
 import org.dataone.bookkeeper.helpers.StoreHelper;
 import org.dataone.bookkeeper.helpers.OrderHelper;
+import org.dataone.bookkeeper.helpers.QuotaHelper;
+import org.dataone.bookkeeper.jdbi.mappers.OrderQuotasMapper;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -37,6 +40,7 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -131,6 +135,41 @@ public class OrderStoreTest extends BaseTestCase {
         }
     }
 
+    /**
+     * Test getting an order returns its quotas, and the aggregated query maps the same order
+     */
+    @Test
+    @DisplayName("Test getting an order with quotas")
+    public void testGetOrderWithQuotas() {
+        try {
+            // Insert a new customer with an order with storage and portal quotas
+            Integer customerId = CustomerHelper.insertTestCustomer(StoreHelper.getRandomId());
+            this.customerIds.add(customerId);
+            Integer orderId = OrderHelper.insertTestOrder(StoreHelper.getRandomId(), customerId);
+            this.orderIds.add(orderId);
+            QuotaHelper.insertTestStorageAndPortalQuotasWithOrder(
+                StoreHelper.getRandomId(), StoreHelper.getRandomId(), orderId);
+
+            Order expected = OrderHelper.getTestOrderById(orderId);
+            expected.getQuotas().sort(Comparator.comparing(Quota::getId));
+            Order order = orderStore.getOrder(orderId);
+            // The joined query leaves the quota order to the database
+            order.getQuotas().sort(Comparator.comparing(Quota::getId));
+
+            assertEquals(2, order.getQuotas().size());
+            assertEquals(expected, order);
+
+            Order aggregated = dbi.withHandle(handle ->
+                handle.createQuery(OrderStore.SELECT_AGGREGATED_CLAUSE + "WHERE o.id = :id")
+                    .bind("id", orderId)
+                    .map(new OrderQuotasMapper())
+                    .one());
+            assertEquals(expected, aggregated);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
     /**
      * Test getting orders by customer id
      */
@@ -187,6 +226,41 @@ public class OrderStoreTest extends BaseTestCase {
         }
     }
 
+    /**
+     * Test getting orders by product id
+     */
+    @Test
+    @DisplayName("Test getting orders by product id")
+    public void testFindOrdersByProductId() {
+        try {
+            // Insert a new customer
+            Integer customerId = CustomerHelper.insertTestCustomer(StoreHelper.getRandomId());
+            this.customerIds.add(customerId);
+
+            // Insert orders for two different products
+            Integer productId = StoreHelper.getRandomId();
+            Order expected = OrderHelper.createTestOrder(StoreHelper.getRandomId(),
+                customerId, StoreHelper.getRandomId(), StoreHelper.getRandomId());
+            expected.getItems().get(0).setParent(productId);
+            OrderHelper.insertTestOrder(expected);
+            this.orderIds.add(expected.getId());
+
+            Order other = OrderHelper.createTestOrder(StoreHelper.getRandomId(),
+                customerId, StoreHelper.getRandomId(), StoreHelper.getRandomId());
+            other.getItems().get(0).setParent(productId + 1);
+            OrderHelper.insertTestOrder(other);
+            this.orderIds.add(other.getId());
+
+            // Get orders for the given product id
+            List<Order> orders = orderStore.findOrdersByProductId(productId);
+            assertEquals(1, orders.size());
+            assertEquals(expected.getId(), orders.get(0).getId());
+            assertEquals(productId, orders.get(0).getItems().get(0).getParent());
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
     /**
      * Test inserting an order
      */
@@ -290,4 +364,87 @@ public class OrderStoreTest extends BaseTestCase {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Test paging orders by customer id when each order has several quotas
+     */
+    @Test
+    @DisplayName("Test paging orders by customer id")
+    public void testFindOrdersPageByCustomerId() {
+        try {
+            // Insert a new customer
+            Integer customerId = CustomerHelper.insertTestCustomer(StoreHelper.getRandomId());
+            this.customerIds.add(customerId);
+
+            // Insert two orders, each with storage and portal quotas
+            List<Integer> ids = new ArrayList<Integer>();
+            for (int i = 0; i < 2; i++) {
+                Integer orderId = OrderHelper.insertTestOrder(StoreHelper.getRandomId(), customerId);
+                this.orderIds.add(orderId);
+                ids.add(orderId);
+                QuotaHelper.insertTestStorageAndPortalQuotasWithOrder(
+                    StoreHelper.getRandomId(), StoreHelper.getRandomId(), orderId);
+            }
+            Collections.sort(ids);
+
+            // The page size counts orders, not joined quota rows
+            List<Order> page = orderStore.findOrdersPageByCustomerId(customerId, 0, 0, 1);
+            assertEquals(1, page.size());
+            assertEquals(ids.get(0), page.get(0).getId());
+            assertEquals(2, page.get(0).getQuotas().size());
+
+            page = orderStore.findOrdersPageByCustomerId(customerId, page.get(0).getId(), 0, 1);
+            assertEquals(1, page.size());
+            assertEquals(ids.get(1), page.get(0).getId());
+
+            assertEquals(2, orderStore.countOrdersByCustomerId(customerId).intValue());
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test streaming orders groups the quotas of each order
+     */
+    @Test
+    @DisplayName("Test streaming the orders")
+    public void testStreamOrders() {
+        try {
+            // Insert a new customer with two orders, each with storage and portal quotas
+            Integer customerId = CustomerHelper.insertTestCustomer(StoreHelper.getRandomId());
+            this.customerIds.add(customerId);
+            List<Integer> ids = new ArrayList<Integer>();
+            for (int i = 0; i < 2; i++) {
+                Integer orderId = OrderHelper.insertTestOrder(StoreHelper.getRandomId(), customerId);
+                this.orderIds.add(orderId);
+                ids.add(orderId);
+                QuotaHelper.insertTestStorageAndPortalQuotasWithOrder(
+                    StoreHelper.getRandomId(), StoreHelper.getRandomId(), orderId);
+            }
+
+            // Each order is streamed once, in id order, with all of its quotas
+            List<Order> streamed = dbi.inTransaction(handle -> {
+                List<Order> orders = new ArrayList<Order>();
+                try ( OrderQuotasIterator iterator = OrderQuotasIterator.streamOrders(handle) ) {
+                    while ( iterator.hasNext() ) {
+                        orders.add(iterator.next());
+                    }
+                }
+                return orders;
+            });
+            Integer previous = Integer.MIN_VALUE;
+            int found = 0;
+            for (Order order : streamed) {
+                assertTrue(order.getId() > previous);
+                previous = order.getId();
+                if ( ids.contains(order.getId()) ) {
+                    assertEquals(2, order.getQuotas().size());
+                    found++;
+                }
+            }
+            assertEquals(2, found);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.jdbi;
+
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.api.Product;
+import org.dataone.bookkeeper.helpers.ProductHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the in-memory product catalog
+ */
+public class ProductCatalogTest extends BaseTestCase {
+
+    /* The products inserted by a test, removed after it */
+    private final List<Integer> productIds = new ArrayList<Integer>();
+
+    /**
+     * Remove the products inserted by a test
+     */
+    @AfterEach
+    public void tearDown() {
+        for (Integer productId : this.productIds) {
+            try {
+                ProductHelper.removeTestProduct(productId);
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Insert a test product
+     * @return productId  the product identifier
+     */
+    private Integer insertTestProduct() {
+        Integer productId = ProductHelper.insertTestProduct(StoreHelper.getRandomId());
+        this.productIds.add(productId);
+        return productId;
+    }
+
+    /**
+     * Test the catalog serves copies of the products it loaded, and finds them as the
+     * product store does
+     */
+    @Test
+    @DisplayName("Test the catalog serves copies of the products")
+    public void testSnapshot() {
+        ProductCatalog catalog = new ProductCatalog(dbi);
+        catalog.snapshot();
+        Integer productId = insertTestProduct();
+        assertNull(catalog.getProduct(productId));
+        catalog.refresh();
+
+        Product product = catalog.getProduct(productId);
+        assertNotNull(product);
+        product.setName("Changed");
+        product.getMetadata().put("changed", true);
+        Product unchanged = catalog.getProduct(productId);
+        assertEquals("Organization", unchanged.getName());
+        assertNull(unchanged.getMetadata().get("changed"));
+
+        ProductCatalog.Snapshot snapshot = catalog.snapshot();
+        ProductStore productStore = dbi.onDemand(ProductStore.class);
+        assertEquals(productStore.listProducts().size(), snapshot.listProducts().size());
+        assertEquals(productStore.findProductsByName("Organization").size(),
+            snapshot.findProductsByName("Organization").size());
+        assertEquals(productStore.findProductsByActiveStatus(true).size(),
+            snapshot.findProductsByActiveStatus(true).size());
+        assertEquals(productStore.findProductsByDescription("%your data_").size(),
+            snapshot.findProductsByDescription("%your data_").size());
+        assertTrue(snapshot.findProductsByDescription("%your data_").stream()
+            .anyMatch(found -> found.getId().equals(productId)));
+        assertTrue(snapshot.findProductsByDescription("your data").isEmpty());
+    }
+
+    /**
+     * Test the entity tag changes only when products change
+     */
+    @Test
+    @DisplayName("Test the catalog tag changes with the products")
+    public void testTag() {
+        ProductCatalog catalog = new ProductCatalog(dbi);
+        String tag = catalog.snapshot().getTag();
+        assertEquals(tag, catalog.refresh().getTag());
+
+        insertTestProduct();
+        assertNotEquals(tag, catalog.refresh().getTag());
+    }
+
+    /**
+     * Test a started catalog reloads when products are changed by another connection
+     */
+    @Test
+    @DisplayName("Test the catalog reloads on product change notifications")
+    public void testListen() throws InterruptedException {
+        ProductCatalog catalog = new ProductCatalog(createConcurrentDbi());
+        catalog.start();
+        try {
+            // The listener reloads after it starts listening, so once it has loaded the
+            // first product, the second can only be loaded on its notification
+            awaitProduct(catalog, insertTestProduct());
+            awaitProduct(catalog, insertTestProduct());
+        } finally {
+            catalog.stop();
+        }
+    }
+
+    /**
+     * Wait for the catalog to load a product
+     * @param catalog  the catalog
+     * @param productId  the product identifier
+     * @throws InterruptedException  if interrupted while waiting
+     */
+    private void awaitProduct(ProductCatalog catalog, Integer productId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ( catalog.getProduct(productId) == null && System.nanoTime() < deadline ) {
+            Thread.sleep(10);
+        }
+        assertNotNull(catalog.getProduct(productId));
+    }
+}
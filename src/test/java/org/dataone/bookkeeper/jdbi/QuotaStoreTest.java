@@ -21,11 +21,16 @@
 
 package org.dataone.bookkeeper.jdbi;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
 import org.dataone.bookkeeper.BaseTestCase;
 import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.api.Quota;
 import org.dataone.bookkeeper.helpers.*;
+import org.dataone.bookkeeper.quotas.QuotaCheck;
+import org.dataone.bookkeeper.quotas.QuotaHeadroom;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -36,6 +41,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -326,6 +332,27 @@ public class QuotaStoreTest extends BaseTestCase {
         }
     }
 
+    /**
+     * Test inserting a batch of quotas
+     */
+    @Test
+    @DisplayName("Test inserting a batch of quotas")
+    public void testInsertBatch() {
+        try {
+            Integer orderId = insertTestOrder();
+            List<Quota> quotas = new ArrayList<Quota>();
+            quotas.add(QuotaHelper.createTestStorageQuota(StoreHelper.getRandomId(), orderId));
+            quotas.add(QuotaHelper.createTestPortalQuota(StoreHelper.getRandomId(), orderId));
+            List<Integer> ids = quotaStore.insertBatch(quotas);
+            this.quotaIds.addAll(ids);
+            assertEquals(2, ids.size());
+            assertEquals("storage", quotaStore.getQuota(ids.get(0)).getQuotaType());
+            assertEquals("portal", quotaStore.getQuota(ids.get(1)).getQuotaType());
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
     /**
      * Test updating a quota
      */
@@ -425,4 +452,48 @@ public class QuotaStoreTest extends BaseTestCase {
         }
 
     }
+
+    @Test
+    @DisplayName("Test quota admission checks from cached headroom")
+    public void testQuotaHeadroomCheck() {
+        try {
+            // Insert a customer with two portal quotas from two orders
+            Customer customer = CustomerHelper.insertTestCustomer(
+                CustomerHelper.createCustomer(StoreHelper.getRandomId()));
+            this.customerIds.add(customer.getId());
+            String subject = customer.getSubject();
+            for (int i = 0; i < 2; i++) {
+                Integer orderId = OrderHelper.insertTestOrder(StoreHelper.getRandomId(), customer.getId());
+                this.orderIds.add(orderId);
+                this.quotaIds.add(QuotaHelper.insertTestQuotaWithSubject(
+                    StoreHelper.getRandomId(), orderId, subject));
+            }
+            assertEquals(2, quotaStore.findQuotasBySubjectAndType(subject, "portal").size());
+            dbi.useHandle(handle -> handle.execute(
+                "UPDATE quotas SET softLimit = 2.0 WHERE id = ?", this.quotaIds.get(0)));
+
+            // The limits of both quotas are added together: soft 7, hard 10
+            QuotaHeadroomCache cache = new QuotaHeadroomCache(quotaStore,
+                CaffeineSpec.parse("maximumSize=100, expireAfterWrite=1h"), new MetricRegistry());
+            QuotaHeadroom headroom = cache.get(subject, "portal").get();
+            assertEquals(QuotaCheck.Decision.ALLOW, headroom.check(subject, "portal", 7.0).getDecision());
+            assertEquals(QuotaCheck.Decision.SOFT_EXCEEDED, headroom.check(subject, "portal", 8.0).getDecision());
+            assertEquals(QuotaCheck.Decision.HARD_DENIED, headroom.check(subject, "portal", 11.0).getDecision());
+            assertFalse(cache.get(subject, "storage").isPresent());
+
+            // Usage changes are seen once the quota is invalidated
+            Integer usageId = UsageHelper.insertTestUsage(StoreHelper.getRandomId(), this.quotaIds.get(1),
+                "urn:uuid:" + subject, 4.0, "active", "urn:node:testNode");
+            assertEquals(0.0, cache.get(subject, "portal").get().getTotalUsage(), 0.0);
+            cache.invalidateQuota(this.quotaIds.get(1));
+            headroom = cache.get(subject, "portal").get();
+            assertEquals(4.0, headroom.getTotalUsage(), 0.0);
+            assertEquals(QuotaCheck.Decision.SOFT_EXCEEDED, headroom.check(subject, "portal", 4.0).getDecision());
+            UsageHelper.removeTestUsage(usageId);
+        } catch (SQLException e) {
+            fail(e);
+        } catch (JsonProcessingException e) {
+            fail(e);
+        }
+    }
 }
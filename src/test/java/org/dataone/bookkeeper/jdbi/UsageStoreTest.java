@@ -27,6 +27,9 @@ import org.dataone.bookkeeper.api.Customer;
 import org.dataone.bookkeeper.api.Quota;
 import org.dataone.bookkeeper.api.Usage;
 import org.dataone.bookkeeper.helpers.*;
+import org.dataone.bookkeeper.tasks.ReconcileQuotaTotalsTask;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
 import org.junit.Rule;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -34,14 +37,26 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -596,4 +611,490 @@ public class UsageStoreTest extends BaseTestCase {
         }
 
     }
+
+    /**
+     * Test paging usages by quota id with a keyset cursor and status filter
+     */
+    @Test
+    @DisplayName("Test paging usages by quota id")
+    public void testFindUsagesPageByQuotaId() {
+        Integer quotaId = null;
+        try {
+            quotaId = insertTestQuota();
+
+            // Add three usages, one of them inactive
+            List<Integer> ids = new ArrayList<Integer>();
+            String[] statuses = {"active", "inactive", "active"};
+            for (int i = 0; i < statuses.length; i++) {
+                Integer usageId = UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                    "urn:uuid:" + quotaId + "-" + i, 1.0, statuses[i], "urn:node:testNode");
+                this.usageIds.add(usageId);
+                ids.add(usageId);
+            }
+            ids.sort(Integer::compareTo);
+
+            // The first page is ordered by id
+            List<Usage> page = usageStore.findUsagesPageByQuotaId(quotaId, null, 0, 0, 2);
+            assertEquals(2, page.size());
+            assertEquals(ids.get(0), page.get(0).getId());
+            assertEquals(ids.get(1), page.get(1).getId());
+
+            // The next page starts after the cursor
+            page = usageStore.findUsagesPageByQuotaId(quotaId, null, page.get(1).getId(), 0, 2);
+            assertEquals(1, page.size());
+            assertEquals(ids.get(2), page.get(0).getId());
+
+            // Counts honor the status filter
+            assertEquals(3, usageStore.countUsagesByQuotaId(quotaId, null).intValue());
+            assertEquals(2, usageStore.countUsagesByQuotaId(quotaId, "ACTIVE").intValue());
+            assertEquals(1, usageStore.findUsagesPageByQuotaId(quotaId, "inactive", 0, 0, 10).size());
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test inserting a batch of usages with deferred quota totals
+     */
+    @Test
+    @DisplayName("Test inserting a batch of usages")
+    public void testInsertBatch() {
+        try {
+            Integer quotaId = insertTestQuota();
+
+            List<Usage> usages = new ArrayList<Usage>();
+            for (int i = 0; i < 3; i++) {
+                usages.add(new Usage(null, "usage", quotaId, "urn:uuid:" + quotaId + "-" + i,
+                    2.0, "active", "urn:node:testNode"));
+            }
+
+            // While deferred, the triggers leave the total alone until the batch change is added
+            List<Usage> inserted = dbi.inTransaction(handle -> {
+                UsageStore store = handle.attach(UsageStore.class);
+                store.deferQuotaTotals();
+                List<Usage> insertedUsages = store.insertBatch(usages);
+                assertNull(handle.attach(QuotaStore.class).getQuota(quotaId).getTotalUsage());
+                handle.attach(QuotaStore.class).addTotalUsages(
+                    Collections.singletonList(quotaId), Collections.singletonList(6.0));
+                return insertedUsages;
+            });
+            List<Integer> ids = new ArrayList<Integer>();
+            for (Usage usage : inserted) {
+                ids.add(usage.getId());
+            }
+            this.usageIds.addAll(ids);
+
+            assertEquals(3, ids.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(usages.get(i).getInstanceId(), inserted.get(i).getInstanceId());
+                assertEquals(usages.get(i).getInstanceId(), usageStore.getUsage(ids.get(i)).getInstanceId());
+            }
+            assertEquals(6.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+
+            // Usages of instances that already have a usage in the quota are skipped
+            List<Usage> repeated = new ArrayList<Usage>(usages.subList(1, 3));
+            repeated.add(new Usage(null, "usage", quotaId, "urn:uuid:" + quotaId + "-3",
+                2.0, "active", "urn:node:testNode"));
+            List<Usage> insertedAgain = usageStore.insertBatch(repeated);
+            assertEquals(1, insertedAgain.size());
+            this.usageIds.add(insertedAgain.get(0).getId());
+            assertEquals("urn:uuid:" + quotaId + "-3", insertedAgain.get(0).getInstanceId());
+            assertEquals(quotaId, insertedAgain.get(0).getQuotaId());
+            assertEquals(8.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+
+            // Outside of a deferred transaction, the triggers update the total per row
+            usageStore.delete(ids.get(0));
+            this.usageIds.remove(ids.get(0));
+            assertEquals(6.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test upserting a usage by quota id and instance id
+     */
+    @Test
+    @DisplayName("Test upserting a usage")
+    public void testUpsert() {
+        try {
+            Integer quotaId = insertTestQuota();
+            String instanceId = "urn:uuid:" + quotaId;
+
+            // The first upsert inserts the usage
+            Usage inserted = usageStore.upsert(
+                new Usage(null, "usage", quotaId, instanceId, 1.0, "active", "urn:node:testNode"));
+            this.usageIds.add(inserted.getId());
+            assertEquals(instanceId, inserted.getInstanceId());
+            assertEquals(1.0, inserted.getQuantity(), 0.0);
+
+            // The second upsert updates the same row
+            Usage updated = usageStore.upsert(
+                new Usage(null, "usage", quotaId, instanceId, 3.0, "inactive", "urn:node:testNode"));
+            assertEquals(inserted.getId(), updated.getId());
+            assertEquals(3.0, updated.getQuantity(), 0.0);
+            assertEquals("inactive", updated.getStatus());
+            assertEquals(1, usageStore.countUsagesByQuotaId(quotaId, null).intValue());
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test finding the status of a usage by instance id and quota type
+     */
+    @Test
+    @DisplayName("Test finding a usage status")
+    public void testFindUsageStatus() {
+        try {
+            Integer quotaId = insertTestQuota();
+            String instanceId = "urn:uuid:" + quotaId;
+            this.usageIds.add(UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                instanceId, 1.0, "inactive", "urn:node:testNode"));
+
+            assertEquals("inactive", usageStore.findUsageStatus(instanceId, "portal"));
+            assertNull(usageStore.findUsageStatus(instanceId, "storage"));
+            assertNull(usageStore.findUsageStatus("urn:uuid:missing", "portal"));
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test finding the statuses of many instances with one query
+     */
+    @Test
+    @DisplayName("Test finding usage statuses by instance ids and quota types")
+    public void testFindUsageStatuses() {
+        try {
+            Integer quotaId = insertTestQuota();
+            for (int i = 0; i < 3; i++) {
+                this.usageIds.add(UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                    "urn:uuid:" + quotaId + "-" + i, 1.0, i == 0 ? "inactive" : "active",
+                    "urn:node:testNode"));
+            }
+
+            List<Map<String, Object>> rows = usageStore.findUsageStatuses(
+                Arrays.asList("urn:uuid:" + quotaId + "-0", "urn:uuid:" + quotaId + "-1", "urn:uuid:missing"),
+                Collections.singletonList("portal"));
+            assertEquals(2, rows.size());
+            for (Map<String, Object> row : rows) {
+                assertEquals("portal", row.get("quotatype"));
+                assertEquals(row.get("instanceid").equals("urn:uuid:" + quotaId + "-0") ?
+                    "inactive" : "active", row.get("status"));
+            }
+            assertTrue(usageStore.findUsageStatuses(
+                Collections.singletonList("urn:uuid:" + quotaId + "-0"),
+                Collections.singletonList("storage")).isEmpty());
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test the usage status lookup reads only the covering indexes of both tables
+     */
+    @Test
+    @DisplayName("Test the usage status lookup plan is index-only")
+    public void testFindUsageStatusPlan() {
+        try {
+            Integer quotaId = insertTestQuota();
+            for (int i = 0; i < 20; i++) {
+                this.usageIds.add(UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                    "urn:uuid:" + quotaId + "-" + i, 1.0, "active", "urn:node:testNode"));
+            }
+
+            // Vacuum so the pages are all-visible, and rule out sequential scans of the small tables
+            String plan = dbi.withHandle(handle -> {
+                handle.execute("VACUUM ANALYZE usages");
+                handle.execute("VACUUM ANALYZE quotas");
+                handle.execute("SET enable_seqscan = off");
+                try {
+                    return String.join("\n", handle
+                        .createQuery("EXPLAIN " + UsageStore.SELECT_STATUS_BY_INSTANCE_ID_AND_QUOTA_TYPE)
+                        .bind("instanceId", "urn:uuid:" + quotaId + "-0")
+                        .bind("quotaType", "portal")
+                        .mapTo(String.class)
+                        .list());
+                } finally {
+                    handle.execute("RESET enable_seqscan");
+                }
+            });
+            assertTrue(plan, plan.contains("Index Only Scan using usages_instanceid_quotaid_status_idx"));
+            assertTrue(plan, plan.contains("Index Only Scan using quotas_id_quotatype_idx"));
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test upserting over a pending reservation clears its expiry, so the sweep keeps it
+     */
+    @Test
+    @DisplayName("Test upserting a reserved usage clears its expiry")
+    public void testUpsertReservation() {
+        try {
+            Integer quotaId = insertTestQuota();
+            String instanceId = "urn:uuid:" + quotaId;
+            Usage reserved = usageStore.reserve(quotaId, instanceId, 1.0, "urn:node:testNode", -1);
+            assertNotNull(reserved);
+            this.usageIds.add(reserved.getId());
+
+            Usage upserted = usageStore.upsert(
+                new Usage(null, "usage", quotaId, instanceId, 1.0, "active", "urn:node:testNode"));
+            assertEquals(reserved.getId(), upserted.getId());
+            assertNull(dbi.withHandle(handle ->
+                handle.createQuery("SELECT expires FROM usages WHERE id = :id")
+                    .bind("id", reserved.getId())
+                    .mapTo(Timestamp.class)
+                    .findOne()
+                    .orElse(null)));
+
+            // The expired reservation is now a reported usage, and isn't swept
+            usageStore.expireReservations();
+            assertNotNull(usageStore.getUsage(reserved.getId()));
+            assertEquals(1.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test the incrementally maintained quota totals match a full recompute
+     */
+    @Test
+    @DisplayName("Test incremental quota totals match the recomputed totals")
+    public void testIncrementalTotalUsage() {
+        try {
+            Map<Integer, Quota> quotas = QuotaHelper.insertTestStorageAndPortalQuotasWithOrder(
+                StoreHelper.getRandomId(), StoreHelper.getRandomId(), insertTestOrder());
+            this.quotaIds.addAll(quotas.keySet());
+            List<Integer> ids = new ArrayList<Integer>(quotas.keySet());
+            Integer quotaId = ids.get(0);
+            Integer otherQuotaId = ids.get(1);
+            quotaStore.updateTotalUsages(ids);
+
+            // Insert usages, one of them inactive
+            Usage first = usageStore.upsert(
+                new Usage(null, "usage", quotaId, "urn:uuid:" + quotaId + "-1", 2.0, "active", "urn:node:testNode"));
+            Usage second = usageStore.upsert(
+                new Usage(null, "usage", quotaId, "urn:uuid:" + quotaId + "-2", 3.0, "inactive", "urn:node:testNode"));
+            this.usageIds.add(first.getId());
+            this.usageIds.add(second.getId());
+            assertTotalsMatch(quotaId, otherQuotaId, 2.0, 0.0);
+
+            // Activate the inactive usage, then change its quantity
+            second.setStatus("active");
+            usageStore.update(second);
+            assertTotalsMatch(quotaId, otherQuotaId, 5.0, 0.0);
+            second.setQuantity(4.5);
+            usageStore.update(second);
+            assertTotalsMatch(quotaId, otherQuotaId, 6.5, 0.0);
+
+            // Move a usage to the other quota, then inactivate it
+            first.setQuotaId(otherQuotaId);
+            usageStore.update(first);
+            assertTotalsMatch(quotaId, otherQuotaId, 4.5, 2.0);
+            first.setStatus("inactive");
+            usageStore.update(first);
+            assertTotalsMatch(quotaId, otherQuotaId, 4.5, 0.0);
+
+            // Delete the active usage
+            usageStore.delete(second.getId());
+            this.usageIds.remove(second.getId());
+            assertTotalsMatch(quotaId, otherQuotaId, 0.0, 0.0);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test reconciling the quota totals corrects drifted totals
+     */
+    @Test
+    @DisplayName("Test reconciling the quota totals")
+    public void testReconcileTotalUsages() {
+        try {
+            Integer quotaId = insertTestQuota();
+            Usage usage = usageStore.upsert(
+                new Usage(null, "usage", quotaId, "urn:uuid:" + quotaId, 2.0, "active", "urn:node:testNode"));
+            this.usageIds.add(usage.getId());
+
+            // Let the total drift, then reconcile it
+            dbi.useHandle(handle ->
+                handle.execute("UPDATE quotas SET totalUsage = 42.0 WHERE id = ?", quotaId));
+            assertTrue(quotaStore.reconcileTotalUsages() >= 1);
+            assertEquals(2.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test reconciling the quota totals waits for a usage write in progress, rather than
+     * overwriting the total its trigger changed with a total that doesn't include it
+     */
+    @Test
+    @DisplayName("Test reconciling keeps the total of a concurrent usage write")
+    public void testReconcileConcurrentUsageWrite() throws Exception {
+        Integer quotaId = insertTestQuota();
+        Jdbi concurrentDbi = createConcurrentDbi();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Handle writer = concurrentDbi.open()) {
+            // Let the total drift, so the reconcile corrects the quota row
+            dbi.useHandle(handle ->
+                handle.execute("UPDATE quotas SET totalUsage = 42.0 WHERE id = ?", quotaId));
+
+            // The trigger of the uncommitted insert adds its quantity to the quota row
+            writer.begin();
+            this.usageIds.add(writer.attach(UsageStore.class).insert(new Usage(null, "usage",
+                quotaId, "urn:uuid:" + quotaId, 2.0, "active", "urn:node:testNode")));
+            Future<Void> reconcile = executor.submit(() -> {
+                new ReconcileQuotaTotalsTask(concurrentDbi)
+                    .execute(Collections.emptyMap(), new PrintWriter(new StringWriter()));
+                return null;
+            });
+
+            // Commit the insert once the reconcile waits for it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ( dbi.withHandle(handle -> handle.createQuery(
+                "SELECT count(*) FROM pg_locks WHERE NOT granted").mapTo(Integer.class).one()) == 0 &&
+                System.nanoTime() < deadline ) {
+                Thread.sleep(10);
+            }
+            writer.commit();
+            reconcile.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+    }
+
+    /**
+     * Assert the incrementally maintained totals of two quotas are the expected totals,
+     * and that a full recompute doesn't change them
+     */
+    private void assertTotalsMatch(Integer quotaId, Integer otherQuotaId,
+        double expected, double otherExpected) {
+        assertEquals(expected, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+        assertEquals(otherExpected, quotaStore.getQuota(otherQuotaId).getTotalUsage(), 1e-9);
+        quotaStore.updateTotalUsages(Arrays.asList(quotaId, otherQuotaId));
+        assertEquals(expected, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+        assertEquals(otherExpected, quotaStore.getQuota(otherQuotaId).getTotalUsage(), 1e-9);
+    }
+
+    /**
+     * Test a bulk usage update changes the quota totals once for all rows
+     */
+    @Test
+    @DisplayName("Test bulk usage updates keep the quota totals")
+    public void testBulkUpdateTotalUsage() {
+        try {
+            Integer quotaId = insertTestQuota();
+            for (int i = 0; i < 5; i++) {
+                Usage usage = usageStore.upsert(new Usage(null, "usage", quotaId,
+                    "urn:uuid:" + quotaId + "-" + i, 1.5, "active", "urn:node:testNode"));
+                this.usageIds.add(usage.getId());
+            }
+            assertEquals(7.5, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+
+            // Inactivate and reactivate every usage of the quota in single statements
+            dbi.useHandle(handle -> handle.execute(
+                "UPDATE usages SET status = 'inactive' WHERE quotaId = ?", quotaId));
+            assertEquals(0.0, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+            dbi.useHandle(handle -> handle.execute(
+                "UPDATE usages SET status = 'active', quantity = 2.0 WHERE quotaId = ?", quotaId));
+            assertEquals(10.0, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+            quotaStore.updateTotalUsages(Collections.singletonList(quotaId));
+            assertEquals(10.0, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Test concurrent transactions changing the usages of one quota all update its total.
+     * Each transaction updates the quota row the other transactions are updating, so the
+     * statement triggers recheck the row after waiting for its lock.
+     */
+    @Test
+    @DisplayName("Test concurrent usage writers to one quota keep its total")
+    public void testConcurrentTotalUsage() throws Exception {
+        Integer quotaId = insertTestQuota();
+        Jdbi concurrentDbi = createConcurrentDbi();
+        List<Callable<List<Integer>>> tasks = new ArrayList<Callable<List<Integer>>>();
+        for (int thread = 0; thread < 8; thread++) {
+            String prefix = "urn:uuid:" + quotaId + "-" + thread + "-";
+            tasks.add(() -> {
+                List<Integer> ids = new ArrayList<Integer>();
+                for (int i = 0; i < 25; i++) {
+                    String instanceId = prefix + i;
+                    ids.add(concurrentDbi.inTransaction(handle -> {
+                        UsageStore store = handle.attach(UsageStore.class);
+                        Usage usage = new Usage(null, "usage", quotaId, instanceId, 1.0,
+                            "active", "urn:node:testNode");
+                        usage.setId(store.insert(usage));
+                        usage.setQuantity(2.0);
+                        store.update(usage);
+                        return usage.getId();
+                    }));
+                }
+                return ids;
+            });
+        }
+        for (List<Integer> ids : runConcurrently(tasks)) {
+            this.usageIds.addAll(ids);
+        }
+
+        assertEquals(200, this.usageIds.size());
+        assertEquals(400.0, quotaStore.getQuota(quotaId).getTotalUsage(), 1e-9);
+    }
+
+    /**
+     * Test reserving, committing, cancelling, and expiring usage reservations
+     */
+    @Test
+    @DisplayName("Test usage reservations are held against the hard limit")
+    public void testReservations() {
+        try {
+            Integer quotaId = insertTestQuota();
+            Double hardLimit = quotaStore.getQuota(quotaId).getHardLimit();
+
+            // A reservation within the hard limit is pending and counts toward the total
+            Usage reserved = usageStore.reserve(quotaId, "urn:uuid:reserved", hardLimit - 2.0,
+                "urn:node:testNode", 300);
+            assertNotNull(reserved);
+            this.usageIds.add(reserved.getId());
+            assertEquals("pending", reserved.getStatus());
+            assertEquals(hardLimit - 2.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+
+            // A reservation past the hard limit is refused
+            assertNull(usageStore.reserve(quotaId, "urn:uuid:refused", 3.0, "urn:node:testNode", 300));
+
+            // Committing activates the usage without changing the total
+            Usage committed = usageStore.commitReservation(reserved.getId());
+            assertEquals("active", committed.getStatus());
+            assertNull(usageStore.commitReservation(reserved.getId()));
+            assertEquals(hardLimit - 2.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+
+            // Cancelling releases the reserved quantity
+            Usage cancelled = usageStore.reserve(quotaId, "urn:uuid:cancelled", 2.0,
+                "urn:node:testNode", 300);
+            assertNotNull(cancelled);
+            assertEquals(hardLimit, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+            assertEquals(cancelled.getId(), usageStore.cancelReservation(cancelled.getId()).getId());
+            assertEquals(hardLimit - 2.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+
+            // An expired reservation is released by the sweep
+            Usage expired = usageStore.reserve(quotaId, "urn:uuid:expired", 1.0,
+                "urn:node:testNode", -1);
+            assertNotNull(expired);
+            List<Usage> swept = usageStore.expireReservations();
+            assertTrue(swept.stream().anyMatch(usage -> usage.getId().equals(expired.getId())));
+            assertNull(usageStore.getUsage(expired.getId()));
+            assertEquals(hardLimit - 2.0, quotaStore.getQuota(quotaId).getTotalUsage(), 0.0);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.dataone.bookkeeper.quotas;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import io.dropwizard.jackson.Jackson;
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.api.Feature;
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.Product;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.helpers.OrderHelper;
+import org.dataone.bookkeeper.helpers.ProductHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
+import org.dataone.bookkeeper.jdbi.ProductStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the building, caching, and reloading of product quota templates
+ */
+public class ProductQuotaTemplatesTest extends BaseTestCase {
+
+    /* The identifier of the test product */
+    private final Integer productId = StoreHelper.getRandomId();
+
+    /* The product catalog the cache builds from */
+    private ProductCatalog productCatalog;
+
+    /* The metric registry of the cache statistics */
+    private MetricRegistry metrics;
+
+    /* The cache under test */
+    private ProductQuotaTemplates templates;
+
+    /* The order quotas are created for */
+    private final Order order = OrderHelper.createTestOrder(1, 2, 3, 4);
+
+    /**
+     * Build a cache over a product catalog
+     */
+    @BeforeEach
+    void setUp() {
+        productCatalog = new ProductCatalog(dbi);
+        metrics = new MetricRegistry();
+        templates = new ProductQuotaTemplates(productCatalog,
+            CaffeineSpec.parse("maximumSize=100"), metrics);
+    }
+
+    /**
+     * Remove the test product
+     */
+    @AfterEach
+    void tearDown() {
+        try {
+            ProductHelper.removeTestProduct(productId);
+        } catch (SQLException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Create a test product with an extra feature granting a quota
+     * @param quotaType  the quota type of the extra feature
+     * @param limit  the soft and hard limit of the extra feature
+     * @return product  the product
+     */
+    private Product productWithFeature(String quotaType, Double limit) {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        Product product = ProductHelper.createTestProduct(productId);
+        Feature feature = new Feature();
+        feature.setName("extra_" + quotaType);
+        feature.setQuota(new Quota(null, "quota", quotaType, limit, limit, null, quotaType,
+            null, null, null));
+        ((ArrayNode) product.getMetadata().get("features")).add(mapper.valueToTree(feature));
+        return product;
+    }
+
+    /**
+     * Get the number of template loads from the cache statistics
+     * @return misses  the number of cache misses
+     */
+    @SuppressWarnings("unchecked")
+    private long loads() {
+        return ((Gauge<Long>) metrics.getGauges()
+            .get(MetricRegistry.name(ProductQuotaTemplates.class, "misses"))).getValue();
+    }
+
+    /**
+     * Test quotas are created for the order, combining features of the same quota type
+     */
+    @Test
+    @DisplayName("Test created quotas combine features of the same type")
+    public void testCreateQuotas() {
+        // The test product grants a portal quota with limits of 3
+        ProductHelper.insertTestProduct(productWithFeature("portal", 2.0));
+
+        List<Quota> quotas = templates.createQuotas(productId, order);
+        assertEquals(1, quotas.size());
+        Quota quota = quotas.get(0);
+        assertEquals("portal", quota.getQuotaType());
+        assertEquals(5.0, quota.getSoftLimit(), 0.0);
+        assertEquals(5.0, quota.getHardLimit(), 0.0);
+        assertEquals(0.0, quota.getTotalUsage(), 0.0);
+        assertEquals(order.getId(), quota.getOrderId());
+        assertEquals(order.getSubject(), quota.getSubject());
+        assertEquals(order.getName(), quota.getName());
+        assertNull(quota.getId());
+    }
+
+    /**
+     * Test the templates are parsed once and each order gets its own copies
+     */
+    @Test
+    @DisplayName("Test templates are cached and copied")
+    public void testTemplatesCached() {
+        ProductHelper.insertTestProduct(productId);
+
+        Quota first = templates.createQuotas(productId, order).get(0);
+        first.setHardLimit(100.0);
+        Quota second = templates.createQuotas(productId, order).get(0);
+        assertNotSame(first, second);
+        assertEquals(3.0, second.getHardLimit(), 0.0);
+        assertEquals(1, loads());
+
+        // Reloading the catalog without product changes keeps the templates
+        productCatalog.refresh();
+        templates.createQuotas(productId, order);
+        assertEquals(1, loads());
+    }
+
+    /**
+     * Test a product change is seen once the catalog reloads, as it does on the product
+     * change notifications of any instance
+     */
+    @Test
+    @DisplayName("Test a catalog reload rebuilds changed templates")
+    public void testCatalogReload() {
+        ProductHelper.insertTestProduct(productId);
+        assertEquals(1, templates.createQuotas(productId, order).size());
+
+        dbi.onDemand(ProductStore.class).update(productWithFeature("storage", 10.0));
+        assertEquals(1, templates.createQuotas(productId, order).size());
+        productCatalog.refresh();
+        assertEquals(2, templates.createQuotas(productId, order).size());
+        assertEquals(2, loads());
+    }
+
+    /**
+     * Test there are no quotas for a product that doesn't exist
+     */
+    @Test
+    @DisplayName("Test a missing product has no quotas")
+    public void testMissingProduct() {
+        assertNull(templates.createQuotas(productId, order));
+    }
+}
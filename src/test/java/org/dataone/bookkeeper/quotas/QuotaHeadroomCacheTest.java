@@ -0,0 +1,213 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.quotas;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.helpers.QuotaHelper;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test the caching and invalidation of quota headroom
+ */
+public class QuotaHeadroomCacheTest {
+
+    /* The subject of the quotas */
+    private static final String SUBJECT = "http://orcid.org/0000-0000-0000-0000";
+
+    /* The identifier of the test quota */
+    private static final Integer QUOTA_ID = 1;
+
+    /* The time source of the cache under test */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /* The quota store the cache loads from */
+    private QuotaStore quotaStore;
+
+    /* The cache under test */
+    private QuotaHeadroomCache cache;
+
+    /**
+     * Build a cache over a mock quota store with a fake time source
+     */
+    @BeforeEach
+    void setUp() {
+        quotaStore = mock(QuotaStore.class);
+        cache = new QuotaHeadroomCache(quotaStore,
+            CaffeineSpec.parse("maximumSize=100, expireAfterWrite=30s"), nanos::get, new MetricRegistry());
+    }
+
+    /**
+     * Create a portal quota with the given total usage
+     * @param totalUsage  the total usage
+     * @return quotas  a list of the quota
+     */
+    private List<Quota> portalQuotas(double totalUsage) {
+        Quota quota = QuotaHelper.createTestPortalQuota(QUOTA_ID, null);
+        quota.setTotalUsage(totalUsage);
+        return Collections.singletonList(quota);
+    }
+
+    /**
+     * Test the headroom is loaded once and then served from the cache
+     */
+    @Test
+    @DisplayName("Test cached headroom is reused")
+    public void testCacheHit() {
+        when(quotaStore.findQuotasBySubjectAndType(SUBJECT, "portal")).thenReturn(portalQuotas(1.0));
+        assertEquals(1.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        assertEquals(1.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        verify(quotaStore, times(1)).findQuotasBySubjectAndType(SUBJECT, "portal");
+    }
+
+    /**
+     * Test invalidating a quota reloads the headroom that includes it
+     */
+    @Test
+    @DisplayName("Test invalidating a quota reloads its headroom")
+    public void testInvalidateQuota() {
+        when(quotaStore.findQuotasBySubjectAndType(SUBJECT, "portal"))
+            .thenReturn(portalQuotas(1.0), portalQuotas(2.0));
+        assertEquals(1.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        cache.invalidateQuota(QUOTA_ID);
+        assertEquals(2.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+    }
+
+    /**
+     * Test invalidation still works for an entry reloaded after it expired
+     */
+    @Test
+    @DisplayName("Test invalidating a quota after its headroom expired and reloaded")
+    public void testInvalidateAfterExpiry() {
+        when(quotaStore.findQuotasBySubjectAndType(SUBJECT, "portal"))
+            .thenReturn(portalQuotas(1.0), portalQuotas(2.0), portalQuotas(3.0));
+        cache.get(SUBJECT, "portal");
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertEquals(2.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        cache.invalidateQuota(QUOTA_ID);
+        assertEquals(3.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+    }
+
+    /**
+     * Test a load that races an invalidation of its quota isn't served
+     */
+    @Test
+    @DisplayName("Test a load racing a quota invalidation is discarded")
+    public void testLoadRacingQuotaInvalidation() {
+        // The first load reads the quota, then the usage change commits and invalidates it
+        when(quotaStore.findQuotasBySubjectAndType(SUBJECT, "portal"))
+            .thenAnswer(invocation -> {
+                List<Quota> stale = portalQuotas(1.0);
+                cache.invalidateQuota(QUOTA_ID);
+                return stale;
+            })
+            .thenReturn(portalQuotas(2.0));
+        assertEquals(2.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        assertEquals(2.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        verify(quotaStore, times(2)).findQuotasBySubjectAndType(SUBJECT, "portal");
+    }
+
+    /**
+     * Test a load that finds no quotas while a quota is being added isn't served
+     */
+    @Test
+    @DisplayName("Test a load racing a key invalidation is discarded")
+    public void testLoadRacingKeyInvalidation() throws InterruptedException {
+        // The first load finds no quotas, then a quota is added and the key invalidated by
+        // another thread, which waits for the load of the key to finish
+        Thread invalidator = new Thread(() -> cache.invalidate(SUBJECT, "portal"));
+        when(quotaStore.findQuotasBySubjectAndType(SUBJECT, "portal"))
+            .thenAnswer(invocation -> {
+                invalidator.start();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while ( invalidator.getState() == Thread.State.RUNNABLE && System.nanoTime() < deadline ) {
+                    Thread.sleep(1);
+                }
+                return Collections.emptyList();
+            })
+            .thenReturn(portalQuotas(0.0));
+        assertTrue(cache.get(SUBJECT, "portal").isPresent());
+        invalidator.join();
+    }
+
+    /**
+     * Test invalidations of deleted quotas and unused keys aren't kept after entries expire
+     */
+    @Test
+    @DisplayName("Test retained invalidations stay bounded")
+    public void testInvalidationsBounded() {
+        when(quotaStore.findQuotasBySubjectAndType(SUBJECT, "portal"))
+            .thenReturn(portalQuotas(1.0), portalQuotas(2.0));
+        assertEquals(1.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+        for (int quotaId = 1; quotaId <= 1000; quotaId++) {
+            cache.invalidateQuota(quotaId);
+            cache.invalidate("http://orcid.org/0000-0000-0000-" + quotaId, "portal");
+        }
+        assertEquals(2000, cache.invalidationCount());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        cache.invalidateQuota(QUOTA_ID);
+        assertEquals(1, cache.invalidationCount());
+        assertEquals(2.0, cache.get(SUBJECT, "portal").get().getTotalUsage(), 0.0);
+    }
+
+    /**
+     * Test quotas without limits are unlimited rather than zero
+     */
+    @Test
+    @DisplayName("Test quotas without limits are unlimited")
+    public void testUnlimitedQuota() {
+        List<Quota> quotas = portalQuotas(5.0);
+        quotas.get(0).setSoftLimit(null);
+        quotas.get(0).setHardLimit(null);
+        Quota limited = QuotaHelper.createTestPortalQuota(2, null);
+        when(quotaStore.findQuotasBySubjectAndType(anyString(), anyString()))
+            .thenReturn(Arrays.asList(quotas.get(0), limited));
+
+        QuotaHeadroom headroom = cache.get(SUBJECT, "portal").get();
+        assertNull(headroom.getHardLimit());
+        QuotaCheck check = headroom.check(SUBJECT, "portal", 1000.0);
+        assertEquals(QuotaCheck.Decision.ALLOW, check.getDecision());
+        assertNull(check.getHardLimit());
+        assertFalse(cache.get(SUBJECT, "storage").get().getQuotaIds().isEmpty());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.quotas;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.dataone.bookkeeper.jdbi.UsageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test the caching and invalidation of usage statuses
+ */
+public class UsageStatusCacheTest {
+
+    /* The instance identifier of the usages */
+    private static final String INSTANCE_ID = "urn:uuid:1234";
+
+    /* The time source of the cache under test */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /* The usage store the cache loads from */
+    private UsageStore usageStore;
+
+    /* The cache under test */
+    private UsageStatusCache cache;
+
+    /**
+     * Build a cache over a mock usage store with a fake time source
+     */
+    @BeforeEach
+    void setUp() {
+        usageStore = mock(UsageStore.class);
+        cache = new UsageStatusCache(usageStore,
+            CaffeineSpec.parse("maximumSize=100, expireAfterWrite=10s"), nanos::get, new MetricRegistry());
+    }
+
+    /**
+     * Test the status is loaded once and then served from the cache
+     */
+    @Test
+    @DisplayName("Test cached statuses are reused")
+    public void testCacheHit() {
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal")).thenReturn("active");
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+        verify(usageStore, times(1)).findUsageStatus(INSTANCE_ID, "portal");
+    }
+
+    /**
+     * Test an instance without a usage is cached until it expires
+     */
+    @Test
+    @DisplayName("Test missing statuses are cached until they expire")
+    public void testMissingStatus() {
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal"))
+            .thenReturn(null, "active");
+        assertFalse(cache.get(INSTANCE_ID, "portal").isPresent());
+        assertFalse(cache.get(INSTANCE_ID, "portal").isPresent());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+        verify(usageStore, times(2)).findUsageStatus(INSTANCE_ID, "portal");
+    }
+
+    /**
+     * Test invalidating an instance reloads its statuses of every quota type
+     */
+    @Test
+    @DisplayName("Test invalidating an instance reloads its statuses")
+    public void testInvalidate() {
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal"))
+            .thenReturn("active", "inactive");
+        when(usageStore.findUsageStatus(INSTANCE_ID, "storage"))
+            .thenReturn("pending", "active");
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+        assertEquals("pending", cache.get(INSTANCE_ID, "storage").get());
+        cache.invalidate(INSTANCE_ID);
+        assertEquals("inactive", cache.get(INSTANCE_ID, "portal").get());
+        assertEquals("active", cache.get(INSTANCE_ID, "storage").get());
+    }
+
+    /**
+     * Create a status row of the test instance
+     * @param instanceId  the usage instance identifier
+     * @param quotaType  the quota type
+     * @param status  the usage status
+     * @return row  the row of instanceid, quotatype, and status
+     */
+    private Map<String, Object> row(String instanceId, String quotaType, String status) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("instanceid", instanceId);
+        row.put("quotatype", quotaType);
+        row.put("status", status);
+        return row;
+    }
+
+    /**
+     * Test bulk lookups load the statuses not cached with one query, and cache missing pairs
+     */
+    @Test
+    @DisplayName("Test bulk lookups load uncached statuses together")
+    public void testGetAll() {
+        String other = "urn:uuid:5678";
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal")).thenReturn("active");
+        when(usageStore.findUsageStatuses(anyCollection(), anyCollection())).thenReturn(Arrays.asList(
+            row(other, "portal", "inactive"), row(other, "storage", "active")));
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+
+        // The storage usage of the other instance wasn't asked for, so it's left out
+        List<UsageStatusKey> keys = Arrays.asList(new UsageStatusKey(INSTANCE_ID, "portal"),
+            new UsageStatusKey(other, "portal"), new UsageStatusKey("urn:uuid:missing", "portal"));
+        Map<UsageStatusKey, String> statuses = cache.getAll(keys);
+        assertEquals(2, statuses.size());
+        assertEquals("active", statuses.get(keys.get(0)));
+        assertEquals("inactive", statuses.get(keys.get(1)));
+        assertEquals(statuses, cache.getAll(keys));
+        verify(usageStore, times(1)).findUsageStatuses(
+            new LinkedHashSet<String>(Arrays.asList(other, "urn:uuid:missing")),
+            Collections.singleton("portal"));
+    }
+
+    /**
+     * Test bulk lookups reload the statuses of instances invalidated since they were cached
+     */
+    @Test
+    @DisplayName("Test bulk lookups reload invalidated statuses")
+    public void testGetAllInvalidated() {
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal")).thenReturn("active", "inactive");
+        UsageStatusKey key = new UsageStatusKey(INSTANCE_ID, "portal");
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+        assertEquals("active", cache.getAll(Collections.singletonList(key)).get(key));
+        cache.invalidate(INSTANCE_ID);
+        assertEquals("inactive", cache.getAll(Collections.singletonList(key)).get(key));
+    }
+
+    /**
+     * Test a load that races an invalidation of its instance isn't served
+     */
+    @Test
+    @DisplayName("Test a load racing an invalidation is discarded")
+    public void testLoadRacingInvalidation() {
+        // The first load reads the usage, then the usage change commits and invalidates it
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal"))
+            .thenAnswer(invocation -> {
+                String stale = "active";
+                cache.invalidate(INSTANCE_ID);
+                return stale;
+            })
+            .thenReturn("inactive");
+        assertEquals("inactive", cache.get(INSTANCE_ID, "portal").get());
+        assertEquals("inactive", cache.get(INSTANCE_ID, "portal").get());
+        verify(usageStore, times(2)).findUsageStatus(INSTANCE_ID, "portal");
+    }
+
+    /**
+     * Test invalidations of instances aren't kept after their entries expire
+     */
+    @Test
+    @DisplayName("Test retained invalidations stay bounded")
+    public void testInvalidationsBounded() {
+        when(usageStore.findUsageStatus(INSTANCE_ID, "portal")).thenReturn("active", "inactive");
+        assertEquals("active", cache.get(INSTANCE_ID, "portal").get());
+        for (int i = 0; i < 1000; i++) {
+            cache.invalidate("urn:uuid:instance-" + i);
+        }
+        assertEquals(1000, cache.invalidationCount());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        cache.invalidate(INSTANCE_ID);
+        assertEquals(1, cache.invalidationCount());
+        assertEquals("inactive", cache.get(INSTANCE_ID, "portal").get());
+    }
+}
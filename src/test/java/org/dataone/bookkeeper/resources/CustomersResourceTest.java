@@ -0,0 +1,140 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.resources;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.api.Customer;
+import org.dataone.bookkeeper.api.CustomerList;
+import org.dataone.bookkeeper.helpers.CustomerHelper;
+import org.dataone.bookkeeper.helpers.ResourceHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.dataone.bookkeeper.security.DataONEAuthHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the status codes of the customers resource
+ */
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class CustomersResourceTest extends BaseTestCase {
+
+    /* The customers inserted by a test, removed after it */
+    private final List<Integer> customerIds = new ArrayList<Integer>();
+
+    /* The auth helper of the resource, without CN access */
+    private final DataONEAuthHelper dataoneAuthHelper = ResourceHelper.createAuthHelper();
+
+    /* The in-memory customers resource */
+    private final ResourceExtension resources = ResourceHelper.createResourceExtension(
+        dataoneAuthHelper, new CustomersResource(dbi, dataoneAuthHelper));
+
+    /**
+     * Remove the customers inserted by a test
+     */
+    @AfterEach
+    public void tearDown() {
+        for (Integer customerId : this.customerIds) {
+            try {
+                CustomerHelper.removeTestCustomer(customerId);
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Test listing the customers of several subjects
+     */
+    @Test
+    @DisplayName("Test listing customers by subjects")
+    public void testListCustomersBySubjects() throws SQLException, JsonProcessingException {
+        String first = insertTestCustomer().getSubject();
+        String second = insertTestCustomer().getSubject();
+        String missing = "http://orcid.org/missing";
+
+        Response response = listCustomers(ResourceHelper.ADMIN_AUTHORIZATION, first, second, missing);
+        assertEquals(200, response.getStatus());
+        List<Customer> customers = response.readEntity(CustomerList.class).getCustomers();
+        assertEquals(2, customers.size());
+        assertEquals(first, customers.get(0).getSubject());
+        assertEquals(second, customers.get(1).getSubject());
+
+        assertEquals(404, listCustomers(ResourceHelper.ADMIN_AUTHORIZATION, missing).getStatus());
+        assertEquals(403, listCustomers(ResourceHelper.USER_AUTHORIZATION, first).getStatus());
+    }
+
+    /**
+     * Test listing customers by more subjects than a page holds is refused
+     */
+    @Test
+    @DisplayName("Test the number of subjects is limited")
+    public void testListCustomersByTooManySubjects() {
+        String[] subjects = new String[BaseResource.MAX_PAGE_SIZE + 1];
+        for (int i = 0; i < subjects.length; i++) {
+            subjects[i] = "http://orcid.org/0000-0000-0000-" + i;
+        }
+        assertEquals(400, listCustomers(ResourceHelper.USER_AUTHORIZATION, subjects).getStatus());
+    }
+
+    /**
+     * Insert a test customer with a distinct subject. It is removed after the test.
+     * @return customer  the inserted customer
+     * @throws SQLException  if the customer can't be inserted
+     * @throws JsonProcessingException  if the customer can't be serialized
+     */
+    private Customer insertTestCustomer() throws SQLException, JsonProcessingException {
+        Customer customer = CustomerHelper.createCustomer(StoreHelper.getRandomId());
+        customer.setSubject("http://orcid.org/0000-0000-0000-" + customer.getId());
+        customer.setEmail(customer.getId() + "@example.com");
+        this.customerIds.add(customer.getId());
+        return CustomerHelper.insertTestCustomer(customer);
+    }
+
+    /**
+     * List customers by subjects through the resource
+     * @param authorization  the authorization header value of the caller
+     * @param subjects  the subjects of the customers
+     * @return response  the response
+     */
+    private Response listCustomers(String authorization, String... subjects) {
+        return resources.target("/customers")
+            .queryParam("subject", (Object[]) subjects)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, authorization)
+            .get();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.resources;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.api.Order;
+import org.dataone.bookkeeper.api.OrderItem;
+import org.dataone.bookkeeper.api.OrderList;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.helpers.OrderHelper;
+import org.dataone.bookkeeper.helpers.ProductHelper;
+import org.dataone.bookkeeper.helpers.ResourceHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.dataone.bookkeeper.jdbi.OrderStore;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.dataone.bookkeeper.quotas.ProductQuotaTemplates;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
+import org.dataone.bookkeeper.security.DataONEAuthHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the status codes and side effects of the orders resource
+ */
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class OrdersResourceTest extends BaseTestCase {
+
+    /* The products inserted by a test, removed after it */
+    private final List<Integer> productIds = new ArrayList<Integer>();
+
+    /* The auth helper of the resource, without CN access */
+    private final DataONEAuthHelper dataoneAuthHelper = ResourceHelper.createAuthHelper();
+
+    /* The product catalog of the resource and its quota templates */
+    private final ProductCatalog productCatalog = new ProductCatalog(dbi);
+
+    /* The in-memory orders resource */
+    private final ResourceExtension resources = ResourceHelper.createResourceExtension(
+        dataoneAuthHelper,
+        new OrdersResource(dbi, dataoneAuthHelper,
+            new QuotaHeadroomCache(dbi.onDemand(QuotaStore.class),
+                CaffeineSpec.parse("maximumSize=100"), new MetricRegistry()),
+            productCatalog,
+            new ProductQuotaTemplates(productCatalog,
+                CaffeineSpec.parse("maximumSize=100"), new MetricRegistry())));
+
+    /**
+     * Remove the products inserted by a test. Paid quotas are removed with their orders.
+     */
+    @AfterEach
+    public void tearDown() {
+        for (Integer productId : this.productIds) {
+            try {
+                ProductHelper.removeTestProduct(productId);
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Test paying an order starts its trial and inserts the quotas of its product
+     */
+    @Test
+    @DisplayName("Test paying an order inserts its quotas")
+    public void testPay() throws SQLException {
+        Integer orderId = insertTestOrderWithProduct(1);
+
+        Response response = pay(orderId);
+        assertEquals(200, response.getStatus());
+        assertEquals("trialing", response.readEntity(Order.class).getStatus());
+
+        // The test product has a single portal feature quota
+        List<Quota> quotas = dbi.onDemand(QuotaStore.class).findQuotasByOrderId(orderId);
+        assertEquals(1, quotas.size());
+        assertEquals("portal", quotas.get(0).getQuotaType());
+        assertEquals(3.0, quotas.get(0).getHardLimit(), 0.0);
+        assertEquals("trialing", dbi.onDemand(OrderStore.class).getOrder(orderId).getStatus());
+    }
+
+    /**
+     * Test a failed payment inserts no quotas and leaves the order unchanged
+     */
+    @Test
+    @DisplayName("Test a failed payment rolls back its quotas")
+    public void testPayRollsBack() throws SQLException {
+        // Two items of the product give two portal quotas for the order, which fails
+        // the unique constraint on the quota orderId and quotaType
+        Integer orderId = insertTestOrderWithProduct(2);
+
+        assertEquals(500, pay(orderId).getStatus());
+        assertTrue(dbi.onDemand(QuotaStore.class).findQuotasByOrderId(orderId).isEmpty());
+        assertEquals("paid", dbi.onDemand(OrderStore.class).getOrder(orderId).getStatus());
+    }
+
+    /**
+     * Test a non-admin listing orders by subject sees their own orders in full and
+     * redacted orders of their groups, whether or not the group has a customer record
+     */
+    @Test
+    @DisplayName("Test listing redacted orders by subject")
+    public void testListOrdersRedacted() throws SQLException {
+        Integer userOrderId = insertTestOrder();
+        Integer groupOrderId = insertTestOrder();
+        dbi.useHandle(handle -> {
+            handle.execute("UPDATE orders SET subject = ? WHERE id = ?",
+                ResourceHelper.USER_SUBJECT, userOrderId);
+            handle.execute("UPDATE orders SET subject = ? WHERE id = ?",
+                ResourceHelper.GROUP_SUBJECT, groupOrderId);
+        });
+
+        Response response = resources.target("/orders")
+            .queryParam("subject", ResourceHelper.USER_SUBJECT, ResourceHelper.GROUP_SUBJECT)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, ResourceHelper.USER_AUTHORIZATION)
+            .get();
+        assertEquals(200, response.getStatus());
+
+        List<Order> orders = response.readEntity(OrderList.class).getOrders();
+        assertEquals(2, orders.size());
+        for (Order order : orders) {
+            if ( order.getId().equals(userOrderId) ) {
+                assertEquals(ResourceHelper.USER_SUBJECT, order.getSubject());
+            } else {
+                assertEquals(groupOrderId, order.getId());
+                assertNull(order.getSubject());
+                assertNull(order.getEmail());
+            }
+        }
+    }
+
+    /**
+     * Insert a test order with SKU items of a new test product
+     * @param itemCount  the number of items of the product
+     * @return orderId  the order identifier
+     * @throws SQLException  if the order can't be inserted
+     */
+    private Integer insertTestOrderWithProduct(int itemCount) throws SQLException {
+        Integer productId = ProductHelper.insertTestProduct(StoreHelper.getRandomId());
+        this.productIds.add(productId);
+        Integer orderId = insertTestOrder();
+        List<OrderItem> items = new ArrayList<OrderItem>();
+        for (int i = 0; i < itemCount; i++) {
+            OrderItem item = OrderHelper.createTestOrderItems().get(0);
+            item.setParent(productId);
+            items.add(item);
+        }
+        String itemsJson = Jackson.newObjectMapper().valueToTree(items).toString();
+        dbi.useHandle(handle ->
+            handle.execute("UPDATE orders SET items = ?::jsonb WHERE id = ?", itemsJson, orderId));
+        return orderId;
+    }
+
+    /**
+     * Pay an order through the resource as an admin
+     * @param orderId  the order identifier
+     * @return response  the response
+     */
+    private Response pay(Integer orderId) {
+        return resources.target("/orders/" + orderId + "/pay")
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, ResourceHelper.ADMIN_AUTHORIZATION)
+            .post(Entity.json(""));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.resources;
+
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.api.Product;
+import org.dataone.bookkeeper.helpers.ProductHelper;
+import org.dataone.bookkeeper.helpers.ResourceHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.dataone.bookkeeper.jdbi.ProductCatalog;
+import org.dataone.bookkeeper.security.DataONEAuthHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the status codes and headers of the products resource
+ */
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class ProductsResourceTest extends BaseTestCase {
+
+    /* The products inserted by a test, removed after it */
+    private final List<Integer> productIds = new ArrayList<Integer>();
+
+    /* The auth helper of the resource, without CN access */
+    private final DataONEAuthHelper dataoneAuthHelper = ResourceHelper.createAuthHelper();
+
+    /* The in-memory products resource */
+    private final ResourceExtension resources = ResourceHelper.createResourceExtension(
+        dataoneAuthHelper,
+        new ProductsResource(dbi, dataoneAuthHelper, new ProductCatalog(dbi)));
+
+    /**
+     * Remove the products inserted by a test
+     */
+    @AfterEach
+    public void tearDown() {
+        for (Integer productId : this.productIds) {
+            try {
+                ProductHelper.removeTestProduct(productId);
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * List the products through the resource
+     * @param tag  the entity tag of the client's copy, or null for none
+     * @return response  the response
+     */
+    private Response listProducts(EntityTag tag) {
+        return resources.target("/products")
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.IF_NONE_MATCH, tag)
+            .get();
+    }
+
+    /**
+     * Test product listings are tagged, revalidate to 304 while the products are unchanged,
+     * and get a new tag when a product changes through the resource
+     */
+    @Test
+    @DisplayName("Test product listings revalidate with ETags")
+    public void testListProductsETag() {
+        Product product = ProductHelper.createTestProduct(StoreHelper.getRandomId());
+        this.productIds.add(ProductHelper.insertTestProduct(product).getId());
+
+        Response response = listProducts(null);
+        assertEquals(200, response.getStatus());
+        EntityTag tag = response.getEntityTag();
+        assertNotNull(tag);
+        assertTrue(response.getHeaderString(HttpHeaders.CACHE_CONTROL).contains("max-age=60"));
+
+        response = listProducts(tag);
+        assertEquals(304, response.getStatus());
+        assertEquals(tag, response.getEntityTag());
+
+        // Changing a product through the resource reloads the catalog
+        product.setCaption("Changed");
+        response = resources.target("/products/" + product.getId())
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, ResourceHelper.ADMIN_AUTHORIZATION)
+            .put(Entity.json(product));
+        assertEquals(200, response.getStatus());
+        response = listProducts(tag);
+        assertEquals(200, response.getStatus());
+        assertNotEquals(tag, response.getEntityTag());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.resources;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.helpers.QuotaHelper;
+import org.dataone.bookkeeper.helpers.ResourceHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
+import org.dataone.bookkeeper.security.DataONEAuthHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the status codes and headers of the quotas resource
+ */
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class QuotasResourceTest extends BaseTestCase {
+
+    /* A Jackson mapper for reading responses */
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    /* The auth helper of the resource, without CN access */
+    private final DataONEAuthHelper dataoneAuthHelper = ResourceHelper.createAuthHelper();
+
+    /* The in-memory quotas resource */
+    private final ResourceExtension resources = ResourceHelper.createResourceExtension(
+        dataoneAuthHelper,
+        new QuotasResource(dbi, dataoneAuthHelper,
+            new QuotaHeadroomCache(dbi.onDemand(QuotaStore.class),
+                CaffeineSpec.parse("maximumSize=100"), new MetricRegistry())));
+
+    /* The quota inserted by a test with its own subject, removed after it */
+    private Integer quotaId;
+
+    /**
+     * Remove the quota inserted by a test
+     */
+    @AfterEach
+    public void tearDown() {
+        if ( this.quotaId != null ) {
+            try {
+                QuotaHelper.removeTestQuota(this.quotaId);
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Check a quantity through the resource
+     * @param authorization  the authorization header value
+     * @param subject  the quota subject
+     * @param quantity  the quantity to admit
+     * @return response  the response
+     */
+    private Response check(String authorization, String subject, double quantity) {
+        return resources.target("/quotas/check")
+            .queryParam("subject", subject)
+            .queryParam("quotaType", "portal")
+            .queryParam("quantity", quantity)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, authorization)
+            .get();
+    }
+
+    /**
+     * Test the decisions and status codes of quota admission checks
+     */
+    @Test
+    @DisplayName("Test the quota check decisions and status codes")
+    public void testCheck() throws SQLException, IOException {
+        // A portal quota with soft and hard limits of 5
+        String subject = "http://orcid.org/check-" + StoreHelper.getRandomId();
+        this.quotaId = QuotaHelper.insertTestQuotaWithSubject(
+            StoreHelper.getRandomId(), insertTestOrder(), subject);
+
+        Response response = check(ResourceHelper.ADMIN_AUTHORIZATION, subject, 5.0);
+        assertEquals(200, response.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getMediaType());
+        JsonNode allowed = mapper.readTree(response.readEntity(String.class));
+        assertEquals("allow", allowed.get("decision").asText());
+        assertEquals(5.0, allowed.get("hardLimit").asDouble(), 0.0);
+
+        response = check(ResourceHelper.ADMIN_AUTHORIZATION, subject, 6.0);
+        assertEquals(200, response.getStatus());
+        assertEquals("hard-denied",
+            mapper.readTree(response.readEntity(String.class)).get("decision").asText());
+
+        // Refusals
+        assertEquals(400, check(ResourceHelper.ADMIN_AUTHORIZATION, subject, -1.0).getStatus());
+        assertEquals(403, check(ResourceHelper.USER_AUTHORIZATION, subject, 1.0).getStatus());
+        assertEquals(404, check(ResourceHelper.ADMIN_AUTHORIZATION,
+            "http://orcid.org/unknown-" + StoreHelper.getRandomId(), 1.0).getStatus());
+        assertEquals(401, resources.target("/quotas/check")
+            .queryParam("subject", subject)
+            .queryParam("quotaType", "portal")
+            .request(MediaType.APPLICATION_JSON)
+            .get().getStatus());
+    }
+}
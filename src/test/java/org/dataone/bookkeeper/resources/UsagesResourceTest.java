@@ -0,0 +1,542 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2019
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.resources;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.testing.junit5.DropwizardExtensionsSupport;
+import io.dropwizard.testing.junit5.ResourceExtension;
+import org.dataone.bookkeeper.BaseTestCase;
+import org.dataone.bookkeeper.api.Usage;
+import org.dataone.bookkeeper.api.UsageStatus;
+import org.dataone.bookkeeper.helpers.ResourceHelper;
+import org.dataone.bookkeeper.helpers.StoreHelper;
+import org.dataone.bookkeeper.helpers.UsageHelper;
+import org.dataone.bookkeeper.jdbi.QuotaStore;
+import org.dataone.bookkeeper.jdbi.UsageStore;
+import org.dataone.bookkeeper.quotas.QuotaHeadroomCache;
+import org.dataone.bookkeeper.quotas.UsageStatusCache;
+import org.dataone.bookkeeper.quotas.UsageStatusKey;
+import org.dataone.bookkeeper.security.DataONEAuthHelper;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Test the status codes and headers of the usages resource
+ */
+@ExtendWith(DropwizardExtensionsSupport.class)
+public class UsagesResourceTest extends BaseTestCase {
+
+    /* The default number of seconds until a reservation expires */
+    private static final int RESERVATION_TTL_SECONDS = 300;
+
+    /* The number of seconds clients may reuse a usage status */
+    private static final int STATUS_MAX_AGE_SECONDS = 10;
+
+    /* A Jackson mapper for reading responses */
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    /* The usages inserted by a test, removed after it */
+    private final List<Integer> usageIds = new ArrayList<Integer>();
+
+    /* The auth helper of the resource, without CN access */
+    private final DataONEAuthHelper dataoneAuthHelper = ResourceHelper.createAuthHelper();
+
+    /* A Jdbi instance with a connection per handle, so requests can run concurrently */
+    private final Jdbi concurrentDbi = createConcurrentDbi();
+
+    /* The in-memory usages resource */
+    private final ResourceExtension resources = ResourceHelper.createResourceExtension(
+        dataoneAuthHelper,
+        new UsagesResource(concurrentDbi, dataoneAuthHelper,
+            new QuotaHeadroomCache(concurrentDbi.onDemand(QuotaStore.class),
+                CaffeineSpec.parse("maximumSize=100"), new MetricRegistry()),
+            RESERVATION_TTL_SECONDS,
+            new UsageStatusCache(concurrentDbi.onDemand(UsageStore.class),
+                CaffeineSpec.parse("maximumSize=100"), new MetricRegistry()),
+            STATUS_MAX_AGE_SECONDS));
+
+    /**
+     * Remove the usages inserted by a test
+     */
+    @AfterEach
+    public void tearDown() {
+        for (Integer usageId : this.usageIds) {
+            try {
+                UsageHelper.removeTestUsage(usageId);
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Test admins can stream usages as newline-delimited JSON
+     */
+    @Test
+    @DisplayName("Test streaming usages as NDJSON")
+    public void testStreamUsages() throws SQLException, IOException {
+        Integer quotaId = insertTestQuota();
+        Set<Integer> inserted = new HashSet<Integer>();
+        for (int i = 0; i < 3; i++) {
+            Integer usageId = UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                "urn:uuid:" + quotaId + "-" + i, 1.0, "active", "urn:node:testNode");
+            this.usageIds.add(usageId);
+            inserted.add(usageId);
+        }
+
+        Response response = resources.target("/usages")
+            .request(BaseResource.APPLICATION_NDJSON)
+            .header(HttpHeaders.AUTHORIZATION, ResourceHelper.ADMIN_AUTHORIZATION)
+            .get();
+        assertEquals(200, response.getStatus());
+        assertEquals(BaseResource.APPLICATION_NDJSON, response.getMediaType().toString());
+
+        // Each line is one usage, ordered by identifier
+        Set<Integer> streamed = new HashSet<Integer>();
+        Integer previous = 0;
+        for (String line : response.readEntity(String.class).split("\n")) {
+            Usage usage = mapper.readValue(line, Usage.class);
+            assertTrue(usage.getId() > previous);
+            previous = usage.getId();
+            streamed.add(usage.getId());
+        }
+        assertTrue(streamed.containsAll(inserted));
+    }
+
+    /**
+     * Test non-admins can't stream usages
+     */
+    @Test
+    @DisplayName("Test streaming usages requires admin privilege")
+    public void testStreamUsagesForbidden() {
+        Response response = resources.target("/usages")
+            .request(BaseResource.APPLICATION_NDJSON)
+            .header(HttpHeaders.AUTHORIZATION, ResourceHelper.USER_AUTHORIZATION)
+            .get();
+        assertEquals(403, response.getStatus());
+    }
+
+    /**
+     * Test JSON requests keep getting the paged list with its headers
+     */
+    @Test
+    @DisplayName("Test JSON usage lists are paged")
+    public void testListUsagesPaged() throws SQLException {
+        Integer quotaId = insertTestQuota();
+        for (int i = 0; i < 3; i++) {
+            this.usageIds.add(UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                "urn:uuid:" + quotaId + "-" + i, 1.0, "active", "urn:node:testNode"));
+        }
+
+        Response response = resources.target("/usages")
+            .queryParam("quotaId", quotaId)
+            .queryParam("count", 2)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, ResourceHelper.ADMIN_AUTHORIZATION)
+            .get();
+        assertEquals(200, response.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getMediaType());
+        assertEquals("3", response.getHeaderString(BaseResource.TOTAL_COUNT_HEADER));
+        assertNotNull(response.getLink("next"));
+    }
+
+    /**
+     * Test usage batches and single usage inserts to the same quota, running concurrently,
+     * each add their usages to the quota total
+     */
+    @Test
+    @DisplayName("Test concurrent batch and single inserts keep the quota total")
+    public void testConcurrentBatchAndSingleInserts() throws Exception {
+        Integer quotaId = insertTestQuota();
+        List<Callable<List<Integer>>> tasks = new ArrayList<Callable<List<Integer>>>();
+        for (int thread = 0; thread < 4; thread++) {
+            String prefix = "urn:uuid:" + quotaId + "-" + thread + "-";
+
+            // Post a batch of five usages
+            tasks.add(() -> {
+                List<Usage> batch = new ArrayList<Usage>();
+                for (int i = 0; i < 5; i++) {
+                    batch.add(new Usage(null, "usage", quotaId, prefix + "batch-" + i, 1.0,
+                        "active", "urn:node:testNode"));
+                }
+                Response response = resources.target("/usages/batch")
+                    .request(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.AUTHORIZATION, ResourceHelper.ADMIN_AUTHORIZATION)
+                    .post(Entity.json(batch));
+                assertEquals(200, response.getStatus());
+                List<Integer> ids = new ArrayList<Integer>();
+                for (JsonNode result : mapper.readTree(response.readEntity(String.class))) {
+                    assertEquals(201, result.get("status").asInt());
+                    ids.add(result.get("usage").get("id").asInt());
+                }
+                return ids;
+            });
+
+            // Insert five single usages, each updating the total through the triggers
+            tasks.add(() -> {
+                UsageStore usageStore = concurrentDbi.onDemand(UsageStore.class);
+                List<Integer> ids = new ArrayList<Integer>();
+                for (int i = 0; i < 5; i++) {
+                    ids.add(usageStore.insert(new Usage(null, "usage", quotaId, prefix + "single-" + i,
+                        1.0, "active", "urn:node:testNode")));
+                }
+                return ids;
+            });
+        }
+        for (List<Integer> ids : runConcurrently(tasks)) {
+            this.usageIds.addAll(ids);
+        }
+
+        assertEquals(40, this.usageIds.size());
+        assertEquals(40.0, dbi.onDemand(QuotaStore.class).getQuota(quotaId).getTotalUsage(), 1e-9);
+    }
+
+    /**
+     * Test a batch usage inserted concurrently by another transaction gets a 409 result,
+     * while the rest of the batch is created and only the created usages count toward the total
+     */
+    @Test
+    @DisplayName("Test batch usages inserted concurrently conflict")
+    public void testBatchConcurrentInsert() throws Exception {
+        Integer quotaId = insertTestQuota();
+        String instanceId = "urn:uuid:" + quotaId;
+        List<Usage> batch = new ArrayList<Usage>();
+        batch.add(new Usage(null, "usage", quotaId, instanceId, 1.0, "active", "urn:node:testNode"));
+        batch.add(new Usage(null, "usage", quotaId, instanceId + "-other", 1.0, "active",
+            "urn:node:testNode"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        JsonNode results;
+        try (Handle writer = concurrentDbi.open()) {
+            // The uncommitted usage isn't visible to the batch, whose insert waits for it
+            writer.begin();
+            this.usageIds.add(writer.attach(UsageStore.class).insert(new Usage(null, "usage",
+                quotaId, instanceId, 2.0, "active", "urn:node:testNode")));
+            Future<Response> response = executor.submit(() -> resources.target("/usages/batch")
+                .request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, ResourceHelper.ADMIN_AUTHORIZATION)
+                .post(Entity.json(batch)));
+
+            // Commit the usage once the batch waits for it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ( dbi.withHandle(handle -> handle.createQuery(
+                "SELECT count(*) FROM pg_locks WHERE NOT granted").mapTo(Integer.class).one()) == 0 &&
+                System.nanoTime() < deadline ) {
+                Thread.sleep(10);
+            }
+            writer.commit();
+            assertEquals(200, response.get(1, TimeUnit.MINUTES).getStatus());
+            results = mapper.readTree(response.get().readEntity(String.class));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(409, results.get(0).get("status").asInt());
+        assertEquals(201, results.get(1).get("status").asInt());
+        this.usageIds.add(results.get(1).get("usage").get("id").asInt());
+        assertEquals(3.0, dbi.onDemand(QuotaStore.class).getQuota(quotaId).getTotalUsage(), 1e-9);
+    }
+
+    /**
+     * Test the status codes of upserting a usage
+     */
+    @Test
+    @DisplayName("Test the upsert status codes")
+    public void testUpsertStatus() throws SQLException {
+        Integer quotaId = insertTestQuota();
+        String instanceId = "urn:uuid:" + quotaId;
+        Usage usage = new Usage(null, "usage", null, null, 2.0, "active", "urn:node:testNode");
+
+        // Creating, then updating the same usage
+        Response response = upsert(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, usage);
+        assertEquals(200, response.getStatus());
+        Usage created = response.readEntity(Usage.class);
+        this.usageIds.add(created.getId());
+        usage.setQuantity(3.0);
+        response = upsert(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, usage);
+        assertEquals(200, response.getStatus());
+        Usage updated = response.readEntity(Usage.class);
+        assertEquals(created.getId(), updated.getId());
+        assertEquals(3.0, updated.getQuantity(), 0.0);
+
+        // Refusals
+        assertEquals(403, upsert(ResourceHelper.USER_AUTHORIZATION, quotaId, instanceId, usage).getStatus());
+        assertEquals(404, upsert(ResourceHelper.ADMIN_AUTHORIZATION, StoreHelper.getRandomId(),
+            instanceId, usage).getStatus());
+        usage.setInstanceId("urn:uuid:other");
+        assertEquals(400, upsert(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, usage).getStatus());
+    }
+
+    /**
+     * Test usage statuses can be revalidated with their ETag, and change with the usage
+     */
+    @Test
+    @DisplayName("Test conditional usage status requests")
+    public void testConditionalStatus() throws SQLException {
+        Integer quotaId = insertTestQuota();
+        String instanceId = "urn:uuid:" + quotaId;
+        assertEquals(404, status(instanceId, null).getStatus());
+
+        Usage usage = new Usage(null, "usage", null, null, 2.0, "active", "urn:node:testNode");
+        Response response = upsert(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, usage);
+        assertEquals(200, response.getStatus());
+        this.usageIds.add(response.readEntity(Usage.class).getId());
+
+        // The first request gets the status, and revalidating it gets a 304
+        response = status(instanceId, null);
+        assertEquals(200, response.getStatus());
+        assertEquals("active", response.readEntity(UsageStatus.class).getStatus());
+        EntityTag etag = response.getEntityTag();
+        assertNotNull(etag);
+        assertTrue(response.getHeaderString(HttpHeaders.CACHE_CONTROL)
+            .contains("max-age=" + STATUS_MAX_AGE_SECONDS));
+        response = status(instanceId, etag);
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getEntityTag());
+
+        // Changing the usage invalidates its cached status
+        usage.setStatus("inactive");
+        assertEquals(200, upsert(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, usage).getStatus());
+        response = status(instanceId, etag);
+        assertEquals(200, response.getStatus());
+        assertEquals("inactive", response.readEntity(UsageStatus.class).getStatus());
+        assertNotEquals(etag, response.getEntityTag());
+    }
+
+    /**
+     * Test the statuses of many instances are returned by instance and quota type
+     */
+    @Test
+    @DisplayName("Test batch usage status requests")
+    public void testStatusBatch() throws SQLException {
+        Integer quotaId = insertTestQuota();
+        List<UsageStatusKey> keys = new ArrayList<UsageStatusKey>();
+        for (int i = 0; i < 3; i++) {
+            String instanceId = "urn:uuid:" + quotaId + "-" + i;
+            this.usageIds.add(UsageHelper.insertTestUsage(StoreHelper.getRandomId(), quotaId,
+                instanceId, 1.0, i == 0 ? "inactive" : "active", "urn:node:testNode"));
+            keys.add(new UsageStatusKey(instanceId, "portal"));
+        }
+        keys.add(new UsageStatusKey("urn:uuid:" + quotaId + "-0", "storage"));
+        keys.add(new UsageStatusKey("urn:uuid:missing", "portal"));
+
+        Response response = statusBatch(keys);
+        assertEquals(200, response.getStatus());
+        JsonNode statuses = response.readEntity(JsonNode.class);
+        assertEquals(3, statuses.size());
+        assertEquals("inactive", statuses.path("urn:uuid:" + quotaId + "-0").path("portal").path("status").asText());
+        assertEquals("active", statuses.path("urn:uuid:" + quotaId + "-2").path("portal").path("status").asText());
+        assertEquals(1, statuses.path("urn:uuid:" + quotaId + "-0").size());
+
+        // Refusals
+        assertEquals(400, statusBatch(new ArrayList<UsageStatusKey>()).getStatus());
+        assertEquals(400, statusBatch(Collections.singletonList(
+            new UsageStatusKey("urn:uuid:" + quotaId + "-0", null))).getStatus());
+    }
+
+    /**
+     * Test the status codes of reserving, committing, and cancelling usages
+     */
+    @Test
+    @DisplayName("Test the reservation status codes")
+    public void testReservationStatus() throws SQLException {
+        // The test quota has a hard limit of 10
+        Integer quotaId = insertTestQuota();
+        String instanceId = "urn:uuid:" + quotaId;
+
+        Response response = reserve(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, 6.0);
+        assertEquals(201, response.getStatus());
+        Usage reserved = response.readEntity(Usage.class);
+        this.usageIds.add(reserved.getId());
+        assertEquals("pending", reserved.getStatus());
+
+        // Refusals
+        assertEquals(409, reserve(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, 1.0).getStatus());
+        assertEquals(409, reserve(ResourceHelper.ADMIN_AUTHORIZATION, quotaId,
+            "urn:uuid:other", 5.0).getStatus());
+        assertEquals(404, reserve(ResourceHelper.ADMIN_AUTHORIZATION, StoreHelper.getRandomId(),
+            instanceId, 1.0).getStatus());
+        assertEquals(403, reserve(ResourceHelper.USER_AUTHORIZATION, quotaId,
+            "urn:uuid:other", 1.0).getStatus());
+
+        // Committing, then cancelling, once there is no longer a pending usage
+        response = reservation(ResourceHelper.ADMIN_AUTHORIZATION, reserved.getId())
+            .put(Entity.json(""));
+        assertEquals(200, response.getStatus());
+        assertEquals("active", response.readEntity(Usage.class).getStatus());
+        assertEquals(404, reservation(ResourceHelper.ADMIN_AUTHORIZATION, reserved.getId())
+            .put(Entity.json("")).getStatus());
+        assertEquals(404, reservation(ResourceHelper.ADMIN_AUTHORIZATION, reserved.getId())
+            .delete().getStatus());
+
+        // Cancelling a pending usage
+        response = reserve(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, "urn:uuid:cancelled", 4.0);
+        assertEquals(201, response.getStatus());
+        Usage cancelled = response.readEntity(Usage.class);
+        this.usageIds.add(cancelled.getId());
+        assertEquals(403, reservation(ResourceHelper.USER_AUTHORIZATION, cancelled.getId())
+            .delete().getStatus());
+        assertEquals(200, reservation(ResourceHelper.ADMIN_AUTHORIZATION, cancelled.getId())
+            .delete().getStatus());
+        this.usageIds.remove(cancelled.getId());
+        assertEquals(6.0, dbi.onDemand(QuotaStore.class).getQuota(quotaId).getTotalUsage(), 0.0);
+    }
+
+    /**
+     * Test concurrent reservations of one quota neither exceed its hard limit nor reserve
+     * the same instance twice
+     */
+    @Test
+    @DisplayName("Test concurrent reservations keep to the hard limit")
+    public void testConcurrentReservations() throws Exception {
+        // The test quota has a hard limit of 10, room for five reservations of 2
+        Integer quotaId = insertTestQuota();
+        List<Callable<Response>> tasks = new ArrayList<Callable<Response>>();
+        for (int thread = 0; thread < 8; thread++) {
+            String instanceId = "urn:uuid:" + quotaId + "-" + thread;
+            tasks.add(() -> reserve(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, 2.0));
+        }
+        for (int thread = 0; thread < 4; thread++) {
+            String instanceId = "urn:uuid:" + quotaId + "-same";
+            tasks.add(() -> reserve(ResourceHelper.ADMIN_AUTHORIZATION, quotaId, instanceId, 0.0));
+        }
+        int created = 0;
+        for (Response response : runConcurrently(tasks)) {
+            if ( response.getStatus() == 201 ) {
+                this.usageIds.add(response.readEntity(Usage.class).getId());
+                created++;
+            } else {
+                assertEquals(409, response.getStatus());
+            }
+        }
+
+        assertEquals(6, created);
+        assertEquals(10.0, dbi.onDemand(QuotaStore.class).getQuota(quotaId).getTotalUsage(), 0.0);
+    }
+
+    /**
+     * Reserve a usage through the resource
+     * @param authorization  the authorization header value
+     * @param quotaId  the quota identifier
+     * @param instanceId  the instance identifier
+     * @param quantity  the quantity to reserve
+     * @return response  the response
+     */
+    private Response reserve(String authorization, Integer quotaId, String instanceId,
+                             Double quantity) {
+        Usage usage = new Usage(null, "usage", quotaId, instanceId, quantity, null,
+            "urn:node:testNode");
+        return resources.target("/usages/reservations")
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, authorization)
+            .post(Entity.json(usage));
+    }
+
+    /**
+     * Build a request for a reservation
+     * @param authorization  the authorization header value
+     * @param usageId  the usage identifier of the reservation
+     * @return request  the request builder
+     */
+    private Invocation.Builder reservation(String authorization, Integer usageId) {
+        return resources.target("/usages/reservations/" + usageId)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, authorization);
+    }
+
+    /**
+     * Get the statuses of instances without authorization
+     * @param keys  the instance identifiers and quota types
+     * @return response  the response
+     */
+    private Response statusBatch(List<UsageStatusKey> keys) {
+        return resources.target("/usages/status/batch")
+            .request(MediaType.APPLICATION_JSON)
+            .post(Entity.json(keys));
+    }
+
+    /**
+     * Get the status of an instance's portal usage without authorization
+     * @param instanceId  the usage instance identifier
+     * @param etag  the entity tag to send in If-None-Match, or null
+     * @return response  the response
+     */
+    private Response status(String instanceId, EntityTag etag) {
+        Invocation.Builder request = resources.target("/usages/status")
+            .queryParam("quotaType", "portal")
+            .queryParam("instanceId", instanceId)
+            .request(MediaType.APPLICATION_JSON);
+        if ( etag != null ) {
+            request = request.header(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return request.get();
+    }
+
+    /**
+     * Upsert a usage through the resource
+     * @param authorization  the authorization header value
+     * @param quotaId  the quota identifier parameter
+     * @param instanceId  the instance identifier parameter
+     * @param usage  the usage
+     * @return response  the response
+     */
+    private Response upsert(String authorization, Integer quotaId, String instanceId, Usage usage) {
+        return resources.target("/usages")
+            .queryParam("quotaId", quotaId)
+            .queryParam("instanceId", instanceId)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, authorization)
+            .put(Entity.json(usage));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.auth.AuthenticationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test the caching and refreshing of the CN public key
+ */
+public class CNPublicKeyProviderTest {
+
+    /* The CN base URL used as the cache key */
+    private static final String CN_BASE_URL = "https://cn.example.org/cn";
+
+    /* The time to live of a fetched key in minutes */
+    private static final long TTL_MINUTES = 10;
+
+    /* The time source of the cache under test */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /* The number of fetches of the key */
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    /* The metric registry of the provider under test */
+    private MetricRegistry metrics;
+
+    /* The first key returned by the CN */
+    private RSAPublicKey firstKey;
+
+    /* The rotated key returned by the CN */
+    private RSAPublicKey rotatedKey;
+
+    /**
+     * Generate the keys for testing
+     * @throws NoSuchAlgorithmException  if RSA isn't supported
+     */
+    @BeforeEach
+    public void init() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        this.firstKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+        this.rotatedKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+        this.metrics = new MetricRegistry();
+    }
+
+    /**
+     * Build a provider fetching with the given fetcher, refreshing on the calling thread
+     * @param fetcher  the fetcher of the CN public key
+     * @return provider  the provider under test
+     */
+    private CNPublicKeyProvider newProvider(CNPublicKeyProvider.PublicKeyFetcher fetcher) {
+        return new CNPublicKeyProvider(CN_BASE_URL, TTL_MINUTES, this.metrics, url -> {
+            this.fetches.incrementAndGet();
+            return fetcher.fetch(url);
+        }, this.nanos::get, Runnable::run);
+    }
+
+    /**
+     * Test the key is fetched once and served from the cache
+     */
+    @Test
+    @DisplayName("Test the CN public key is fetched once")
+    public void testFetchedOnce() throws AuthenticationException {
+        CNPublicKeyProvider provider = newProvider(url -> this.firstKey);
+        assertSame(this.firstKey, provider.getPublicKey());
+        assertSame(this.firstKey, provider.getPublicKey());
+        assertEquals(1, this.fetches.get());
+    }
+
+    /**
+     * Test a successful refresh replaces the key
+     */
+    @Test
+    @DisplayName("Test a refresh replaces the CN public key")
+    public void testRefreshReplacesKey() throws AuthenticationException {
+        CNPublicKeyProvider provider =
+            newProvider(url -> this.fetches.get() == 1 ? this.firstKey : this.rotatedKey);
+        assertSame(this.firstKey, provider.getPublicKey());
+
+        provider.refreshIfLoaded();
+        assertSame(this.rotatedKey, provider.getPublicKey());
+        assertEquals(2, this.fetches.get());
+    }
+
+    /**
+     * Test a failed refresh keeps the last good key, including past the time to live
+     */
+    @Test
+    @DisplayName("Test a failed refresh keeps the last good CN public key")
+    public void testFailedRefreshKeepsKey() throws AuthenticationException {
+        CNPublicKeyProvider provider = newProvider(url -> {
+            if ( this.fetches.get() > 1 ) {
+                throw new IOException("The CN is unavailable.");
+            }
+            return this.firstKey;
+        });
+        assertSame(this.firstKey, provider.getPublicKey());
+
+        provider.refreshIfLoaded();
+        assertSame(this.firstKey, provider.getPublicKey());
+
+        // A read past the time to live triggers a refresh that fails too
+        this.nanos.addAndGet(TimeUnit.MINUTES.toNanos(TTL_MINUTES + 1));
+        assertSame(this.firstKey, provider.getPublicKey());
+        assertEquals(3, this.fetches.get());
+        assertEquals(2, this.metrics.meter(
+            MetricRegistry.name(CNPublicKeyProvider.class, "refresh-failures")).getCount());
+    }
+
+    /**
+     * Test a key that was never fetched fails authentication
+     */
+    @Test
+    @DisplayName("Test an unavailable CN fails authentication")
+    public void testNeverFetched() {
+        CNPublicKeyProvider provider = newProvider(url -> {
+            throw new IOException("The CN is unavailable.");
+        });
+        assertThrows(AuthenticationException.class, provider::getPublicKey);
+    }
+
+    /**
+     * Test the scheduled refresh runs at 80% of the time to live
+     */
+    @Test
+    @DisplayName("Test the CN public key refresh interval")
+    public void testRefreshSeconds() {
+        assertEquals(480, CNPublicKeyProvider.refreshSeconds(10));
+        assertEquals(1, CNPublicKeyProvider.refreshSeconds(0));
+    }
+}
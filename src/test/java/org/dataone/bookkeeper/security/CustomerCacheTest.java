@@ -0,0 +1,142 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.dataone.bookkeeper.api.Customer;
+import org.dataone.bookkeeper.helpers.CustomerHelper;
+import org.dataone.bookkeeper.jdbi.CustomerStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test the caching and invalidation of customer records by subject
+ */
+public class CustomerCacheTest {
+
+    /* The subject looked up */
+    private static final String SUBJECT = "http://orcid.org/0000-0002-8121-2341";
+
+    /* The time source of the cache under test */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /* The customer store the cache loads from */
+    private CustomerStore customerStore;
+
+    /* The cache under test */
+    private CustomerCache cache;
+
+    /**
+     * Build a cache over a mock customer store
+     */
+    @BeforeEach
+    void setUp() {
+        customerStore = mock(CustomerStore.class);
+        cache = new CustomerCache(customerStore,
+            CaffeineSpec.parse("maximumSize=100, expireAfterWrite=5m"), nanos::get, new MetricRegistry());
+    }
+
+    /**
+     * Create a test customer with the test subject
+     * @param id  the customer identifier
+     * @return customer  the customer
+     */
+    private Customer customer(Integer id) {
+        Customer customer = CustomerHelper.createCustomer(id);
+        customer.setSubject(SUBJECT);
+        return customer;
+    }
+
+    /**
+     * Test the customer is read once and each caller gets its own copy
+     */
+    @Test
+    @DisplayName("Test customers are cached and copied")
+    public void testCustomerCached() {
+        when(customerStore.findCustomerBySubject(SUBJECT)).thenReturn(customer(1));
+
+        Customer first = cache.get(SUBJECT);
+        first.setEmail("changed@example.com");
+        Customer second = cache.get(SUBJECT);
+        assertNotSame(first, second);
+        assertEquals(Integer.valueOf(1), second.getId());
+        assertEquals(SUBJECT, second.getSubject());
+        assertEquals(customer(1).getEmail(), second.getEmail());
+        verify(customerStore, times(1)).findCustomerBySubject(SUBJECT);
+    }
+
+    /**
+     * Test a subject without a customer record is cached
+     */
+    @Test
+    @DisplayName("Test a missing customer is cached")
+    public void testMissingCustomerCached() {
+        assertNull(cache.get(SUBJECT));
+        assertNull(cache.get(SUBJECT));
+        verify(customerStore, times(1)).findCustomerBySubject(SUBJECT);
+    }
+
+    /**
+     * Test a customer change is seen after invalidating its subject
+     */
+    @Test
+    @DisplayName("Test invalidating a subject reloads its customer")
+    public void testInvalidate() {
+        when(customerStore.findCustomerBySubject(SUBJECT))
+            .thenReturn(null)
+            .thenReturn(customer(2));
+        assertNull(cache.get(SUBJECT));
+
+        cache.invalidate(SUBJECT);
+        assertEquals(Integer.valueOf(2), cache.get(SUBJECT).getId());
+        verify(customerStore, times(2)).findCustomerBySubject(SUBJECT);
+    }
+
+    /**
+     * Test invalidations of subjects aren't kept after their entries expire
+     */
+    @Test
+    @DisplayName("Test retained invalidations stay bounded")
+    public void testInvalidationsBounded() {
+        for (int i = 0; i < 1000; i++) {
+            cache.invalidate("http://orcid.org/0000-0000-0000-" + i);
+        }
+        assertEquals(1000, cache.invalidationCount());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(5) + 1);
+        cache.invalidate(SUBJECT);
+        assertEquals(1, cache.invalidationCount());
+    }
+}
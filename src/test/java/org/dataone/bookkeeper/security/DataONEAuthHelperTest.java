@@ -0,0 +1,152 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import org.dataone.bookkeeper.api.Customer;
+import org.dataone.service.types.v1.Group;
+import org.dataone.service.types.v1.Person;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the index of subjects associated with a customer
+ */
+public class DataONEAuthHelperTest {
+
+    /* A group of the customer */
+    private static final String GROUP = "CN=test-group,DC=dataone,DC=org";
+
+    /* An equivalent identity of the customer */
+    private static final String EQUIVALENT = "http://orcid.org/0000-0002-8121-2341";
+
+    /* The helper under test */
+    private DataONEAuthHelper helper;
+
+    /**
+     * Build a helper without CN access
+     */
+    @BeforeEach
+    void setUp() {
+        helper = new DataONEAuthHelper();
+    }
+
+    /**
+     * Build subject information with one group and one equivalent identity
+     * @return subjectInfo  the subject information
+     */
+    private SubjectInfo subjectInfo() {
+        Subject groupSubject = new Subject();
+        groupSubject.setValue(GROUP);
+        Group group = new Group();
+        group.setSubject(groupSubject);
+        Subject personSubject = new Subject();
+        personSubject.setValue(EQUIVALENT);
+        Person person = new Person();
+        person.setSubject(personSubject);
+        SubjectInfo subjectInfo = new SubjectInfo();
+        subjectInfo.addGroup(group);
+        subjectInfo.addPerson(person);
+        return subjectInfo;
+    }
+
+    /**
+     * Build a customer with the given subject information
+     * @param subjectInfo  the subject information, or null
+     * @return customer  the customer
+     */
+    private Customer customer(SubjectInfo subjectInfo) {
+        Customer customer = new Customer();
+        customer.setSubject("http://orcid.org/0000-0000-0000-0000");
+        customer.setSubjectInfo(subjectInfo);
+        return customer;
+    }
+
+    /**
+     * Test that the associated subjects are indexed from groups and equivalent identities
+     */
+    @Test
+    @DisplayName("Test that associated subjects include groups and identities")
+    public void testGetAssociatedSubjects() {
+        Set<String> subjects = helper.getAssociatedSubjects(customer(subjectInfo()));
+        assertEquals(new HashSet<>(Arrays.asList(GROUP, EQUIVALENT)), subjects);
+        assertThrows(UnsupportedOperationException.class, () -> subjects.add("other"));
+    }
+
+    /**
+     * Test that the index is reused for the same SubjectInfo instance
+     */
+    @Test
+    @DisplayName("Test that the index hits for the same SubjectInfo instance")
+    public void testIndexHit() {
+        SubjectInfo subjectInfo = subjectInfo();
+        Set<String> first = helper.getAssociatedSubjects(customer(subjectInfo));
+        assertSame(first, helper.getAssociatedSubjects(customer(subjectInfo)));
+    }
+
+    /**
+     * Test that an equal but distinct SubjectInfo instance is indexed separately
+     */
+    @Test
+    @DisplayName("Test that the index misses for a different SubjectInfo instance")
+    public void testIndexMiss() {
+        Set<String> first = helper.getAssociatedSubjects(customer(subjectInfo()));
+        Set<String> second = helper.getAssociatedSubjects(customer(subjectInfo()));
+        assertNotSame(first, second);
+        assertEquals(first, second);
+    }
+
+    /**
+     * Test that a customer without subject information has no associated subjects
+     */
+    @Test
+    @DisplayName("Test that no subject information means no associated subjects")
+    public void testNoSubjectInfo() {
+        assertTrue(helper.getAssociatedSubjects(customer(null)).isEmpty());
+        assertTrue(helper.filterByAssociatedSubjects(
+            customer(null), Collections.singleton(GROUP)).isEmpty());
+    }
+
+    /**
+     * Test that filtering keeps only the associated subjects
+     */
+    @Test
+    @DisplayName("Test that filtering keeps only associated subjects")
+    public void testFilterByAssociatedSubjects() {
+        Set<String> requested = new HashSet<>(Arrays.asList(GROUP, "CN=other-group,DC=dataone,DC=org"));
+        assertEquals(Collections.singleton(GROUP),
+            helper.filterByAssociatedSubjects(customer(subjectInfo()), requested));
+    }
+}
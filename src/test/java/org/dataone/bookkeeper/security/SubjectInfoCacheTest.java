@@ -0,0 +1,211 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Group;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test the caching of subject information from the CN
+ */
+public class SubjectInfoCacheTest {
+
+    /* The subject looked up */
+    private static final String SUBJECT = "http://orcid.org/0000-0002-8121-2341";
+
+    /* The number of seconds an unknown subject is cached */
+    private static final long NOT_FOUND_TTL_SECONDS = 60;
+
+    /* The time source of the cache under test */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /* The tokens passed to the fetcher, in order */
+    private final List<String> fetchedTokens = new ArrayList<>();
+
+    /* The failure the fetcher throws, or null to return subject information */
+    private Exception failure;
+
+    /* The cache under test */
+    private SubjectInfoCache cache;
+
+    /**
+     * Build a cache with a fake time source and a fetcher that records its tokens
+     */
+    @BeforeEach
+    void setUp() {
+        cache = new SubjectInfoCache((token, subject) -> {
+            fetchedTokens.add(token);
+            if ( failure instanceof NotFound ) {
+                throw (NotFound) failure;
+            } else if ( failure instanceof ServiceFailure ) {
+                throw (ServiceFailure) failure;
+            }
+            return subjectInfo(subject, token != null);
+        }, CaffeineSpec.parse("maximumSize=100, expireAfterWrite=5m"),
+            NOT_FOUND_TTL_SECONDS, nanos::get, new MetricRegistry());
+    }
+
+    /**
+     * Build subject information that lists a group only when the caller is authenticated
+     * @param subject  the subject
+     * @param authenticated  true if the caller is authenticated
+     * @return subjectInfo  the subject information
+     */
+    private SubjectInfo subjectInfo(String subject, boolean authenticated) {
+        SubjectInfo subjectInfo = new SubjectInfo();
+        if ( authenticated ) {
+            Subject groupSubject = new Subject();
+            groupSubject.setValue("CN=private-group,DC=dataone,DC=org");
+            Group group = new Group();
+            group.setSubject(groupSubject);
+            subjectInfo.addGroup(group);
+        }
+        return subjectInfo;
+    }
+
+    /**
+     * Advance the fake time source
+     * @param seconds  the number of seconds to advance
+     */
+    private void advance(long seconds) {
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * Test that entries are reused until they expire
+     */
+    @Test
+    @DisplayName("Test that subject information is cached until expiry")
+    public void testCachedUntilExpiry() throws Exception {
+        SubjectInfo first = cache.get("token-1", SUBJECT);
+        assertSame(first, cache.get("token-2", SUBJECT));
+        assertEquals(1, fetchedTokens.size());
+
+        advance(TimeUnit.MINUTES.toSeconds(5) + 1);
+        cache.get("token-3", SUBJECT);
+        assertEquals(2, fetchedTokens.size());
+    }
+
+    /**
+     * Test that an anonymous load isn't served to an authenticated caller
+     */
+    @Test
+    @DisplayName("Test that anonymous subject information isn't served to token holders")
+    public void testAnonymousNotServedToAuthenticated() throws Exception {
+        SubjectInfo anonymous = cache.get(null, SUBJECT);
+        assertEquals(0, anonymous.getGroupList().size());
+
+        SubjectInfo authenticated = cache.get("token-1", SUBJECT);
+        assertEquals(1, authenticated.getGroupList().size());
+        assertNull(fetchedTokens.get(0));
+        assertEquals("token-1", fetchedTokens.get(1));
+
+        // Each view is then cached separately
+        assertSame(anonymous, cache.get(null, SUBJECT));
+        assertSame(authenticated, cache.get("token-2", SUBJECT));
+        assertEquals(2, fetchedTokens.size());
+    }
+
+    /**
+     * Test that an expired entry is fetched with the token of the current caller
+     */
+    @Test
+    @DisplayName("Test that tokens aren't kept for later fetches")
+    public void testTokensNotKept() throws Exception {
+        cache.get("token-1", SUBJECT);
+        advance(TimeUnit.MINUTES.toSeconds(5) + 1);
+        cache.get("token-2", SUBJECT);
+        assertEquals("token-1", fetchedTokens.get(0));
+        assertEquals("token-2", fetchedTokens.get(1));
+    }
+
+    /**
+     * Test that unknown subjects are cached for the shorter not found time to live
+     */
+    @Test
+    @DisplayName("Test that unknown subjects are cached briefly")
+    public void testNotFoundCachedBriefly() throws Exception {
+        failure = new NotFound("0000", "Unknown subject");
+        assertThrows(NotFound.class, () -> cache.get("token-1", SUBJECT));
+        assertThrows(NotFound.class, () -> cache.get("token-1", SUBJECT));
+        assertEquals(1, fetchedTokens.size());
+
+        failure = null;
+        advance(NOT_FOUND_TTL_SECONDS + 1);
+        assertEquals(1, cache.get("token-1", SUBJECT).getGroupList().size());
+        assertEquals(2, fetchedTokens.size());
+    }
+
+    /**
+     * Test that CN failures other than NotFound aren't cached
+     */
+    @Test
+    @DisplayName("Test that CN failures aren't cached")
+    public void testFailuresNotCached() throws Exception {
+        failure = new ServiceFailure("0000", "The CN is unavailable");
+        assertThrows(ServiceFailure.class, () -> cache.get("token-1", SUBJECT));
+
+        failure = null;
+        cache.get("token-1", SUBJECT);
+        assertEquals(2, fetchedTokens.size());
+    }
+
+    /**
+     * Test that invalidating a subject discards both views and its unknown marker
+     */
+    @Test
+    @DisplayName("Test that invalidation discards all entries of a subject")
+    public void testInvalidate() throws Exception {
+        cache.get(null, SUBJECT);
+        cache.get("token-1", SUBJECT);
+        cache.invalidate(SUBJECT);
+        cache.get(null, SUBJECT);
+        cache.get("token-1", SUBJECT);
+        assertEquals(4, fetchedTokens.size());
+
+        failure = new NotFound("0000", "Unknown subject");
+        cache.invalidate(SUBJECT);
+        assertThrows(NotFound.class, () -> cache.get("token-1", SUBJECT));
+        cache.invalidate(SUBJECT);
+        failure = null;
+        cache.get("token-1", SUBJECT);
+        assertEquals(6, fetchedTokens.size());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This work was created by participants in the DataONE project, and is
+ * jointly copyrighted by participating institutions in DataONE. For
+ * more information on DataONE, see our web site at http://dataone.org.
+ *
+ *   Copyright 2020. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.dataone.bookkeeper.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import io.dropwizard.auth.AuthenticationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test the verification of token signatures and expiry
+ */
+public class TokenVerifierTest {
+
+    /* The subject of the test tokens */
+    private static final String SUBJECT = "http://orcid.org/0000-0002-8121-2341";
+
+    /* The key generator for testing */
+    private KeyPairGenerator generator;
+
+    /* The CN key pair the tokens are signed with */
+    private KeyPair cnKeys;
+
+    /* The verifier under test */
+    private TokenVerifier verifier;
+
+    /**
+     * Generate the CN keys and the verifier for testing
+     * @throws NoSuchAlgorithmException  if RSA isn't supported
+     */
+    @BeforeEach
+    public void init() throws NoSuchAlgorithmException {
+        this.generator = KeyPairGenerator.getInstance("RSA");
+        this.generator.initialize(2048);
+        this.cnKeys = this.generator.generateKeyPair();
+        this.verifier = new TokenVerifier(null);
+    }
+
+    /**
+     * Sign a token for the subject with the given key pair
+     * @param keys  the key pair to sign with
+     * @param expiration  the expiration time of the token, or null
+     * @return token  the serialized signed token
+     * @throws JOSEException  if the token can't be signed
+     */
+    private String signToken(KeyPair keys, Date expiration) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+            .subject(SUBJECT)
+            .expirationTime(expiration)
+            .build();
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256), claims);
+        signedJWT.sign(new RSASSASigner(keys.getPrivate()));
+        return signedJWT.serialize();
+    }
+
+    /**
+     * Get the public key of the CN key pair
+     * @return publicKey  the CN public key
+     */
+    private RSAPublicKey cnPublicKey() {
+        return (RSAPublicKey) this.cnKeys.getPublic();
+    }
+
+    /**
+     * Test a token signed by the CN returns its claims
+     */
+    @Test
+    @DisplayName("Test a valid token is verified")
+    public void testValidToken() throws Exception {
+        String token = signToken(this.cnKeys, new Date(System.currentTimeMillis() + 60000));
+        JWTClaimsSet claims = this.verifier.verify(token, cnPublicKey());
+        assertNotNull(claims);
+        assertEquals(SUBJECT, claims.getSubject());
+    }
+
+    /**
+     * Test an expired token isn't verified
+     */
+    @Test
+    @DisplayName("Test an expired token isn't verified")
+    public void testExpiredToken() throws Exception {
+        String token = signToken(this.cnKeys, new Date(System.currentTimeMillis() - 60000));
+        assertNull(this.verifier.verify(token, cnPublicKey()));
+    }
+
+    /**
+     * Test a token without an expiration time isn't verified
+     */
+    @Test
+    @DisplayName("Test a token without an expiry isn't verified")
+    public void testTokenWithoutExpiry() throws Exception {
+        String token = signToken(this.cnKeys, null);
+        assertNull(this.verifier.verify(token, cnPublicKey()));
+    }
+
+    /**
+     * Test a token signed by another key isn't verified
+     */
+    @Test
+    @DisplayName("Test a token signed with the wrong key isn't verified")
+    public void testWronglySignedToken() throws Exception {
+        String token = signToken(this.generator.generateKeyPair(),
+            new Date(System.currentTimeMillis() + 60000));
+        assertNull(this.verifier.verify(token, cnPublicKey()));
+    }
+
+    /**
+     * Test unsigned and malformed tokens fail authentication
+     */
+    @Test
+    @DisplayName("Test unsigned and malformed tokens fail authentication")
+    public void testUnsignedToken() {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+            .subject(SUBJECT)
+            .expirationTime(new Date(System.currentTimeMillis() + 60000))
+            .build();
+        String unsigned = new PlainJWT(claims).serialize();
+        assertThrows(AuthenticationException.class, () -> this.verifier.verify(unsigned, cnPublicKey()));
+        assertThrows(AuthenticationException.class, () -> this.verifier.verify("not.a.token", cnPublicKey()));
+    }
+
+    /**
+     * Test verifiers are reused per key and bounded across key rotations
+     */
+    @Test
+    @DisplayName("Test verifiers are reused per key and bounded")
+    public void testVerifierReuse() throws Exception {
+        String token = signToken(this.cnKeys, new Date(System.currentTimeMillis() + 60000));
+        this.verifier.verify(token, cnPublicKey());
+        this.verifier.verify(token, cnPublicKey());
+        assertEquals(1, this.verifier.getVerifierCount());
+
+        for (int i = 0; i < TokenVerifier.MAX_VERIFIERS + 1; i++) {
+            this.verifier.verify(token, (RSAPublicKey) this.generator.generateKeyPair().getPublic());
+        }
+        assertTrue(this.verifier.getVerifierCount() <= TokenVerifier.MAX_VERIFIERS);
+        assertNotNull(this.verifier.verify(token, cnPublicKey()));
+    }
+}